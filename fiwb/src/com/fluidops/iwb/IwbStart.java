@@ -227,6 +227,8 @@ public class IwbStart
         	IwbStart.bootstrapDB();
 
         IwbStart.bootstrapWiki();
+        Wikimedia.getWikiStorage().startCompaction(
+        		Config.getConfig().getWikiCompactionInterval() * 60L * 60L * 1000L);
 
 		// by default, historic data is stored in global repository, 
 		// may be overridden in separate startup code, so we have to check
@@ -25,7 +25,10 @@ import org.apache.log4j.Logger;
 
 import com.fluidops.iwb.api.CommunicationService;
 import com.fluidops.iwb.api.EndpointImpl;
+import com.fluidops.iwb.api.LookupProviderExecutor;
+import com.fluidops.iwb.api.ProviderScheduler;
 import com.fluidops.iwb.provider.AbstractFlexProvider;
+import com.fluidops.iwb.widget.WidgetRenderer;
 import com.fluidops.util.Singleton;
 
 /**
@@ -47,6 +50,8 @@ public class TimerRegistry
 	
 	Timer providerServiceTimer;
 	
+	ProviderScheduler providerScheduler;
+	
 	// there might be several communication services
 	Collection<Timer> communicationServiceTimers;
 
@@ -73,9 +78,15 @@ public class TimerRegistry
 		// cancel provider timer (no need to finish pending runs, runs in
 		// progress will not result in any corruption)
 		logger.info("Shutting down provider service timer");
-		if (providerServiceTimer!=null)
+		if (providerServiceTimer!=null || providerScheduler!=null)
 		{
-			providerServiceTimer.cancel(); // stop queueing of new providers
+			// stop queueing of new providers
+			if (providerServiceTimer!=null)
+				providerServiceTimer.cancel();
+			if (providerScheduler!=null)
+				providerScheduler.shutdown();
+			LookupProviderExecutor.getInstance().shutdown();
+			WidgetRenderer.getInstance().shutdown();
 
 			// stop running provider
 			for (AbstractFlexProvider provider : EndpointImpl.api().getProviderService().getProviders())
@@ -120,6 +131,11 @@ public class TimerRegistry
 		this.providerServiceTimer = providerServiceTimer;
 	}
 	
+	public void registerProviderScheduler(ProviderScheduler providerScheduler) 
+	{
+		this.providerScheduler = providerScheduler;
+	}
+	
 	public void registerCommunicationServiceTimer(Timer communicationServiceTimer) 
 	{
 		communicationServiceTimers.add(communicationServiceTimer);
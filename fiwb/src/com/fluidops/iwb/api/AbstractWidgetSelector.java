@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openrdf.model.Value;
 
@@ -53,6 +54,12 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
             new WidgetPersistence(WIDGET_SER_PATH);
     static ObjectPersistance<WidgetConfig> userWidgetsPersistence = new WidgetPersistence(WIDGET_USER_PATH);
     protected static List<WidgetConfig> widgetConfigs = new ArrayList<WidgetConfig>();
+    
+    /**
+     * Incremented with each modification of the widget configurations
+     */
+    private static final AtomicLong version = new AtomicLong();
+    
     private static final Predicate<WidgetConfig> IS_USER_CONFIG = new Predicate<WidgetConfig>()
     {
         @Override
@@ -110,6 +117,7 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
             widgetConfigs.add(config);
         }
         config.userModified = true;
+        version.incrementAndGet();
     }
 
     private static WidgetConfig lookup(Class<? extends Widget<?>> widget, Value value, Boolean applyToInstances)
@@ -138,6 +146,7 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
         if(index == -1) return;
         WidgetConfig widgetConfig = widgetConfigs.get(index);
         widgetConfig.deleted = true;
+        version.incrementAndGet();
     }
 
     private static void save() throws IOException
@@ -151,6 +160,7 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
     	try
     	{
     		widgetConfigs = systemWidgetsPersistence.load();
+    		version.incrementAndGet();
     	}
     	catch (IOException e)
     	{
@@ -176,6 +186,18 @@ public abstract class AbstractWidgetSelector implements WidgetSelector {
     	}
     }
     
+    /**
+     * Returns the version of the widget configurations, which changes
+     * whenever a configuration is added, modified or removed. Can be used
+     * to detect whether data derived from {@link #getWidgets()} is outdated.
+     * 
+     * @return
+     */
+    protected static long getVersion()
+    {
+        return version.get();
+    }
+    
     public List<WidgetConfig> getWidgets()
     {
         return ImmutableList.copyOf((filter(widgetConfigs, IS_NOT_DELETED)));
@@ -19,22 +19,27 @@
 package com.fluidops.iwb.api;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Resource;
 import org.openrdf.repository.Repository;
 
 import com.fluidops.iwb.cache.AutoSuggestionCache;
+import com.fluidops.iwb.cache.CacheDelta;
 import com.fluidops.iwb.cache.ContextCache;
 import com.fluidops.iwb.cache.ImageFileCache;
 import com.fluidops.iwb.cache.InstanceCache;
 import com.fluidops.iwb.cache.InversePropertyCache;
 import com.fluidops.iwb.cache.LabelCache;
+import com.fluidops.iwb.cache.PreConditionCache;
 import com.fluidops.iwb.cache.PropertyCache;
 import com.fluidops.iwb.cache.RepositoryCache;
 import com.fluidops.iwb.cache.TypeCache;
 import com.fluidops.iwb.cache.URIAutoSuggestionCache;
+import com.google.common.cache.CacheStats;
 
 /**
  * Singletong global cache management class.
@@ -95,6 +100,7 @@ public class CacheManager
         caches.add(TypeCache.getInstance());   
         caches.add(AutoSuggestionCache.getInstance());  
         caches.add(URIAutoSuggestionCache.getInstance());  
+        caches.add(PreConditionCache.getInstance());
     }
     
     private CacheEventListener cacheListener = new VoidCacheEventListener();
@@ -213,6 +219,41 @@ public class CacheManager
         cacheListener.onUpdate(rep, res);
     }
 
+    /**
+     * Updates all caches for a given repository for a set of
+     * changed (added or removed) statements: only the cache entries
+     * affected by the changed subjects, predicates and types are
+     * evicted. If the delta is too large to be tracked, all
+     * caches of the repository are invalidated.
+     * 
+     * @param rep the repository
+     * @param delta the changes
+     */
+    public void updateAllCaches(Repository rep, CacheDelta delta)
+    {
+        if (delta.isOverflow())
+        {
+            invalidateAllCaches(rep);
+            return;
+        }
+        if (delta.isEmpty())
+            return;
+        
+        logger.trace("Updating ALL caches for " + delta.getSubjects().size() + " subjects now:");
+        for (RepositoryCache<?,?> cache : getAllRepositoryCaches()) 
+        {
+            Long before = System.currentTimeMillis();
+            cache.updateCache(rep, delta);
+            Long after = System.currentTimeMillis();
+            logger.trace("Updated " + cache.getClass().getSimpleName() + " in " + (after - before) + "ms");
+        }
+        
+        // store date of last cache change
+        lastupdate = System.currentTimeMillis();
+        
+        for (Resource res : delta.getSubjects())
+            cacheListener.onUpdate(rep, res);
+    }
 	
     /**
      * Returns all repository cache classes.
@@ -242,6 +283,21 @@ public class CacheManager
 	}
 	
 
+	/**
+	 * Returns the hit, miss and eviction statistics of all repository caches
+	 * for the given repository, keyed by the simple name of the cache class.
+	 * 
+	 * @param rep the repository, if null statistics are summed up over all repositories
+	 * @return
+	 */
+	public Map<String,CacheStats> getCacheStatistics(Repository rep)
+	{
+		Map<String,CacheStats> res = new LinkedHashMap<String,CacheStats>();
+		for (RepositoryCache<?,?> cache : caches)
+			res.put(cache.getClass().getSimpleName(), cache.stats(rep));
+		return res;
+	}
+
 	/**
 	 * Returns the date (as timestamp) of the last cache update
 	 * 
@@ -467,6 +467,17 @@ public class Context implements Comparable<Object>
 	    return timestamp;
 	}
 
+	/**
+	 * Sets the context's timestamp. The method does not persist this
+	 * information in the DB.
+	 * 
+	 * @param timestamp
+	 */
+	public void setTimestamp(Long timestamp)
+	{
+	    this.timestamp = timestamp;
+	}
+
 	/**
 	 * @return the context's source
 	 */
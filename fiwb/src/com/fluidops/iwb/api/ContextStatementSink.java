@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openrdf.model.Statement;
+
+import com.fluidops.iwb.provider.StatementSink;
+
+/**
+ * Statement sink writing the statements into a context in batches
+ * of a fixed size. The context meta information is persisted with the
+ * first batch. {@link #flush()} must be called after the last statement
+ * has been added.
+ */
+class ContextStatementSink implements StatementSink
+{
+	private final ReadWriteDataManager dm;
+	
+	private final Context context;
+	
+	private final int batchSize;
+	
+	private List<Statement> batch;
+	
+	private int count = 0;
+	
+	ContextStatementSink(ReadWriteDataManager dm, Context context, int batchSize)
+	{
+		this.dm = dm;
+		this.context = context;
+		this.batchSize = batchSize;
+		this.batch = new ArrayList<Statement>(batchSize);
+	}
+	
+	@Override
+	public synchronized void add(Statement stmt)
+	{
+		if (stmt==null)
+			return;
+		batch.add(stmt);
+		if (batch.size()>=batchSize)
+			flush();
+	}
+	
+	/**
+	 * Writes the pending statements
+	 */
+	synchronized void flush()
+	{
+		if (batch.isEmpty())
+			return;
+		
+		if (count==0)
+			dm.addToContext(batch, context);
+		else
+			dm.addToContextWithoutPersist(batch, context);
+		count += batch.size();
+		batch = new ArrayList<Statement>(batchSize);
+	}
+	
+	/**
+	 * @return the number of statements written so far
+	 */
+	synchronized int getCount()
+	{
+		return count;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.Global;
+import com.fluidops.iwb.provider.AbstractFlexProvider;
+import com.fluidops.iwb.provider.LookupProvider;
+import com.fluidops.iwb.util.Config;
+import com.fluidops.util.Pair;
+import com.fluidops.util.Singleton;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs {@link LookupProvider}s for the resource of a requested page in the
+ * background, such that a slow lookup source does not delay the page. The
+ * policy is stale-while-revalidate:
+ * 
+ * <ul>
+ * <li>if the cached lookup data is up to date (w.r.t. the poll interval of
+ *     the provider), no lookup is done</li>
+ * <li>if the cached data is outdated, the page is rendered from the cached
+ *     data and the lookup runs in the background</li>
+ * <li>if nothing is cached yet, the page waits for the lookup for at most
+ *     the lookup timeout of the provider</li>
+ * </ul>
+ * 
+ * Concurrent requests for the same provider and resource share a single
+ * lookup. The returned {@link Future} can be used to refresh the page once
+ * the lookup has finished.
+ */
+public class LookupProviderExecutor
+{
+	private static final Logger logger = Logger.getLogger(LookupProviderExecutor.class.getName());
+	
+	private static Singleton<LookupProviderExecutor> instance = new Singleton<LookupProviderExecutor>() 
+	{
+		protected LookupProviderExecutor createInstance() throws Exception 
+		{ 
+			return new LookupProviderExecutor(Math.max(1, Config.getConfig().getLookupProviderThreads())); 
+		}
+	};
+	
+	private final ThreadPoolExecutor executor;
+	
+	/**
+	 * The lookups queued or in progress, at most one per provider and resource
+	 */
+	private final ConcurrentMap<Pair<URI,URI>,Future<Boolean>> inFlight = new ConcurrentHashMap<Pair<URI,URI>,Future<Boolean>>();
+	
+	/**
+	 * instance getter
+	 */
+	public static LookupProviderExecutor getInstance()
+	{
+		return instance.instance();
+	}
+	
+	private LookupProviderExecutor(int nThreads)
+	{
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 60L, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("IWB Lookup Provider %d").setDaemon(true).build());
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Makes sure the data of the given lookup provider for the given resource
+	 * is (or becomes) up to date, according to the policy described above.
+	 * 
+	 * @param provider a provider implementing {@link LookupProvider}, which accepts the uri
+	 * @param uri
+	 * @return the lookup which is still in progress after the method returns,
+	 * 			or null if the data is up to date or the lookup has finished
+	 */
+	public Future<Boolean> lookup(AbstractFlexProvider<?> provider, URI uri)
+	{
+		ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
+		
+		// if data for this URI is already cached, find out in which context and whether it needs updating
+		URI contextURI = dm.isCached(provider.getProviderID(), uri);
+		if (contextURI!=null && !isOutdated(provider, dm.getContext(contextURI)))
+			return null;
+		
+		Future<Boolean> lookup = submit(provider, uri);
+		if (lookup==null || contextURI!=null)
+			return lookup;
+		
+		// nothing to show yet, wait for the lookup
+		try
+		{
+			lookup.get(getTimeout(provider), TimeUnit.MILLISECONDS);
+			return null;
+		}
+		catch (TimeoutException e)
+		{
+			logger.debug("Lookup of " + uri + " by provider " + provider.providerID + " continues in the background");
+			return lookup;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return lookup;
+		}
+		catch (ExecutionException e)
+		{
+			// does not happen, errors are logged in the task
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the number of lookups queued or in progress
+	 */
+	public int getPendingLookups()
+	{
+		return inFlight.size();
+	}
+	
+	/**
+	 * Removes all queued lookups. Lookups in progress are not interrupted.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+		executor.getQueue().clear();
+	}
+	
+	private static boolean isOutdated(AbstractFlexProvider<?> provider, Context context)
+	{
+		if (provider.pollInterval==null)
+			return false;
+		if (context.getTimestamp()==null)
+			return true;
+		return System.currentTimeMillis() - context.getTimestamp() > provider.pollInterval;
+	}
+	
+	private static long getTimeout(AbstractFlexProvider<?> provider)
+	{
+		if (provider.lookupTimeout!=null)
+			return Math.max(0, provider.lookupTimeout);
+		return Math.max(0, Config.getConfig().getLookupProviderTimeout());
+	}
+	
+	/**
+	 * Starts the lookup, or returns the lookup in progress for the same
+	 * provider and resource.
+	 * 
+	 * @return the lookup, null if it could not be started
+	 */
+	private Future<Boolean> submit(final AbstractFlexProvider<?> provider, final URI uri)
+	{
+		final Pair<URI,URI> key = new Pair<URI,URI>(provider.providerID, uri);
+		FutureTask<Boolean> lookup = new FutureTask<Boolean>(new Callable<Boolean>() 
+		{
+			@Override
+			public Boolean call()
+			{
+				try
+				{
+					EndpointImpl.api().getProviderService().runProvider(provider.providerID, uri.stringValue());
+					return true;
+				}
+				catch (Exception e)
+				{
+					logger.warn("Lookup of " + uri + " by provider " + provider.providerID + " failed: " + e.getMessage());
+					return false;
+				}
+			}
+		})
+		{
+			@Override
+			protected void done()
+			{
+				inFlight.remove(key, this);
+			}
+		};
+		
+		Future<Boolean> existing = inFlight.putIfAbsent(key, lookup);
+		if (existing!=null)
+			return existing;
+		
+		try
+		{
+			executor.execute(lookup);
+			return lookup;
+		}
+		catch (RejectedExecutionException e)
+		{
+			inFlight.remove(key, lookup);
+			logger.debug("Lookup executor is shut down, skipping lookup of " + uri);
+			return null;
+		}
+	}
+}
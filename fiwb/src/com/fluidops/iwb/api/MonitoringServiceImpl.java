@@ -64,6 +64,10 @@ public class MonitoringServiceImpl implements MonitoringService
 			features.add(SystemStateFeature.MYSQL_CAN_WRITE);
 		}
 		
+		features.add(SystemStateFeature.CACHE_STATISTICS);
+		features.add(SystemStateFeature.KEYWORD_INDEX_LAG);
+		features.add(SystemStateFeature.WIDGET_RENDERING);
+		
 		return featuresToStates(features);
 	}
 
@@ -46,10 +46,17 @@ public interface NamespaceService
 
     /**
      * Returns all registered namespaces prefixes and their mapping
-     * to full namespaces
+     * to full namespaces. The returned map is unmodifiable.
      */
     public Map<String,String> getRegisteredNamespacePrefixes();
     
+    /**
+     * Returns an immutable snapshot of the registered namespaces,
+     * including the precomputed PREFIX declarations. The snapshot
+     * version is increased with each modification of the namespaces.
+     */
+    public NamespaceSnapshot getNamespaceSnapshot();
+    
     /**
      * Return the default namespace
      */
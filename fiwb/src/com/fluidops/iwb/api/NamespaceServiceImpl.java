@@ -22,14 +22,12 @@ import static java.lang.Character.toChars;
 import static java.lang.String.format;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
@@ -49,6 +47,9 @@ import com.fluidops.util.StringUtil;
 import com.fluidops.util.persist.Properties;
 import com.fluidops.util.persist.TransactionalFile;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * 
@@ -65,14 +66,31 @@ public class NamespaceServiceImpl implements NamespaceService
     Properties store;
 
     /**
-     * The store, ordered by the namespace name length in descending length,
-     * because sometimes we want to resolve longer prefixes first, e.g. if we have
+     * Prefix trie over the namespaces of the store, used to find the longest
+     * matching namespace of a URI, because sometimes we want to resolve longer
+     * prefixes first, e.g. if we have
      *   ns1 -> http://www.fluidops.com
      *   ns2 -> http://www.fluidops.com/help
      * and resolve http://www.fluidops.com/help/help
      * we actually want to resolve it to ns:help rather than ns1:help/help.
      */
-    private SortedSet<Entry<Object,Object>> namespacesByDescSize;
+    private volatile NamespaceTrie namespaceTrie;
+    
+    /**
+     * Maximum number of memoized URI abbreviations
+     */
+    private static final int ABBREVIATION_CACHE_SIZE = 10000;
+    
+    /**
+     * Immutable snapshot of the store, replaced whenever the store changes
+     */
+    private volatile NamespaceSnapshot snapshot;
+    
+    /**
+     * Source for snapshot versions, global such that versions remain unique
+     * even if the namespace service is re-instantiated
+     */
+    private static final AtomicLong snapshotVersion = new AtomicLong();
     
     /**
      * Predefined namespaces
@@ -83,11 +101,6 @@ public class NamespaceServiceImpl implements NamespaceService
      */
     private static final ValueFactory valueFactory = new ValueFactoryImpl();
 
-    /**
-     * Regex pattern for a valid SPARQL local name.
-     */
-    private Pattern sparqlLocalNamePattern;
-
 	private Pattern sparqlNamespacePrefixPattern;
     
     /**
@@ -104,7 +117,7 @@ public class NamespaceServiceImpl implements NamespaceService
 
     
     @Override
-    public void registerNamespace(URI namespace, String abbreviatedNamespaceName)
+    public synchronized void registerNamespace(URI namespace, String abbreviatedNamespaceName)
     {	
     	validateNamespace(abbreviatedNamespaceName, namespace.stringValue());
     	store.setProperty(abbreviatedNamespaceName, namespace.stringValue());
@@ -136,14 +149,17 @@ public class NamespaceServiceImpl implements NamespaceService
 	@Override
     public Map<String,String> getRegisteredNamespacePrefixes() 
     {
-        Map<String,String> mapping = new HashMap<String,String>();
-        for (Object key : store.keySet())
-            mapping.put((String)key,store.getProperty((String)key));
-        return mapping;
+        return snapshot.getNamespaces();
+    }
+    
+    @Override
+    public NamespaceSnapshot getNamespaceSnapshot()
+    {
+        return snapshot;
     }
     
     @Override
-    public void unregisterNamespace(String name)
+    public synchronized void unregisterNamespace(String name)
     {
         store.setProperty(name, null);
         synchronizeSortedStore();
@@ -202,7 +218,7 @@ public class NamespaceServiceImpl implements NamespaceService
     }
 
 	private void initPatternForSparqlGrammerChecks() {
-		// initialize regex pattern for SPARQL local names
+		// initialize regex pattern for SPARQL namespace prefixes
         String PN_CHARS_BASE =
                 String.format("[A-Za-z\u00C0-\u00D6\u00D8-\u00F6"
                         + "\u00F8-\u02FF\u0370-\u037D"
@@ -217,8 +233,6 @@ public class NamespaceServiceImpl implements NamespaceService
         String PN_CHARS_U = union(PN_CHARS_BASE, "[_]");
         String PN_CHARS = union(PN_CHARS_U, "[\\-0-9\u00B7\u0300-\u036F\u203F-\u2040]");
 
-        sparqlLocalNamePattern =
-                Pattern.compile(format("%s(%s*%s)?", PN_CHARS_U, union(PN_CHARS, "[.]"), PN_CHARS));
         sparqlNamespacePrefixPattern = 
         		Pattern.compile(format("%s(%s*%s)?", PN_CHARS_U, union(PN_CHARS, "[.]"), PN_CHARS));
 	}
@@ -295,15 +309,61 @@ public class NamespaceServiceImpl implements NamespaceService
      * Validates a local name according to the SPARQL specs,
      * http://www.w3.org/TR/rdf-sparql-query/#rPN_LOCAL
      * 
+     * PN_LOCAL ::= PN_CHARS_U ((PN_CHARS|'.')* PN_CHARS)?
+     * 
+     * The grammar is checked by hand (rather than by a regex), since 
+     * this method is invoked for every URI to be abbreviated.
+     * 
      * @param localName
      * @return
      */
     protected boolean validateLocalName(String localName)
     {
-        Matcher sparqlLocalNameMatcher =
-                sparqlLocalNamePattern.matcher(localName);
-
-        return sparqlLocalNameMatcher.matches();
+        int length = localName.length();
+        if (length==0)
+            return false;
+        
+        int cp = localName.codePointAt(0);
+        if (!isPnCharsU(cp))
+            return false;
+        
+        int i = Character.charCount(cp);
+        while (i<length)
+        {
+            cp = localName.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp=='.')
+            {
+                if (i==length)
+                    return false; // must not end with '.'
+            }
+            else if (!isPnChars(cp))
+                return false;
+        }
+        return true;
+    }
+    
+    private static boolean isPnCharsBase(int cp)
+    {
+        if (cp<0x80)
+            return (cp>='A' && cp<='Z') || (cp>='a' && cp<='z');
+        return (cp>=0x00C0 && cp<=0x00D6) || (cp>=0x00D8 && cp<=0x00F6)
+                || (cp>=0x00F8 && cp<=0x02FF) || (cp>=0x0370 && cp<=0x037D)
+                || (cp>=0x037F && cp<=0x1FFF) || (cp>=0x200C && cp<=0x200D)
+                || (cp>=0x2070 && cp<=0x218F) || (cp>=0x2C00 && cp<=0x2FEF)
+                || (cp>=0x3001 && cp<=0xD7FF) || (cp>=0xF900 && cp<=0xFDCF)
+                || (cp>=0xFDF0 && cp<=0xFFFD) || (cp>=0x10000 && cp<=0xEFFFF);
+    }
+    
+    private static boolean isPnCharsU(int cp)
+    {
+        return cp=='_' || isPnCharsBase(cp);
+    }
+    
+    private static boolean isPnChars(int cp)
+    {
+        return isPnCharsU(cp) || cp=='-' || (cp>='0' && cp<='9') || cp==0x00B7
+                || (cp>=0x0300 && cp<=0x036F) || (cp>=0x203F && cp<=0x2040);
     }
 
     @Override
@@ -326,30 +386,35 @@ public class NamespaceServiceImpl implements NamespaceService
             return uri.stringValue();
         }
         
-        for ( Entry<Object, Object> s : namespacesByDescSize )
+        NamespaceTrie trie = namespaceTrie;
+        Optional<String> abbreviated = trie.abbreviations.getIfPresent(uri.stringValue());
+        if (abbreviated==null)
         {
-            String namespace = (String)s.getValue();
-            if ( uri.stringValue().startsWith(namespace) )
-            {
-                String localname =
-                        uri.stringValue().substring(namespace.length());
-
-                // return null, if the local name does not conform to standard
-                // specifications:
-                // [XML] http://www.w3.org/TR/2006/REC-xml-names11-20060816/#NT-LocalPart
-                // [SPARQL] http://www.w3.org/TR/rdf-sparql-query/#rPN_LOCAL
-                // Note that technically both apply to us, but we follow SPARQL:
-                if (! validateLocalName(localname))
-                    return null; // no abbreviated version exists
-
-                // for the default namespace, we omit the namespace prefix
-                String prefix =
-                        (((String) s.getValue()).equals(defaultNamespace())) ? ""
-                                : (String) s.getKey() + ":";
-                return prefix + localname;
-            }
+            abbreviated = Optional.fromNullable(computeAbbreviatedURI(uri.stringValue(), trie));
+            trie.abbreviations.put(uri.stringValue(), abbreviated);
         }
-        return null;
+        return abbreviated.orNull();
+    }
+    
+    private String computeAbbreviatedURI(String uri, NamespaceTrie trie)
+    {
+        NamespaceTrie.Node match = trie.longestMatch(uri);
+        if (match==null)
+            return null;
+        
+        String localname = uri.substring(match.namespace.length());
+        
+        // return null, if the local name does not conform to standard
+        // specifications:
+        // [XML] http://www.w3.org/TR/2006/REC-xml-names11-20060816/#NT-LocalPart
+        // [SPARQL] http://www.w3.org/TR/rdf-sparql-query/#rPN_LOCAL
+        // Note that technically both apply to us, but we follow SPARQL:
+        if (! validateLocalName(localname))
+            return null; // no abbreviated version exists
+
+        // for the default namespace, we omit the namespace prefix
+        String prefix = match.namespace.equals(trie.defaultNamespace) ? "" : match.prefix + ":";
+        return prefix + localname;
     }
     
     @Override
@@ -358,13 +423,8 @@ public class NamespaceServiceImpl implements NamespaceService
         if (uri==null)
             return null;
         
-        for ( Entry<Object, Object> s : namespacesByDescSize )
-        {
-            String namespace = (String)s.getValue();
-            if ( uri.stringValue().startsWith(namespace) )
-                return namespace;
-        }
-        return null;
+        NamespaceTrie.Node match = namespaceTrie.longestMatch(uri.stringValue());
+        return match==null ? null : match.namespace;
     }
     
     @Override
@@ -840,41 +900,94 @@ public class NamespaceServiceImpl implements NamespaceService
 
 
     /**
-     * This is of course not the most elegant way and error prone (we need to 
-     * take care the sorted store is synchronized at all times): we keep
-     * a set of namespace key-value mappings sorted by length of the value.
-     * The problem is that SortedMap allows sorting only by keys, not by
-     * values. And sorted set with an inner pair is not what we want. Using
-     * a bidirectional map is also invalid, because we may have duplicates
-     * (different namespace prefixes mapping to the same namespace).
+     * Synchronizes the namespace trie and the namespace snapshot with the
+     * store, to be called after every modification of the store. The
+     * memoized abbreviations are discarded together with the old trie.
      */
     private void synchronizeSortedStore()
     {
+        namespaceTrie = new NamespaceTrie(store.entrySet(), defaultNamespace());
         
-        namespacesByDescSize = new TreeSet<Entry<Object,Object>>(
-                new Comparator<Entry<Object,Object>>()
+        Map<String,String> mapping = new HashMap<String,String>();
+        for (Object key : store.keySet())
+            mapping.put((String)key,store.getProperty((String)key));
+        snapshot = new NamespaceSnapshot(snapshotVersion.incrementAndGet(), mapping, defaultNamespace());
+    }
+
+
+    /**
+     * Character trie over the namespaces, finding the longest namespace
+     * which is a prefix of a given URI in a single pass over the URI. The
+     * trie is immutable and rebuilt whenever the namespaces change, it
+     * holds a bounded memo of recently abbreviated URIs.
+     */
+    private static class NamespaceTrie
+    {
+        private static class Node
+        {
+            private final Map<Character,Node> children = new HashMap<Character,Node>(4);
+            
+            /**
+             * The namespace and its prefix, if a namespace ends at this node
+             */
+            private String namespace;
+            private String prefix;
+        }
+        
+        private final Node root = new Node();
+        
+        private final String defaultNamespace;
+        
+        private final Cache<String,Optional<String>> abbreviations = 
+                CacheBuilder.newBuilder().maximumSize(ABBREVIATION_CACHE_SIZE).build();
+        
+        private NamespaceTrie(Set<Entry<Object,Object>> namespaces, String defaultNamespace)
+        {
+            this.defaultNamespace = defaultNamespace;
+            for (Entry<Object,Object> e : namespaces)
+            {
+                if (!(e.getKey() instanceof String && e.getValue() instanceof String))
+                    continue;
+                String prefix = (String)e.getKey();
+                String namespace = (String)e.getValue();
+                
+                Node node = root;
+                for (int i=0; i<namespace.length(); i++)
                 {
-                    @Override
-                    public int compare(Entry<Object,Object> o1, Entry<Object,Object> o2)
+                    Character c = namespace.charAt(i);
+                    Node child = node.children.get(c);
+                    if (child==null)
                     {
-                        Object o1val = o1.getValue();
-                        Object o2val = o2.getValue();
-                        
-                        if (o1val instanceof String && o2val instanceof String)
-                        {
-                            int o1l = ((String)o1val).length();
-                            int o2l = ((String)o2val).length();
-
-                            if (o1l!=o2l)
-                                return o2l-o1l;
-                        }
-                        
-                        // fallback or equal-size
-                        return o1.toString().compareTo(o2.toString());
+                        child = new Node();
+                        node.children.put(c, child);
                     }
-                });
-        namespacesByDescSize.addAll(store.entrySet());
+                    node = child;
+                }
+                
+                // if several prefixes map to the same namespace, we choose the 
+                // prefix deterministically (as did the former sorted store)
+                if (node.namespace==null || (prefix+"="+namespace).compareTo(node.prefix+"="+namespace)<0)
+                {
+                    node.namespace = namespace;
+                    node.prefix = prefix;
+                }
+            }
+        }
         
+        /**
+         * @return the node of the longest namespace being a prefix of the URI, or null
+         */
+        private Node longestMatch(String uri)
+        {
+            Node match = root.namespace!=null ? root : null;
+            Node node = root;
+            for (int i=0; i<uri.length() && node!=null; i++)
+            {
+                node = node.children.get(uri.charAt(i));
+                if (node!=null && node.namespace!=null)
+                    match = node;
+            }
+            return match;
+        }
     }
-
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the registered namespaces as obtained from
+ * {@link NamespaceService#getNamespaceSnapshot()}. Each modification of
+ * the namespace registry results in a new snapshot with a higher
+ * {@link #getVersion() version}, hence the version can be used as
+ * cache key for anything derived from the namespaces (e.g. parsed queries).
+ *
+ * The PREFIX declarations for all namespaces are computed once per
+ * snapshot. In addition, {@link #getPrefixDeclarations(String, Set)}
+ * returns the declarations for only those prefixes used in a query.
+ */
+public class NamespaceSnapshot
+{
+	private final long version;
+
+	private final Map<String,String> namespaces;
+
+	private final String defaultNamespace;
+
+	private final String prefixDeclarations;
+
+	NamespaceSnapshot(long version, Map<String,String> namespaces, String defaultNamespace)
+	{
+		this.version = version;
+		this.namespaces = Collections.unmodifiableMap(new HashMap<String,String>(namespaces));
+		this.defaultNamespace = defaultNamespace;
+		this.prefixDeclarations = buildPrefixDeclarations(this.namespaces.keySet(), Collections.<String>emptySet(), true);
+	}
+
+	/**
+	 * @return the version of this snapshot, strictly increasing with each modification
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return the (unmodifiable) mapping of namespace prefixes to namespaces
+	 */
+	public Map<String,String> getNamespaces()
+	{
+		return namespaces;
+	}
+
+	/**
+	 * @return the default namespace, i.e. the namespace of the empty prefix
+	 */
+	public String getDefaultNamespace()
+	{
+		return defaultNamespace;
+	}
+
+	/**
+	 * @return the PREFIX declarations for all registered namespaces
+	 * 			and the default namespace
+	 */
+	public String getPrefixDeclarations()
+	{
+		return prefixDeclarations;
+	}
+
+	/**
+	 * Returns the PREFIX declarations for the registered namespaces that
+	 * are used in the given query, skipping the prefixes which are declared
+	 * in the query already (duplicate declarations are rejected by Sesame).
+	 *
+	 * The detection of used prefixes is conservative: any name followed by
+	 * a colon is considered (e.g. also within literals), such that at most
+	 * some unused declaration is added.
+	 *
+	 * @param query
+	 * @param declaredPrefixes the prefixes declared in the query
+	 * @return
+	 */
+	public String getPrefixDeclarations(String query, Set<String> declaredPrefixes)
+	{
+		Set<String> used = findUsedPrefixes(query);
+		used.retainAll(namespaces.keySet());
+		return buildPrefixDeclarations(used, declaredPrefixes, usesDefaultPrefix(query));
+	}
+
+	private String buildPrefixDeclarations(Collection<String> prefixes, Set<String> declaredPrefixes, boolean includeDefault)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (String prefix : prefixes)
+		{
+			if (declaredPrefixes.contains(prefix))
+				continue;
+			sb.append("PREFIX ").append(prefix).append(": <")
+					.append(namespaces.get(prefix)).append(">\r\n");
+		}
+		if (includeDefault && !declaredPrefixes.contains(""))
+			sb.append("PREFIX : <").append(defaultNamespace).append(">\r\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Collects all names directly preceding a colon in the query, i.e. the
+	 * candidates for namespace prefixes. Since a dot may be part of a prefix,
+	 * but may also separate triple patterns (e.g. <code>?o.rdfs:label</code>),
+	 * the parts after each dot of a name are candidates as well.
+	 */
+	static Set<String> findUsedPrefixes(String query)
+	{
+		Set<String> res = new HashSet<String>();
+		int colon = query.indexOf(':');
+		while (colon>=0)
+		{
+			int start = colon;
+			while (start>0 && isPrefixChar(query.charAt(start-1)))
+				start--;
+			if (start<colon)
+			{
+				String name = query.substring(start, colon);
+				res.add(name);
+				for (int dot = name.indexOf('.'); dot>=0; dot = name.indexOf('.', dot+1))
+					res.add(name.substring(dot+1));
+			}
+			colon = query.indexOf(':', colon+1);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns true if the query contains a colon which is not preceded by
+	 * a name, i.e. a potential usage of the empty (default) prefix. As a 
+	 * prefix cannot end with a dot, a dot before the colon counts as well.
+	 */
+	static boolean usesDefaultPrefix(String query)
+	{
+		int colon = query.indexOf(':');
+		while (colon>=0)
+		{
+			if (colon==0 || !isPrefixChar(query.charAt(colon-1)) || query.charAt(colon-1)=='.')
+				return true;
+			colon = query.indexOf(':', colon+1);
+		}
+		return false;
+	}
+
+	/**
+	 * Characters of namespace prefixes, i.e. the characters of PN_PREFIX in
+	 * the SPARQL grammar: letters and digits (including Unicode letters), 
+	 * '_', '-', '.', U+00B7 and the combining characters U+0300-U+036F and 
+	 * U+203F-U+2040.
+	 */
+	private static boolean isPrefixChar(char c)
+	{
+		return Character.isLetterOrDigit(c) || c=='_' || c=='-' || c=='.' || c=='\u00B7'
+				|| (c>='\u0300' && c<='\u036F') || (c>='\u203F' && c<='\u2040');
+	}
+
+}
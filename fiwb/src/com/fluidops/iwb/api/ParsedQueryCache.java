@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.Operation;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.algebra.ProjectionElem;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.parser.ParsedBooleanQuery;
+import org.openrdf.query.parser.ParsedGraphQuery;
+import org.openrdf.query.parser.ParsedOperation;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.ParsedTupleQuery;
+import org.openrdf.query.parser.ParsedUpdate;
+import org.openrdf.query.parser.QueryParserUtil;
+import org.openrdf.repository.sail.SailBooleanQuery;
+import org.openrdf.repository.sail.SailGraphQuery;
+import org.openrdf.repository.sail.SailRepositoryConnection;
+import org.openrdf.repository.sail.SailTupleQuery;
+
+import com.fluidops.iwb.api.ReadDataManagerImpl.PrefixAdder;
+import com.fluidops.iwb.api.ReadDataManagerImpl.SparqlQueryType;
+import com.fluidops.iwb.util.Config;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of query templates, i.e. queries as they are passed to
+ * {@link ReadDataManagerImpl} before resolving namespaces and the special
+ * variables ?? and $user$. For each template the query with namespace
+ * prefixes added, the query type and - if possible - the parsed operation
+ * are cached, such that neither the prefix computation nor parsing has to
+ * be repeated for recurring (e.g. widget) queries.
+ * 
+ * In the parsed operation, the special variables are represented by the
+ * variables {@link #RESOLVE_VALUE_VAR} and {@link #USER_VAR}, which are bound 
+ * at query preparation time. If the special variables occur within literals
+ * or the query cannot be parsed with variables in their positions, only the
+ * query string and type are cached and the special variables are replaced 
+ * textually as before. The same holds if a special variable would be part of
+ * the query result (e.g. for SELECT *).
+ */
+class ParsedQueryCache
+{
+	private static final Logger logger = Logger.getLogger(ParsedQueryCache.class.getName());
+	
+	/**
+	 * Variable name that represents ?? in the parsed operation
+	 */
+	static final String RESOLVE_VALUE_VAR = "__resolveValue";
+	
+	/**
+	 * Variable name that represents $user$ in the parsed operation
+	 */
+	static final String USER_VAR = "__user";
+	
+	private static final String RESOLVE_VALUE_PATTERN = "??";
+	
+	private static final String USER_PATTERN = "$user$";
+	
+	private static ParsedQueryCache instance = null;
+	
+	public static synchronized ParsedQueryCache getInstance()
+	{
+		if (instance==null)
+			instance = new ParsedQueryCache(Config.getConfig().getParsedQueryCacheSize());
+		return instance;
+	}
+	
+	/**
+	 * Cache key, consisting of the query template and the version of the
+	 * namespace registry (if namespaces are resolved)
+	 */
+	private static class Key
+	{
+		private final String template;
+		private final boolean resolveNamespaces;
+		private final long namespaceVersion;
+		
+		private Key(String template, boolean resolveNamespaces, long namespaceVersion)
+		{
+			this.template = template;
+			this.resolveNamespaces = resolveNamespaces;
+			this.namespaceVersion = namespaceVersion;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return 31 * (31 * template.hashCode() + (resolveNamespaces ? 1 : 0)) + (int)(namespaceVersion ^ (namespaceVersion >>> 32));
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return resolveNamespaces==other.resolveNamespaces 
+					&& namespaceVersion==other.namespaceVersion
+					&& template.equals(other.template);
+		}
+	}
+	
+	/**
+	 * A cached query template
+	 */
+	static class CachedQuery
+	{
+		/**
+		 * The query with namespace prefixes, special variables unresolved
+		 */
+		final String query;
+		
+		final SparqlQueryType queryType;
+		
+		/**
+		 * The parsed query with special variables as variables, may be null
+		 */
+		final ParsedOperation parsedOperation;
+		
+		final boolean hasResolveValue;
+		
+		final boolean hasUser;
+		
+		private CachedQuery(String query, SparqlQueryType queryType, ParsedOperation parsedOperation)
+		{
+			this.query = query;
+			this.queryType = queryType;
+			this.parsedOperation = parsedOperation;
+			this.hasResolveValue = query.contains(RESOLVE_VALUE_PATTERN);
+			this.hasUser = query.contains(USER_PATTERN);
+		}
+		
+		/**
+		 * Creates a query for the given connection from the parsed operation,
+		 * without parsing the query string. Each query works on a copy of the
+		 * cached algebra expression, as the evaluation may modify it.
+		 * 
+		 * @param conn
+		 * @param type the expected query type
+		 * @return the query, or null if the query cannot be created from the
+		 * 			parsed operation (e.g. for updates or if the types do not match)
+		 */
+		Operation createQuery(SailRepositoryConnection conn, SparqlQueryType type)
+		{
+			if (parsedOperation==null || type!=queryType)
+				return null;
+			
+			switch (type) {
+			case SELECT:
+				ParsedTupleQuery tq = new ParsedTupleQuery(query, ((ParsedQuery)parsedOperation).getTupleExpr().clone());
+				tq.setDataset(parsedOperation.getDataset());
+				return new CachedSailTupleQuery(tq, conn);
+			case CONSTRUCT:
+				ParsedGraphQuery pgq = (ParsedGraphQuery)parsedOperation;
+				ParsedGraphQuery gq = new ParsedGraphQuery(query, pgq.getTupleExpr().clone(), pgq.getQueryNamespaces());
+				gq.setDataset(parsedOperation.getDataset());
+				return new CachedSailGraphQuery(gq, conn);
+			case ASK:
+				ParsedBooleanQuery bq = new ParsedBooleanQuery(query, ((ParsedQuery)parsedOperation).getTupleExpr().clone());
+				bq.setDataset(parsedOperation.getDataset());
+				return new CachedSailBooleanQuery(bq, conn);
+			default:
+				return null;
+			}
+		}
+	}
+	
+	private static class CachedSailTupleQuery extends SailTupleQuery
+	{
+		private CachedSailTupleQuery(ParsedTupleQuery query, SailRepositoryConnection conn)
+		{
+			super(query, conn);
+		}
+	}
+	
+	private static class CachedSailGraphQuery extends SailGraphQuery
+	{
+		private CachedSailGraphQuery(ParsedGraphQuery query, SailRepositoryConnection conn)
+		{
+			super(query, conn);
+		}
+	}
+	
+	private static class CachedSailBooleanQuery extends SailBooleanQuery
+	{
+		private CachedSailBooleanQuery(ParsedBooleanQuery query, SailRepositoryConnection conn)
+		{
+			super(query, conn);
+		}
+	}
+	
+	private final Cache<Key,CachedQuery> cache;
+	
+	private ParsedQueryCache(int maximumSize)
+	{
+		cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+	}
+	
+	/**
+	 * Returns the cached query for the given template, the template is
+	 * prepared and parsed if it is not yet cached.
+	 * 
+	 * @param template the query, possibly containing ?? and $user$
+	 * @param resolveNamespaces whether registered namespace prefixes shall be added
+	 * @return
+	 * @throws MalformedQueryException if the query cannot be parsed
+	 */
+	CachedQuery get(String template, boolean resolveNamespaces) throws MalformedQueryException
+	{
+		NamespaceSnapshot namespaces = null;
+		long namespaceVersion = 0;
+		if (resolveNamespaces)
+		{
+			namespaces = EndpointImpl.api().getNamespaceService().getNamespaceSnapshot();
+			namespaceVersion = namespaces.getVersion();
+		}
+		
+		Key key = new Key(template, resolveNamespaces, namespaceVersion);
+		CachedQuery res = cache.getIfPresent(key);
+		if (res!=null)
+			return res;
+		
+		String query = resolveNamespaces ? PrefixAdder.addPrefixes(template, namespaces) : template;
+		query = query.trim();
+		
+		// try to parse with special variables as query variables
+		ParsedOperation parsedOperation = null;
+		if (occursOutsideLiteralsOnly(query, RESOLVE_VALUE_PATTERN) && occursOutsideLiteralsOnly(query, USER_PATTERN))
+		{
+			String q = query.replace(RESOLVE_VALUE_PATTERN, "?" + RESOLVE_VALUE_VAR).replace(USER_PATTERN, "?" + USER_VAR);
+			try
+			{
+				parsedOperation = QueryParserUtil.parseOperation(QueryLanguage.SPARQL, q, null);
+			}
+			catch (MalformedQueryException e)
+			{
+				logger.trace("Query cannot be parsed with special variables as variables: " + e.getMessage());
+			}
+		}
+		
+		// the query type is determined from the parsed operation if possible, otherwise
+		// special variables are replaced by a dummy URI, just like at evaluation time
+		SparqlQueryType queryType;
+		if (parsedOperation!=null)
+			queryType = getQueryType(parsedOperation, query);
+		else
+		{
+			String q = query.replace(RESOLVE_VALUE_PATTERN, "<" + RDF.TYPE + ">").replace(USER_PATTERN, "<" + RDF.TYPE + ">");
+			queryType = getQueryType(QueryParserUtil.parseOperation(QueryLanguage.SPARQL, q, null), query);
+		}
+		
+		// special variables must not show up as result variables
+		if (parsedOperation!=null && projectsSpecialVariable(parsedOperation))
+			parsedOperation = null;
+		
+		res = new CachedQuery(query, queryType, queryType==SparqlQueryType.UPDATE ? null : parsedOperation);
+		cache.put(key, res);
+		return res;
+	}
+	
+	/**
+	 * Return the number of cached queries 
+	 */
+	long size()
+	{
+		return cache.size();
+	}
+	
+	private static SparqlQueryType getQueryType(ParsedOperation parsedOperation, String query) throws MalformedQueryException
+	{
+        if (parsedOperation instanceof ParsedTupleQuery)
+            return SparqlQueryType.SELECT;
+        else if (parsedOperation instanceof ParsedGraphQuery)
+            return SparqlQueryType.CONSTRUCT;
+        else if (parsedOperation instanceof ParsedBooleanQuery)
+            return SparqlQueryType.ASK;
+        else if (parsedOperation instanceof ParsedUpdate)
+        	return SparqlQueryType.UPDATE;
+        else
+            throw new MalformedQueryException("Unexpected query type "
+                    + parsedOperation.getClass() + " for query " + query);
+	}
+	
+	/**
+	 * Returns true if one of the special variables is projected, i.e. would
+	 * be contained in the query result (e.g. for SELECT * queries).
+	 */
+	private static boolean projectsSpecialVariable(ParsedOperation parsedOperation)
+	{
+		if (!(parsedOperation instanceof ParsedTupleQuery))
+			return false;
+		
+		final boolean[] res = new boolean[] { false };
+		((ParsedQuery)parsedOperation).getTupleExpr().visit(new QueryModelVisitorBase<RuntimeException>()
+		{
+			@Override
+			public void meet(ProjectionElem node)
+			{
+				if (node.getTargetName().equals(RESOLVE_VALUE_VAR) || node.getTargetName().equals(USER_VAR))
+					res[0] = true;
+			}
+		});
+		return res[0];
+	}
+	
+	/**
+	 * Returns true if the pattern does not occur inside a string literal
+	 * (delimited by single or double quotes) of the query.
+	 * 
+	 * @param query
+	 * @param pattern
+	 * @return
+	 */
+	static boolean occursOutsideLiteralsOnly(String query, String pattern)
+	{
+		int idx = query.indexOf(pattern);
+		if (idx<0)
+			return true;
+		
+		char quote = 0;
+		for (int i=0; i<query.length(); i++)
+		{
+			char c = query.charAt(i);
+			if (quote!=0)
+			{
+				if (c=='\\')
+					i++; // skip escaped character
+				else if (c==quote)
+					quote = 0;
+				else if (query.startsWith(pattern, i))
+					return false;
+			}
+			else if (c=='"' || c=='\'')
+				quote = c;
+			else if (c=='<')
+			{
+				// skip IRIs (which may contain '#' or quotes)
+				int end = query.indexOf('>', i);
+				if (end>0 && !containsWhitespace(query, i+1, end))
+					i = end;
+			}
+			else if (c=='#')
+			{
+				// skip comments (which may contain quotes)
+				int eol = query.indexOf('\n', i);
+				if (eol<0)
+					break;
+				i = eol;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean containsWhitespace(String s, int from, int to)
+	{
+		for (int i=from; i<to; i++)
+			if (Character.isWhitespace(s.charAt(i)))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.api;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.provider.AbstractFlexProvider;
+import com.fluidops.iwb.provider.ExternalProvider;
+import com.fluidops.iwb.provider.LookupProvider;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Scheduler for the periodic provider runs. A timer checks once per second
+ * which providers are due (according to their poll interval and last update)
+ * and hands them to a bounded pool of worker threads. Waiting runs are ordered
+ * by their due time, i.e. the most overdue provider is run first. A provider
+ * is never queued or run concurrently with itself.
+ *
+ * After a failed run, the next run of the provider is delayed exponentially
+ * (back-off). A small random jitter spreads the runs of providers with equal
+ * poll intervals.
+ */
+public class ProviderScheduler
+{
+	private static final Logger logger = Logger.getLogger(ProviderScheduler.class.getName());
+
+	/**
+	 * After n failed runs in a row, the poll interval is multiplied by 2^n,
+	 * with n being at most this value
+	 */
+	private static final int MAX_BACKOFF_EXPONENT = 5;
+
+	/**
+	 * Maximum jitter as a fraction of the poll interval, and as absolute value
+	 */
+	private static final double JITTER_FRACTION = 0.05;
+	private static final long MAX_JITTER_MS = 60000;
+
+	private final ProviderServiceImpl providerService;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Timer timer;
+
+	/**
+	 * The runs queued or in progress, at most one per provider
+	 */
+	private final ConcurrentMap<URI,ProviderRun> scheduledRuns = new ConcurrentHashMap<URI,ProviderRun>();
+
+	/**
+	 * Scheduling state of the providers which have been run by the scheduler
+	 */
+	private final ConcurrentMap<URI,ProviderState> providerStates = new ConcurrentHashMap<URI,ProviderState>();
+
+	private final Random random = new Random();
+
+	private final AtomicLong completedRuns = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong();
+	private final AtomicLong totalDuration = new AtomicLong();
+
+	/**
+	 * @param providerService the provider service used to run the providers
+	 * @param nThreads the number of worker threads, i.e. the maximum number
+	 * 			of providers running in parallel
+	 */
+	ProviderScheduler(ProviderServiceImpl providerService, int nThreads)
+	{
+		this.providerService = providerService;
+		this.executor = new ThreadPoolExecutor(nThreads, nThreads, 60L, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("IWB Provider Update %d").setDaemon(true).build());
+		this.executor.allowCoreThreadTimeOut(true);
+		this.timer = new Timer("IWB Provider Scheduler", true);
+	}
+
+	/**
+	 * Starts checking for due providers once per second
+	 */
+	void start()
+	{
+		timer.schedule(new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					scheduleDueProviders();
+				}
+				catch (Exception e)
+				{
+					logger.error(e.getMessage(), e);
+				}
+			}
+		}, 1000, 1000);
+	}
+
+	/**
+	 * Queues all providers which are due and neither queued nor running.
+	 */
+	void scheduleDueProviders()
+	{
+		long now = System.currentTimeMillis();
+		for (AbstractFlexProvider provider : providerService.getProviders())
+		{
+			if (provider.pollInterval==null || provider.pollInterval<=0)
+				continue; // disabled
+
+			if (provider.running != null && provider.running)
+				continue;
+
+			if (provider instanceof ExternalProvider || provider instanceof LookupProvider)
+				continue;
+
+			if (scheduledRuns.containsKey(provider.providerID))
+				continue;
+
+			long dueTime = getDueTime(provider);
+			if (dueTime > now)
+				continue;
+
+			ProviderRun run = new ProviderRun(provider.providerID, dueTime);
+			if (scheduledRuns.putIfAbsent(provider.providerID, run)==null)
+				executor.execute(run);
+		}
+	}
+
+	/**
+	 * Returns the time at which the provider is due. If the provider was last
+	 * run by the scheduler (with its current poll interval), back-off and jitter
+	 * are taken into account, otherwise the provider is due after the poll
+	 * interval has passed since the last update.
+	 */
+	private long getDueTime(AbstractFlexProvider provider)
+	{
+		if (provider.lastUpdate==null)
+			return 0;
+
+		ProviderState state = providerStates.get(provider.providerID);
+		if (state!=null && provider.lastUpdate.equals(state.lastUpdate) && provider.pollInterval.equals(state.pollInterval))
+			return state.nextRun;
+
+		return provider.lastUpdate.getTime() + provider.pollInterval;
+	}
+
+	/**
+	 * Records the result of a run and computes the time of the next run.
+	 */
+	private void updateState(URI providerID, boolean failed)
+	{
+		AbstractFlexProvider provider = providerService.lookup(providerID);
+		if (provider==null || provider.lastUpdate==null || provider.pollInterval==null)
+		{
+			providerStates.remove(providerID);
+			return;
+		}
+
+		ProviderState previous = providerStates.get(providerID);
+		int failures = failed ? (previous==null ? 1 : previous.failures+1) : 0;
+
+		long interval = provider.pollInterval << Math.min(failures, MAX_BACKOFF_EXPONENT);
+		long maxJitter = Math.min((long)(provider.pollInterval * JITTER_FRACTION), MAX_JITTER_MS);
+		long jitter;
+		synchronized (random)
+		{
+			jitter = maxJitter>0 ? (long)(random.nextDouble() * maxJitter) : 0;
+		}
+
+		providerStates.put(providerID, new ProviderState(provider.lastUpdate, provider.pollInterval,
+				provider.lastUpdate.getTime() + interval + jitter, failures));
+
+		if (failed)
+			logger.info("Provider " + providerID + " failed " + failures + " time(s) in a row, next run in "
+					+ ((interval + jitter)/1000) + " seconds");
+	}
+
+	/**
+	 * Removes a queued run of the given provider. A run in progress
+	 * is not interrupted.
+	 *
+	 * @param providerID
+	 * @return true if a queued run was cancelled
+	 */
+	public boolean cancel(URI providerID)
+	{
+		ProviderRun run = scheduledRuns.get(providerID);
+		if (run==null || !executor.remove(run))
+			return false;
+		scheduledRuns.remove(providerID, run);
+		return true;
+	}
+
+	/**
+	 * Stops scheduling new runs and removes all queued runs. Runs
+	 * in progress are not interrupted.
+	 */
+	public void shutdown()
+	{
+		timer.cancel();
+		for (URI providerID : scheduledRuns.keySet())
+			cancel(providerID);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the number of provider runs waiting for a worker thread
+	 */
+	public int getQueueDepth()
+	{
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return the number of providers currently run by the scheduler
+	 */
+	public int getActiveRuns()
+	{
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return the number of runs completed by the scheduler
+	 */
+	public long getCompletedRuns()
+	{
+		return completedRuns.get();
+	}
+
+	/**
+	 * @return the average time in ms between the due time of a
+	 * 			provider and the actual start of its run
+	 */
+	public long getAverageRunLatency()
+	{
+		long runs = completedRuns.get();
+		return runs==0 ? 0 : totalLatency.get() / runs;
+	}
+
+	/**
+	 * @return the average duration of the runs in ms
+	 */
+	public long getAverageRunDuration()
+	{
+		long runs = completedRuns.get();
+		return runs==0 ? 0 : totalDuration.get() / runs;
+	}
+
+	/**
+	 * A queued run of a provider, ordered by due time
+	 */
+	private class ProviderRun implements Runnable, Comparable<ProviderRun>
+	{
+		private final URI providerID;
+		private final long dueTime;
+
+		private ProviderRun(URI providerID, long dueTime)
+		{
+			this.providerID = providerID;
+			this.dueTime = dueTime;
+		}
+
+		@Override
+		public void run()
+		{
+			long start = System.currentTimeMillis();
+			boolean failed = false;
+			try
+			{
+				// the provider may have been started manually in the meantime
+				AbstractFlexProvider provider = providerService.lookup(providerID);
+				if (provider==null || (provider.running!=null && provider.running))
+					return;
+				
+				providerService.runProvider(providerID, null);
+			}
+			catch (Exception e)
+			{
+				// the error is logged and recorded in the provider
+				failed = true;
+			}
+			finally
+			{
+				long end = System.currentTimeMillis();
+				completedRuns.incrementAndGet();
+				// providers which were never run have due time 0, they count without latency
+				totalLatency.addAndGet(dueTime>0 ? Math.max(0, start - dueTime) : 0);
+				totalDuration.addAndGet(end - start);
+
+				updateState(providerID, failed);
+				scheduledRuns.remove(providerID, this);
+			}
+		}
+
+		@Override
+		public int compareTo(ProviderRun other)
+		{
+			return dueTime < other.dueTime ? -1 : (dueTime > other.dueTime ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Scheduling state of a provider after a run
+	 */
+	private static class ProviderState
+	{
+		private final Date lastUpdate;
+		private final Long pollInterval;
+		private final long nextRun;
+		private final int failures;
+
+		private ProviderState(Date lastUpdate, Long pollInterval, long nextRun, int failures)
+		{
+			this.lastUpdate = lastUpdate;
+			this.pollInterval = pollInterval;
+			this.nextRun = nextRun;
+			this.failures = failures;
+		}
+	}
+}
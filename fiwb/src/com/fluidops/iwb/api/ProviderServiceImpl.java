@@ -33,17 +33,14 @@ import java.lang.reflect.Modifier;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.io.IOUtils;
@@ -54,7 +51,6 @@ import org.openrdf.model.URI;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.rio.ntriples.NTriplesWriter;
@@ -73,7 +69,9 @@ import com.fluidops.iwb.model.TypeConfigDoc;
 import com.fluidops.iwb.provider.AbstractFlexProvider;
 import com.fluidops.iwb.provider.ExternalProvider;
 import com.fluidops.iwb.provider.LookupProvider;
+import com.fluidops.iwb.provider.StreamingProvider;
 import com.fluidops.iwb.user.IwbPwdSafe;
+import com.fluidops.iwb.util.Config;
 import com.fluidops.iwb.util.IWBFileUtil;
 import com.fluidops.iwb.util.ObjectPersistance;
 import com.fluidops.iwb.util.User;
@@ -134,6 +132,8 @@ public class ProviderServiceImpl implements ProviderService
 
     protected AbstractFlexProvider sessionProvider;
     
+    private ProviderScheduler scheduler;
+    
     @Override
     public Object invoke(String serviceName, String method, Object[] params) throws Exception
     {
@@ -365,6 +365,8 @@ public class ProviderServiceImpl implements ProviderService
             }
 
             // delete provider
+            if (scheduler!=null)
+                scheduler.cancel(provider);
             AbstractFlexProvider flexProvider = lookup(provider);
             
             removeProviderAndSave(flexProvider);
@@ -541,58 +543,26 @@ public class ProviderServiceImpl implements ProviderService
         scheduleProviders();
     }
 
-    Timer scheduleProviders()
+    /**
+     * Starts the scheduler for the periodic provider runs, see {@link ProviderScheduler}
+     */
+    ProviderScheduler scheduleProviders()
     {
-        TimerTask timerTask = new TimerTask()
-        {
-            Queue<AbstractFlexProvider> queue = new ArrayBlockingQueue<AbstractFlexProvider>(10000);
-
-            @Override
-            public void run()
-            {
-                try
-                {
-                    if (queue.isEmpty())
-                    {
-                        // add any work
-                            for (AbstractFlexProvider s : getProviders())
-                            {
-                            	if (s.pollInterval<=0)
-                            		continue; // disabled 
-                            	
-                                if (s.running != null && s.running == true)
-                                    continue;
-
-                                if (s instanceof ExternalProvider)
-                                    continue;
-
-                                if (s instanceof LookupProvider)
-                                    continue;
-
-                                if (s.lastUpdate == null)
-                                    queue.add(s);
-                                else if (s.lastUpdate.getTime()
-                                        + s.pollInterval < System
-                                        .currentTimeMillis())
-                                    queue.add(s);
-                            }
-                    }
-                    if (!queue.isEmpty())
-                    {
-                        AbstractFlexProvider provider = queue.poll();
-                        runProvider(provider.providerID, null);
-                    }
-                }
-                catch (Exception e)
-                {
-                    logger.error(e.getMessage(), e);
-                }
-            }
-        };
-        Timer timer = new Timer("IWB Provider Update");
-        timer.schedule(timerTask, 1000, 1000);
-        TimerRegistry.getInstance().registerProviderServiceTimer(timer);
-        return timer;
+        ProviderScheduler scheduler = new ProviderScheduler(this, 
+        		Math.max(1, Config.getConfig().getProviderSchedulerThreads()));
+        scheduler.start();
+        TimerRegistry.getInstance().registerProviderScheduler(scheduler);
+        this.scheduler = scheduler;
+        return scheduler;
+    }
+    
+    /**
+     * @return the scheduler of the periodic provider runs, null if
+     * 			providers are not scheduled
+     */
+    public ProviderScheduler getProviderScheduler()
+    {
+        return scheduler;
     }
 
     void loadWithoutScheduling()
@@ -677,25 +647,39 @@ public class ProviderServiceImpl implements ProviderService
         provider.running = true;
         try
         {
-            if (data != null)
-                newStmts = data; // data provided externally, there is no
-            // need to run the provider
+            if (data == null && provider instanceof StreamingProvider
+                    && !(parameter!=null && provider instanceof LookupProvider))
+            {
+                // the data is written while it is gathered
+                provider.size = gatherAndProcessProviderData(provider, parameter, repository);
+                provider.error = null;
+                provider.lastWriteDuration = System.currentTimeMillis() - start;
+            }
             else
             {
-                if(parameter!=null && provider instanceof LookupProvider)
+                if (data != null)
+                    newStmts = data; // data provided externally, there is no
+                // need to run the provider
+                else
                 {
-                    ((LookupProvider)provider).gather(newStmts, parameter);
+                    if(parameter!=null && provider instanceof LookupProvider)
+                    {
+                        ((LookupProvider)provider).gather(newStmts, parameter);
+                    }
+                    else
+                        provider.gather(newStmts);
+                    
                 }
-                else
-                    provider.gather(newStmts);
-                
+                    
+                provider.error = null;
+    
+                long now = System.currentTimeMillis();
+                processProviderData(provider, newStmts, parameter, repository, historyRepository, now);
+                provider.size = newStmts.size();
+                provider.lastWriteDuration = System.currentTimeMillis() - now;
             }
-                
-            provider.error = null;
-
-            long now = System.currentTimeMillis();
-            processProviderData(provider, newStmts, parameter, repository, historyRepository, now);
-            provider.size = newStmts.size();
+            logger.info("Provider " + provider.providerID + " wrote " + provider.size + " statements in " 
+            		+ provider.lastWriteDuration + "ms (" + getWriteThroughput(provider) + " statements/s)");
         }
         catch (Throwable t)
         {
@@ -715,6 +699,79 @@ public class ProviderServiceImpl implements ProviderService
         logger.info("Provider run of provider with ID " + provider.providerID + " finished");
     }
 
+    /**
+     * Returns the number of statements per second written in the last
+     * run of the provider, or null if unknown.
+     * 
+     * @param provider
+     * @return
+     */
+    public static Long getWriteThroughput(AbstractFlexProvider provider)
+    {
+        if (provider.size==null || provider.lastWriteDuration==null)
+            return null;
+        return provider.size * 1000L / Math.max(1L, provider.lastWriteDuration);
+    }
+
+    /**
+     * Runs a streaming provider, writing the data into a fresh context in
+     * batches while it is gathered (such that the memory required does not
+     * depend on the provider's output). Only if the provider succeeds, the 
+     * data of previous runs is deleted, otherwise the partially written data
+     * is removed.
+     * 
+     * @param provider
+     * @param parameter
+     * @param repository
+     * @return the number of statements written
+     */
+    protected int gatherAndProcessProviderData(AbstractFlexProvider provider,
+            URI parameter, Repository repository) throws Exception
+    {
+        URI providerId = provider.getProviderID();
+        
+        ReadWriteDataManager dm = ReadWriteDataManagerImpl.openDataManager(repository);
+        try
+        {
+            Context c = Context.getFreshPublishedContext(Context.ContextType.PROVIDER, null, 
+                    providerId, null, parameter, null, ContextLabel.REGULAR_PROVIDER_RUN);
+            
+            ContextStatementSink sink = new ContextStatementSink(dm, c, 
+                    Math.max(1, Config.getConfig().getAddToContextBatchSize()));
+            try
+            {
+                ((StreamingProvider)provider).gather(sink);
+                sink.flush();
+            }
+            catch (Exception e)
+            {
+                // remove partially written data, the data of the previous run is kept
+                try
+                {
+                    dm.deleteContextById(c.getURI());
+                }
+                catch (Exception e2)
+                {
+                    logger.warn("Could not remove partial data of provider " + providerId + ": " + e2.getMessage());
+                }
+                throw e;
+            }
+            
+            dm.deleteExpiredContextsOfSource(providerId, parameter, 
+                    Collections.<Resource>singleton(c.getURI()), provider.getContextExpirationTimeMS());
+            
+            // make provider editable
+            if (sink.getCount()>0)
+                dm.setContextEditable(c, provider.providerDataEditable);
+            
+            return sink.getCount();
+        }
+        finally
+        {
+            ReadWriteDataManagerImpl.closeQuietly(dm);
+        }
+    }
+
     /**
      * Processes the provider data that has been gathered.
      * 
@@ -732,43 +789,20 @@ public class ProviderServiceImpl implements ProviderService
         ReadWriteDataManager dm = null;
         dm = ReadWriteDataManagerImpl.openDataManager(repository);
 
-        Set<URI> uris = new HashSet<URI>();
-        for (Context c :dm.getContextsForSource(providerId))
-		{
-			
-        	/* Collect all URIs occuring as subjects in any statement of the previous provider run */
-        	URI internalContextURI = c.getURI();
-			RepositoryResult<Statement> res;
-			try
-			{
-				res = dm.getStatements(null, null, null, false, internalContextURI);
-				
-				while (res.hasNext())
-				{
-					Resource subject = res.next().getSubject();
-					if (subject instanceof URI)
-						uris.add((URI)subject);
-				}
-			} 
-			catch (RepositoryException e1)
-			{
-				logger.warn(e1.getMessage(), e1);
-			}
-			
-		}
-        
         Long contextExpirationTimeMS = provider.getContextExpirationTimeMS();
 
-        Context c = dm.updateDataForSrc(providerId, parameter,
+        Context c;
+        if (Config.getConfig().getProviderDifferentialUpdate())
+            c = dm.updateDataForSrcDifferential(providerId, parameter,
+                        Context.ContextType.PROVIDER,
+                        ContextLabel.REGULAR_PROVIDER_RUN, newStmts,
+                        contextExpirationTimeMS);
+        else
+            c = dm.updateDataForSrc(providerId, parameter,
                         Context.ContextType.PROVIDER,
                         ContextLabel.REGULAR_PROVIDER_RUN, newStmts,
                         contextExpirationTimeMS);
 
-        /* Calculate the diff of old subjects and new subjects (i.e. all the URIs that occured 
-         * in the last run, but do not occur in the current run anymore) */
-        for (Statement st : newStmts)
-        	uris.remove(st.getSubject());
-        
         // make provider editable
         try 
         {
@@ -19,6 +19,7 @@
 package com.fluidops.iwb.api;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -212,6 +213,19 @@ public interface ReadDataManager
      */
     public String getLabelHTMLEncoded(Value res);
     
+    /**
+     * Bulk variant of {@link #getLabel(Value)}: computes the labels for all
+     * given values at once and fills the label cache, so subsequent calls to
+     * {@link #getLabel(Value)} for these values are served from the cache.
+     * Resolution of cache misses does not require a query per value, so
+     * this method should be preferred when rendering many values (e.g.
+     * tables, charts or graphs).
+     * 
+     * @param values the values to compute the labels for, null entries are ignored
+     * @return a map from each (non-null) value to its label
+     */
+    public Map<Value,String> getLabels(Collection<? extends Value> values);
+    
     /**
      * Gets ontology-defined information for the given predicate, such
      * as dom and range information. Uses internal caching mechanism.
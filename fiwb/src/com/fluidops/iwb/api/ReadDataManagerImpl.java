@@ -31,6 +31,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -42,6 +43,8 @@ import java.util.Map.Entry;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -76,17 +79,14 @@ import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.impl.GraphQueryResultImpl;
 import org.openrdf.query.impl.MapBindingSet;
 import org.openrdf.query.impl.MutableTupleQueryResult;
-import org.openrdf.query.parser.ParsedBooleanQuery;
-import org.openrdf.query.parser.ParsedGraphQuery;
 import org.openrdf.query.parser.ParsedOperation;
-import org.openrdf.query.parser.ParsedTupleQuery;
-import org.openrdf.query.parser.ParsedUpdate;
 import org.openrdf.query.parser.QueryParserUtil;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.repository.sail.SailRepositoryConnection;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFWriter;
 import org.openrdf.rio.n3.N3Writer;
@@ -101,6 +101,7 @@ import org.openrdf.sail.memory.MemoryStoreConnection;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import com.fluidops.iwb.api.Context.ContextState;
+import com.fluidops.iwb.api.ParsedQueryCache.CachedQuery;
 import com.fluidops.iwb.cache.ContextCache;
 import com.fluidops.iwb.cache.InstanceCache;
 import com.fluidops.iwb.cache.InversePropertyCache;
@@ -129,9 +130,12 @@ import com.google.common.collect.Lists;
  * unnecessary opening and closing of connections, we do not
  * allow to create arbitrary new instances, but instead provide
  * a static method that can be used to get an instance bound
- * to a certain repository. For each repository, there is
- * exactly one ReadDataManager instance that has associated
- * exactly one repository connection associated. 
+ * to a certain repository. For each repository, there is a
+ * fixed number of ReadDataManager instances (each with exactly
+ * one repository connection associated), the connections are
+ * striped over the threads such that concurrent readers are
+ * spread over several connections. The number of stripes can
+ * be configured via {@link Config#getReadConnectionStripes()}.
  * 
  * @author msc
  */
@@ -162,85 +166,57 @@ public class ReadDataManagerImpl implements ReadDataManager
                 Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
         static Pattern prefixPattern = Pattern.compile(
-                "PREFIX\\s*(\\w*):\\s*<(\\S*)>", Pattern.CASE_INSENSITIVE
+                "PREFIX\\s*([^\\s:<]*):\\s*<(\\S*)>", Pattern.CASE_INSENSITIVE
                         | Pattern.DOTALL);
 
 
         /**
-         * Includes all abbreviations listed in the map to the query
-         * (unless they are already added in the query manually). 
+         * Includes the abbreviations of the namespace snapshot which are
+         * used in the query (unless they are already added in the query
+         * manually). 
          * 
          * @param query
-         * @param map
+         * @param namespaces
          * @return
          */
-        static public String addPrefixes(String query, Map<String, String> map)
+        static public String addPrefixes(String query, NamespaceSnapshot namespaces)
         {
                 /*
                  * we have to check for prefixes in the query to not add
                  * duplicate entries. In case duplicates are present Sesame
                  * throws a MalformedQueryException
                  */
-                if (prefixCheck.matcher(query).matches())
-                    query = getCheckedPrefixDeclarations(query, map)
-                            + query;
-                else
-                    query = getPrefixDeclarations(map) + query;
+                Set<String> queryPrefixes = prefixCheck.matcher(query).matches() ?
+                		findQueryPrefixes(query) : Collections.<String>emptySet();
                 
-                return query;
+                return namespaces.getPrefixDeclarations(query, queryPrefixes) + query;
         }
-        
 
         /**
-         * Get the prefix declarations that have to be prepended to the query.
-         * @param map 
+         * Includes the abbreviations listed in the map which are used in the
+         * query (unless they are already added in the query manually). 
          * 
+         * @param query
+         * @param map
          * @return
          */
-        protected static String getPrefixDeclarations(Map<String, String> map)
+        static public String addPrefixes(String query, Map<String, String> map)
         {
-            StringBuilder sb = new StringBuilder();
-            for (Entry<String, String> namespaceEntry : map.entrySet())
-            {
-                sb.append("PREFIX ").append(namespaceEntry.getKey()).append(": <")
-                        .append(namespaceEntry.getValue())
-                        .append(">\r\n");
-            }
-            sb.append("PREFIX : <").append(EndpointImpl.api().getNamespaceService().defaultNamespace()).append(">\r\n");
-            return sb.toString();
+        	String defaultNamespace = EndpointImpl.api().getNamespaceService().defaultNamespace();
+        	NamespaceSnapshot snapshot = mapSnapshot;
+        	if (snapshot==null || !snapshot.getNamespaces().equals(map) 
+        			|| !String.valueOf(snapshot.getDefaultNamespace()).equals(String.valueOf(defaultNamespace)))
+        	{
+        		snapshot = new NamespaceSnapshot(0, map, defaultNamespace);
+        		mapSnapshot = snapshot;
+        	}
+        	return addPrefixes(query, snapshot);
         }
-
+        
         /**
-         * Get the prefix declarations that have to be added while considering
-         * prefixes that are already declared in the query. The issue here is
-         * that duplicate declaration causes exceptions in Sesame
-         * 
-         * @param queryString
-         * @param map 
-         * @return
+         * The snapshot of the map last passed to {@link #addPrefixes(String, Map)}
          */
-        protected static String getCheckedPrefixDeclarations(String queryString, Map<String, String> map)
-        {
-            Set<String> queryPrefixes = findQueryPrefixes(queryString);
-
-            StringBuilder sb = new StringBuilder();
-            for (Entry<String, String> prefixEntry : map.entrySet())
-            {
-            	String prefix = prefixEntry.getKey();
-                if (queryPrefixes.contains(prefix))
-                    continue; // already there, do not add
-                
-                sb.append("PREFIX ").append(prefix).append(": <")
-                        .append(prefixEntry.getValue()).append(">\r\n");
-            }
-
-            if (!queryPrefixes.contains(""))
-                sb.append("PREFIX : <")
-                        .append(EndpointImpl.api().getNamespaceService()
-                                .defaultNamespace()).append(">\r\n");
-
-            return sb.toString();
-        }
+        private static volatile NamespaceSnapshot mapSnapshot;
 
         /**
          * Find all prefixes declared in the query
@@ -279,9 +255,64 @@ public class ReadDataManagerImpl implements ReadDataManager
     
     protected static final Logger logger = Logger.getLogger(ReadDataManagerImpl.class.getName());
     
-    // cache
-    private static Map<Repository,ReadDataManagerImpl> dms = 
-        new HashMap<Repository,ReadDataManagerImpl>();
+    // cache: striped data managers per repository
+    private static final ConcurrentMap<Repository,StripedDataManagers> dms = 
+        new ConcurrentHashMap<Repository,StripedDataManagers>();
+    
+    /**
+     * A fixed number of data managers (and connections) for one repository,
+     * striped over the threads. This is not a pool: the data managers handed
+     * out by {@link ReadDataManagerImpl#getDataManager(Repository)} are never
+     * released by clients, hence they cannot be leased and returned. Instead,
+     * the data manager is chosen by thread id, i.e. a thread always uses the
+     * same stripe, while different threads may share a stripe (as all threads
+     * did with the single data manager before). The stripes (and their 
+     * connections) are initialized lazily on first use.
+     */
+    private static class StripedDataManagers
+    {
+    	private final Repository r;
+    	
+    	private final ReadDataManagerImpl[] slots;
+    	
+    	private StripedDataManagers(Repository r, int size)
+    	{
+    		this.r = r;
+    		this.slots = new ReadDataManagerImpl[Math.max(1, size)];
+    	}
+    	
+    	private ReadDataManagerImpl get()
+    	{
+    		int slot = (int)(Thread.currentThread().getId() % slots.length);
+    		ReadDataManagerImpl dm;
+    		synchronized (slots)
+    		{
+    			dm = slots[slot];
+    			if (dm==null)
+    			{
+    				dm = newInstance(r);
+    				slots[slot] = dm;
+    				logger.debug("Opened read connection " + (slot+1) + "/" + slots.length 
+    						+ " for repository " + r);
+    				return dm;
+    			}
+    		}
+    		dm.assertConnectionIsOpen();
+    		return dm;
+    	}
+    	
+    	private List<ReadDataManagerImpl> getDataManagers()
+    	{
+    		List<ReadDataManagerImpl> res = new ArrayList<ReadDataManagerImpl>();
+    		synchronized (slots)
+    		{
+    			for (ReadDataManagerImpl dm : slots)
+    				if (dm!=null)
+    					res.add(dm);
+    		}
+    		return res;
+    	}
+    }
     
     private static String dateFormatPattern = "E MMM dd HH:mm:ss z yyyy";
     
@@ -424,20 +455,17 @@ public class ReadDataManagerImpl implements ReadDataManager
      */
     public static ReadDataManagerImpl getDataManager(Repository r)
     {
-        if (dms.containsKey(r))
-        {
-            ReadDataManagerImpl dm = dms.get(r);
-            dm.assertConnectionIsOpen();
-            return dm;
-        }
-        else
+        StripedDataManagers stripes = dms.get(r);
+        if (stripes==null)
         {
-            ReadDataManagerImpl dm = newInstance(r);
-            dms.put(r,dm);
-            return dm;
+            StripedDataManagers newStripes = new StripedDataManagers(r, Config.getConfig().getReadConnectionStripes());
+            stripes = dms.putIfAbsent(r, newStripes);
+            if (stripes==null)
+                stripes = newStripes;
         }
+        return stripes.get();
     }
-
+    
     /**
      * Do never use constructor, but use method openDataManager
      * instead. Note: a data manager for Global.repository can
@@ -998,8 +1026,66 @@ public class ReadDataManagerImpl implements ReadDataManager
 	    // in case cache lookup failed, we look it up in the repository
 	    if (Analyzer.isAnalyze())
 	        Analyzer.getInstance().callbackGetLabel(false);        
-	    lblStr = getValueForProperties(valAsUri, labelProperties, "en");
-	       
+	    lblStr = completeLabel(valAsUri, getValueForProperties(valAsUri, labelProperties, "en"));
+	
+	    labelCache.insert(conn.getRepository(), valAsUri, lblStr);
+	    return lblStr;
+	}
+    
+    @Override
+    public Map<Value,String> getLabels(Collection<? extends Value> values)
+    {
+        Map<Value,String> res = new HashMap<Value,String>();
+        if (values == null)
+            return res;
+        
+        // first pass: literals and cache hits, collect the URIs to be looked up
+        Set<URI> misses = new HashSet<URI>();
+        for (Value val : values)
+        {
+            if (val == null || res.containsKey(val))
+                continue;
+            if (!(val instanceof URI))
+            {
+                res.put(val, val.stringValue());
+                continue;
+            }
+            String lblStr = labelCache.lookup(conn.getRepository(), (URI)val);
+            if (Analyzer.isAnalyze())
+                Analyzer.getInstance().callbackGetLabel(lblStr != null);
+            if (lblStr != null)
+                res.put(val, lblStr);
+            else
+                misses.add((URI)val);
+        }
+        
+        if (misses.isEmpty())
+            return res;
+        
+        // second pass: one statement lookup per label property and missing URI,
+        // following the same language preference as getLabel(Value)
+        Map<URI,String> rawLabels = getValuesForProperties(misses, labelProperties, "en");
+        for (URI valAsUri : misses)
+        {
+            String lblStr = completeLabel(valAsUri, rawLabels.get(valAsUri));
+            labelCache.insert(conn.getRepository(), valAsUri, lblStr);
+            res.put(valAsUri, lblStr);
+        }
+        
+        return res;
+    }
+    
+    /**
+     * Derives the label to be displayed for the given URI from the value
+     * found for one of the label properties (may be null), falling back to
+     * the abbreviated URI, the local name or the full URI.
+     * 
+     * @param valAsUri
+     * @param lblStr the value of a label property, may be null
+     * @return the label, never null
+     */
+    private String completeLabel(URI valAsUri, String lblStr)
+    {
 	    if (lblStr==null)
 	        lblStr = EndpointImpl.api().getNamespaceService().getAbbreviatedURI(valAsUri);
 	
@@ -1015,10 +1101,200 @@ public class ReadDataManagerImpl implements ReadDataManager
 	    if (valAsUri.stringValue().startsWith("Template")
 	            && !lblStr.startsWith("Template"))
 	        lblStr = "Template:(...)" + lblStr;
-	
-	    labelCache.insert(conn.getRepository(), valAsUri, lblStr);
+	    
 	    return lblStr;
-	}
+    }
+    
+    /**
+     * Number of URIs whose values are looked up with a single query in
+     * {@link #getValuesForProperties(Collection, List, String)}
+     */
+    private static final int VALUES_FOR_PROPERTIES_BATCH_SIZE = 100;
+    
+    /**
+     * Bulk variant of {@link #getValueForProperties(URI, List, String)}: for
+     * each of the given URIs, determine the value of the first property with a
+     * literal in the preferred language, or the first value of any of the
+     * properties otherwise. The values of all properties are retrieved with
+     * one query per batch of URIs. Inferred statements are included.
+     * 
+     * @param uris
+     * @param properties
+     * @param preferredLanguage the preferred language, may be null
+     * @return a map containing the URIs for which a value was found
+     */
+    protected Map<URI,String> getValuesForProperties(Collection<URI> uris, List<URI> properties, String preferredLanguage)
+    {
+        Map<URI,String> res = new HashMap<URI,String>();
+        if (properties.isEmpty())
+        	return res;
+        
+        List<URI> batch = new ArrayList<URI>();
+        for (URI uri : uris)
+        {
+        	// URIs which cannot be written into a query are looked up directly
+        	if (!isIriRef(uri))
+        	{
+        		String value = selectValue(getValuesForProperties(uri, properties), properties, preferredLanguage);
+        		if (value!=null)
+        			res.put(uri, value);
+        		continue;
+        	}
+        	batch.add(uri);
+        	if (batch.size()>=VALUES_FOR_PROPERTIES_BATCH_SIZE)
+        	{
+        		getValuesForPropertiesBatch(batch, properties, preferredLanguage, res);
+        		batch.clear();
+        	}
+        }
+        if (!batch.isEmpty())
+        	getValuesForPropertiesBatch(batch, properties, preferredLanguage, res);
+        return res;
+    }
+    
+    /**
+     * Looks up the values of the given properties for a batch of URIs with
+     * a single query and adds the selected value per URI to the result.
+     */
+    private void getValuesForPropertiesBatch(List<URI> uris, List<URI> properties, String preferredLanguage, Map<URI,String> res)
+    {
+    	StringBuilder q = new StringBuilder("SELECT ?s ?p ?o WHERE { ");
+    	appendBindings(q, "s", uris);
+    	appendBindings(q, "p", properties);
+    	q.append("?s ?p ?o }");
+    	
+    	Map<URI,Map<URI,List<Value>>> values = new HashMap<URI,Map<URI,List<Value>>>();
+    	TupleQueryResult qRes = null;
+    	try
+    	{
+    		TupleQuery query = conn.prepareTupleQuery(QueryLanguage.SPARQL, q.toString());
+    		query.setIncludeInferred(true);
+    		qRes = query.evaluate();
+    		while (qRes.hasNext())
+    		{
+    			BindingSet bs = qRes.next();
+    			URI uri = (URI)bs.getValue("s");
+    			Map<URI,List<Value>> uriValues = values.get(uri);
+    			if (uriValues==null)
+    			{
+    				uriValues = new HashMap<URI,List<Value>>();
+    				values.put(uri, uriValues);
+    			}
+    			URI property = (URI)bs.getValue("p");
+    			List<Value> propertyValues = uriValues.get(property);
+    			if (propertyValues==null)
+    			{
+    				propertyValues = new ArrayList<Value>();
+    				uriValues.put(property, propertyValues);
+    			}
+    			propertyValues.add(bs.getValue("o"));
+    		}
+    		monitorRead();
+    	}
+    	catch (Exception e)
+    	{
+    		monitorReadFailure();
+    		logger.error(e.getMessage(), e);
+    	}
+    	finally
+    	{
+    		closeQuietly(qRes);
+    	}
+    	
+    	for (Map.Entry<URI,Map<URI,List<Value>>> entry : values.entrySet())
+    	{
+    		String value = selectValue(entry.getValue(), properties, preferredLanguage);
+    		if (value!=null)
+    			res.put(entry.getKey(), value);
+    	}
+    }
+    
+    /**
+     * Appends a union of bindings of the given variable to each of the URIs
+     */
+    private static void appendBindings(StringBuilder q, String var, List<URI> uris)
+    {
+    	q.append("{ ");
+    	for (int i=0; i<uris.size(); i++)
+    	{
+    		if (i>0)
+    			q.append("UNION ");
+    		q.append("{ BIND(<").append(uris.get(i).stringValue()).append("> AS ?").append(var).append(") } ");
+    	}
+    	q.append("} ");
+    }
+    
+    /**
+     * @return true if the URI can be written as IRI reference into a query
+     */
+    private static boolean isIriRef(URI uri)
+    {
+    	String str = uri.stringValue();
+    	for (int i=0; i<str.length(); i++)
+    	{
+    		char c = str.charAt(i);
+    		if (c<=0x20 || "<>\"{}|^`\\".indexOf(c)>=0)
+    			return false;
+    	}
+    	return true;
+    }
+    
+    /**
+     * Looks up the values of the given properties for a single URI
+     */
+    private Map<URI,List<Value>> getValuesForProperties(URI uri, List<URI> properties)
+    {
+    	Map<URI,List<Value>> res = new HashMap<URI,List<Value>>();
+    	for (URI property : properties)
+    	{
+    		RepositoryResult<Statement> stmts = null;
+    		try
+    		{
+    			stmts = conn.getStatements(uri, property, null, true);
+    			List<Value> values = new ArrayList<Value>();
+    			while (stmts.hasNext())
+    				values.add(stmts.next().getObject());
+    			res.put(property, values);
+    		}
+    		catch (RepositoryException e)
+    		{
+    			monitorReadFailure();
+    			logger.error(e.getMessage(), e);
+    		}
+    		finally
+    		{
+    			closeQuietly(stmts);
+    		}
+    	}
+    	return res;
+    }
+    
+    /**
+     * Selects the value of the first property with a literal in the preferred
+     * language, or the first value of any of the properties otherwise.
+     * 
+     * @param values the values per property
+     * @return the selected value, null if there is none
+     */
+    private static String selectValue(Map<URI,List<Value>> values, List<URI> properties, String preferredLanguage)
+    {
+    	String fallback = null;
+    	for (URI property : properties)
+    	{
+    		List<Value> propertyValues = values.get(property);
+    		if (propertyValues==null)
+    			continue;
+    		for (Value value : propertyValues)
+    		{
+    			if (preferredLanguage == null 
+    					|| (value instanceof Literal && preferredLanguage.equals(((Literal)value).getLanguage())))
+    				return value.stringValue();
+    			if (fallback==null)
+    				fallback = value.stringValue();
+    		}
+    	}
+    	return fallback;
+    }
     
     @Override
 	public String getLabelHTMLEncoded(Value val)
@@ -1381,31 +1657,47 @@ public class ReadDataManagerImpl implements ReadDataManager
             boolean resolveUser, boolean infer, SparqlQueryType queryType)
             throws RepositoryException, MalformedQueryException
     {
-    	// replace context-specific patterns in query (where necessary)
-    	query = replaceSpecialVariablesInQuery(query, resolveValue, resolveUser);
-
-        // replace namespace prefixes
-        if (resolveNamespaces)
-        {
-            Map<String, String> map = EndpointImpl.api().getNamespaceService()
-            .getRegisteredNamespacePrefixes();
-
-            query = PrefixAdder.addPrefixes(query, map);
+    	// literals are inserted textually (their string value is used), i.e. the
+    	// resulting query is cached as a separate template
+    	if (resolveValue instanceof Literal)
+    		query = replaceSpecialVariablesInQuery(query, resolveValue, false);
+    	
+    	// lookup prefixed query, query type and parsed operation from cache
+    	CachedQuery cachedQuery = ParsedQueryCache.getInstance().get(query, resolveNamespaces);
+        queryType = queryType==null ? cachedQuery.queryType : queryType;
+        
+        URI userUri = resolveUser && cachedQuery.hasUser ? 
+        		EndpointImpl.api().getUserManager().getUserURI(null) : null;
+        
+        // for local repositories, the query is created from the cached parsed operation, 
+        // special variables are bound as bindings
+        Operation preparedQuery = null;
+        if (conn instanceof SailRepositoryConnection
+        		&& (!cachedQuery.hasResolveValue || resolveValue instanceof URI)
+        		&& (!cachedQuery.hasUser || userUri!=null))
+        {
+        	preparedQuery = cachedQuery.createQuery((SailRepositoryConnection)conn, queryType);
+        	if (preparedQuery!=null && cachedQuery.hasResolveValue)
+        		preparedQuery.setBinding(ParsedQueryCache.RESOLVE_VALUE_VAR, resolveValue);
+        	if (preparedQuery!=null && cachedQuery.hasUser)
+        		preparedQuery.setBinding(ParsedQueryCache.USER_VAR, userUri);
         }
-                
-        query = query.trim();
         
-    	// Note msc: some connections (e.g. HttpRepositoryConnection) do
-        // not support the prepareQuery() method; therefore, we try
-        // to call the most specific method, which is supported
-        queryType = queryType==null ? ReadDataManagerImpl.getSparqlQueryType(query, false) : queryType;
-        Operation preparedQuery;
-        switch (queryType) {
-        case SELECT: 	preparedQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, query); break;
-        case CONSTRUCT:	preparedQuery = conn.prepareGraphQuery(QueryLanguage.SPARQL, query); break;
-        case ASK: 		preparedQuery = conn.prepareBooleanQuery(QueryLanguage.SPARQL, query); break;
-        case UPDATE:	preparedQuery = conn.prepareUpdate(QueryLanguage.SPARQL, query); break;
-        default: 		throw new IllegalArgumentException("Query type not supported: " + queryType + ", query: " + query);
+        if (preparedQuery==null)
+        {
+        	// replace context-specific patterns in query (where necessary)
+        	query = replaceSpecialVariablesInQuery(cachedQuery.query, resolveValue, resolveUser);
+        	
+	    	// Note msc: some connections (e.g. HttpRepositoryConnection) do
+	        // not support the prepareQuery() method; therefore, we try
+	        // to call the most specific method, which is supported
+	        switch (queryType) {
+	        case SELECT: 	preparedQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, query); break;
+	        case CONSTRUCT:	preparedQuery = conn.prepareGraphQuery(QueryLanguage.SPARQL, query); break;
+	        case ASK: 		preparedQuery = conn.prepareBooleanQuery(QueryLanguage.SPARQL, query); break;
+	        case UPDATE:	preparedQuery = conn.prepareUpdate(QueryLanguage.SPARQL, query); break;
+	        default: 		throw new IllegalArgumentException("Query type not supported: " + queryType + ", query: " + query);
+	        }
         }
         
         // enable inferencing        
@@ -2633,7 +2925,10 @@ public class ReadDataManagerImpl implements ReadDataManager
 	 */
 	public static void shutdown()
     {
-	    for (ReadDataManagerImpl dm : dms.values())
+	    List<ReadDataManagerImpl> all = new ArrayList<ReadDataManagerImpl>();
+	    for (StripedDataManagers stripes : dms.values())
+	    	all.addAll(stripes.getDataManagers());
+	    for (ReadDataManagerImpl dm : all)
 	    {
             try
             {
@@ -2661,7 +2956,7 @@ public class ReadDataManagerImpl implements ReadDataManager
 	    }
 	    
 	    // finally reset the hash map
-	    dms = new HashMap<Repository,ReadDataManagerImpl>();
+	    dms.clear();
     }
 	
 	/**
@@ -3073,8 +3368,7 @@ public class ReadDataManagerImpl implements ReadDataManager
     	
     	// replace namespace prefixes
         if (resolveNamespaces)  {
-            Map<String, String> map = EndpointImpl.api().getNamespaceService().getRegisteredNamespacePrefixes();
-            query = PrefixAdder.addPrefixes(query, map);
+            query = PrefixAdder.addPrefixes(query, EndpointImpl.api().getNamespaceService().getNamespaceSnapshot());
         }
         
         // we have to make sure that the special variables like ?? and $user$ are replaced in
@@ -3099,20 +3393,8 @@ public class ReadDataManagerImpl implements ReadDataManager
      */
     public static SparqlQueryType getSparqlQueryType(String query, boolean resolveNamespaces) throws MalformedQueryException
     {
-
-    	ParsedOperation parsedOperation = parseQuery(query, resolveNamespaces);
-
-        if (parsedOperation instanceof ParsedTupleQuery)
-            return SparqlQueryType.SELECT;
-        else if (parsedOperation instanceof ParsedGraphQuery)
-            return SparqlQueryType.CONSTRUCT;
-        else if (parsedOperation instanceof ParsedBooleanQuery)
-            return SparqlQueryType.ASK;
-        else if (parsedOperation instanceof ParsedUpdate)
-        	return SparqlQueryType.UPDATE;
-        else
-            throw new MalformedQueryException("Unexpected query type "
-                    + parsedOperation.getClass() + " for query " + query);
+    	// the query type is maintained in the cache of parsed queries
+    	return ParsedQueryCache.getInstance().get(query, resolveNamespaces).queryType;
     }
     
     /**
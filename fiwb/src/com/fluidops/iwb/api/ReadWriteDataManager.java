@@ -203,6 +203,27 @@ public interface ReadWriteDataManager extends ReadDataManager
             ContextType contextType, ContextLabel label,
             Collection<Statement> stmts, Long contextExpirationDateMS);
 
+    /**
+     * Same as {@link #updateDataForSrc(URI, URI, ContextType, ContextLabel, Collection, Long)},
+     * but if the source has exactly one context which would be replaced by the update,
+     * the statements are written differentially: the new statements are compared to 
+     * the content of the existing context and only the added and removed statements
+     * are written (within one transaction), the existing context is kept. In any other
+     * case, the method falls back to replacing the data in a fresh context.
+     * 
+     * @param src URI of the src
+     * @param providerParam
+     * @param contextType type of the context
+     * @param label Name for the context
+     * @param stmts The list of stmts to write
+     * @param contextExpirationDateMS the date after which the context expires
+     * 
+     * @return the context holding the data of the source
+     */
+    public Context updateDataForSrcDifferential(URI src, URI providerParam,
+            ContextType contextType, ContextLabel label,
+            Collection<Statement> stmts, Long contextExpirationDateMS);
+
     /**
      * Loads data for the source from a file and removes all
      * data older than contextExpirationDateMS. If
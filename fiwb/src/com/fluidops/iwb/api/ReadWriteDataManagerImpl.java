@@ -27,6 +27,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +57,7 @@ import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.Context.ContextLabel;
 import com.fluidops.iwb.api.Context.ContextState;
 import com.fluidops.iwb.api.Context.ContextType;
+import com.fluidops.iwb.cache.CacheDelta;
 import com.fluidops.iwb.model.Vocabulary;
 import com.fluidops.iwb.util.Config;
 import com.fluidops.iwb.util.VoIDCalculationUsingSPARQLAggregation;
@@ -82,6 +84,12 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
 {
     protected static final Logger logger = Logger.getLogger(ReadWriteDataManagerImpl.class.getName());
     
+    /**
+     * Maximum number of statements of a deleted context that are scanned for
+     * fine-grained cache maintenance, larger contexts invalidate all caches
+     */
+    private static final int MAX_DELETED_CONTEXT_DELTA = 10000;
+    
     /**
      * Verify if the connection is writable in an actual
      * write operation, i.e. add and remove some triple
@@ -344,6 +352,89 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
     }
     
     
+    @Override
+    public Context updateDataForSrcDifferential(URI source,
+            URI providerServiceParam,
+            Context.ContextType srcType, ContextLabel label,
+            Collection<Statement> stmts,
+            Long contextExpirationDateMS)
+    {
+        // determine the contexts which would be deleted by a regular update
+        List<Context> expiredContexts = new ArrayList<Context>();
+        Long now = System.currentTimeMillis();
+        for (Context sourceContext : getContextsForSource(source))
+        {
+            if (providerServiceParam!=null && !providerServiceParam.equals(sourceContext.getInputParameter()))
+                continue;
+            if (sourceContext.getTimestamp()!=null 
+                    && contextExpirationDateMS!=null && sourceContext.getTimestamp() > now-contextExpirationDateMS)
+                continue;
+            expiredContexts.add(sourceContext);
+        }
+        
+        // the differential update is possible only if a single published context is replaced
+        Context context = expiredContexts.size()==1 ? expiredContexts.get(0) : null;
+        if (context==null || context.getState()!=ContextState.PUBLISHED || context.getType()!=srcType)
+            return updateDataForSrc(source, providerServiceParam, srcType, label, stmts, contextExpirationDateMS);
+        
+        boolean started = startTransaction();
+        
+        List<Statement> added = new ArrayList<Statement>();
+        List<Statement> removed = new ArrayList<Statement>();
+        try
+        {
+            // note: statement equality does not take the context into account
+            Set<Statement> oldStmts = new HashSet<Statement>();
+            RepositoryResult<Statement> res = conn.getStatements(null, null, null, false, context.getURI());
+            try
+            {
+                while (res.hasNext())
+                    oldStmts.add(res.next());
+            }
+            finally
+            {
+                closeQuietly(res);
+            }
+            
+            Set<Statement> newStmts = new HashSet<Statement>(stmts.size());
+            for (Statement stmt : stmts)
+            {
+                if (newStmts.add(stmt) && !oldStmts.remove(stmt))
+                    added.add(stmt);
+            }
+            removed.addAll(oldStmts);	// statements of the old context, i.e. with context set
+            
+            if (!removed.isEmpty())
+                conn.remove(removed, context.getURI());
+            if (!added.isEmpty())
+                conn.add(added, context.getURI());
+            
+            // the context is reused, so it is refreshed as if it were a new context
+            context.setTimestamp(Context.getContextTimestampSafe());
+            persistContextMetaInformation(context);
+        }
+        catch (Exception e)
+        {
+            logger.error(e.getMessage(), e);
+            rollbackTransaction();
+            throw new RuntimeException(e);
+        }
+        
+        Map<URI,Context> originalContexts = new HashMap<URI,Context>();
+        originalContexts.put(context.getURI(), context);
+        finishTransaction(started, added, removed, context, originalContexts);
+        
+        logger.debug("Differential update of source " + source + ": " + added.size() 
+                + " statements added, " + removed.size() + " statements removed");
+        
+        CacheDelta delta = CacheDelta.forStatements(added);
+        delta.addAll(removed);
+        cm.updateAllCaches(conn.getRepository(), delta);
+        
+        return context;
+    }
+    
+    
     @Override
     public Context updateDataForSrc(URI source, URI providerServiceParam,
             Context.ContextType srcType, ContextLabel label,
@@ -416,39 +507,94 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
 
     
     @Override
-    public void addToContext(Iteration<Statement,RepositoryException> stmts, Context context)
+    public void addToContext(final Iteration<Statement,RepositoryException> stmts, Context context)
     {
     	// make sure context meta information is present
     	persistContextMetaInformation(context);
+    	
+    	// record the changes for cache maintenance while streaming the statements
+    	final CacheDelta delta = new CacheDelta();
     	try 
     	{
-    		conn.add(stmts, context.getURI());
+    		conn.add(new Iteration<Statement,RepositoryException>() {
+				@Override
+				public boolean hasNext() throws RepositoryException	{
+					return stmts.hasNext();
+				}
+				@Override
+				public Statement next() throws RepositoryException	{
+					Statement stmt = stmts.next();
+					delta.add(stmt);
+					return stmt;
+				}
+				@Override
+				public void remove() throws RepositoryException	{
+					stmts.remove();
+				}    			
+    		}, context.getURI());
     	}
     	catch (Exception e)
     	{
     		logger.error(e.getMessage(), e);
     		throw new RuntimeException(e);
     	}
-    	cm.invalidateAllCaches(conn.getRepository());
+    	cm.updateAllCaches(conn.getRepository(), delta);
     }
 
     /**
      * Help method for adding a set of statements while, optionally,
-     * persisting the context meta information or not.
+     * persisting the context meta information or not. The statements
+     * are written in batches of {@link Config#getAddToContextBatchSize()},
+     * if no transaction is running yet each batch is committed (and 
+     * recorded in the change log) separately. If a batch fails, only a
+     * transaction started by this method is rolled back, the batches 
+     * committed before remain. The caches are updated for all statements
+     * that have been written, also if a later batch fails.
      */
     private void addToContext(Collection<Statement> stmts, Context context, boolean persistContextMetaInformation)
     {
+        if (context==null || stmts.isEmpty())
+            return;
+        
         boolean started = startTransaction();
 
         // make sure context meta information is present
-        if (persistContextMetaInformation && stmts.size()>0)
+        if (persistContextMetaInformation)
             persistContextMetaInformation(context);
         
-        for (Statement stmt : stmts)
-            addToContext(stmt,context, false);
-        
-        finishTransaction(started, stmts, null, context, null);
-        updateCachesForStmts(stmts);
+        int batchSize = Math.max(1, Config.getConfig().getAddToContextBatchSize());
+        Iterator<List<Statement>> batches = Iterables.partition(stmts, batchSize).iterator();
+        List<Statement> written = new ArrayList<Statement>();
+        try
+        {
+            while (batches.hasNext())
+            {
+                List<Statement> batch = batches.next();
+                try
+                {
+                    conn.add(batch, context.getURI());
+                }
+                catch (Exception e)
+                {
+                    logger.error(e.getMessage(), e);
+                    if (started)
+                        rollbackTransaction();
+                    throw new RuntimeException(e);
+                }
+                
+                written.addAll(batch);
+                if (started)
+                {
+                    finishTransaction(started, batch, null, context, null);
+                    if (batches.hasNext())
+                        started = startTransaction();
+                }
+            }
+        }
+        finally
+        {
+            updateCachesForStmts(written);
+        }
     }
     
     /**
@@ -764,8 +910,28 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
         
         boolean started = startTransaction();
 
+        CacheDelta delta = new CacheDelta();
         try
         {
+            // record the statements to be deleted for cache maintenance, for large
+            // contexts we do not scan the whole context but invalidate all caches
+            RepositoryResult<Statement> stmts = conn.getStatements(null, null, null, false, contextId);
+            try
+            {
+                int scanned = 0;
+                while (delta!=null && stmts.hasNext())
+                {
+                    if (++scanned > MAX_DELETED_CONTEXT_DELTA)
+                        delta = null;
+                    else
+                        delta.add(stmts.next());
+                }
+            }
+            finally
+            {
+                closeQuietly(stmts);
+            }
+            
             // delete data
             conn.remove((Resource)null, (URI)null, (Value)null, contextId);
             
@@ -784,7 +950,10 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
         }
 
         finishTransaction(started);
-        cm.invalidateAllCaches(conn.getRepository());
+        if (delta==null)
+            cm.invalidateAllCaches(conn.getRepository());
+        else
+            cm.updateAllCaches(conn.getRepository(), delta);
     }
     
     /** 
@@ -843,7 +1012,7 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
         }
         
         finishTransaction(started);
-        cm.invalidateAllCaches(conn.getRepository());
+        // cache update is done inside deleteContextById
     }
     
     @Override
@@ -934,7 +1103,7 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
             throw new RuntimeException(e);
         }
          
-        cm.invalidateAllCaches(conn.getRepository());
+        cm.updateAllCaches(conn.getRepository(), CacheDelta.forStatements(stmts));
         finishTransaction(started);
     }
 
@@ -1103,10 +1272,11 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
 
         boolean started = startTransaction();
 
+        List<Statement> stmts = null;
         try
         {
             // Get all outgoing statements
-            List<Statement> stmts = conn.getStatements(resource, null, null,
+            stmts = conn.getStatements(resource, null, null,
                     false, Vocabulary.SYSTEM_CONTEXT.VOIDCONTEXT).asList();
 
             // Get class partitions
@@ -1137,7 +1307,7 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
         }
 
         if (started)
-            cm.invalidateAllCaches(conn.getRepository());
+            cm.updateAllCaches(conn.getRepository(), CacheDelta.forStatements(stmts));
 
         finishTransaction(started);
         
@@ -1386,25 +1556,16 @@ public class ReadWriteDataManagerImpl extends ReadDataManagerImpl implements Rea
     }
     
     /**
-     * Updates the cache for a set of statement. If the statements have
-     * a shared subject, only the subject's cache is updated instead of
-     * full invalidation.
+     * Updates the cache for a set of statements. Only the cache entries
+     * affected by the subjects, predicates and types of the statements
+     * are evicted, see {@link CacheManager#updateAllCaches(Repository, CacheDelta)}.
      */
     private void updateCachesForStmts(Collection<Statement> stmts)
     {
         if (stmts==null || stmts.size()==0)
             return; // nothing to be done
          
-        Resource sharedSubject = null;
-        for (Statement stmt : stmts)
-        {
-            if (sharedSubject==null)
-                sharedSubject = stmt.getSubject();
-            else if (!sharedSubject.equals(stmt.getSubject()))
-                cm.invalidateAllCaches(conn.getRepository()); // no shared subject
-        }
-        
-        cm.updateAllCaches(conn.getRepository(),sharedSubject); // shared subject
+        cm.updateAllCaches(conn.getRepository(), CacheDelta.forStatements(stmts));
     }    
  
     
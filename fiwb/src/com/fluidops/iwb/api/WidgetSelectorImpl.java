@@ -18,12 +18,14 @@
 
 package com.fluidops.iwb.api;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.BNode;
@@ -37,6 +39,7 @@ import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.repository.RepositoryException;
 
 import com.fluidops.iwb.Global;
+import com.fluidops.iwb.cache.PreConditionCache;
 import com.fluidops.iwb.page.PageContext;
 import com.fluidops.iwb.user.UserManager;
 import com.fluidops.iwb.user.UserManager.UIComponent;
@@ -46,11 +49,27 @@ import com.fluidops.iwb.widget.SemWikiWidget;
 import com.fluidops.iwb.widget.TripleEditorWidget;
 import com.fluidops.iwb.widget.Widget;
 import com.fluidops.iwb.widget.WidgetConfig;
+import com.fluidops.util.Pair;
 import com.fluidops.util.StringUtil;
 
+/**
+ * Selects the widgets of a page according to the widget configurations. The
+ * configurations are looked up in an index, which is rebuilt whenever the
+ * configurations change. The results of the preconditions are cached, see
+ * {@link PreConditionCache}.
+ */
 public class WidgetSelectorImpl extends AbstractWidgetSelector
 {
     private static final Logger logger = Logger.getLogger(WidgetSelectorImpl.class);
+    
+    private static final PreConditionCache preConditionCache = PreConditionCache.getInstance();
+    
+    /**
+     * Preconditions containing this variable depend on the user and are not cached
+     */
+    private static final String USER_PATTERN = "$user$";
+    
+    private volatile WidgetIndex index;
 	
 	public WidgetSelectorImpl()
 	{
@@ -62,86 +81,24 @@ public class WidgetSelectorImpl extends AbstractWidgetSelector
 	{
 		pc.widgets = new LinkedHashSet<Widget>();
 		
-		// we sort the widget configuration to reflect the priority in 
-		// which they are applied:
-		// 1.) Apply instance-specific widget configs
-		// 2.) Apply type-specific widget configs
-		// 3.) Apply RDFS.RESOURCE special handling
-		List<WidgetConfig> widgetConfig = new LinkedList(getWidgets());
-		Collections.sort(widgetConfig, new Comparator<WidgetConfig>()
-		{
-			public int compare(WidgetConfig c1,WidgetConfig c2)
-			{
-				// lowest prio (=highest order number): RDFS.RESOURCE
-				if (c1.value.equals(RDFS.RESOURCE))
-					if (c2.value.equals(RDFS.RESOURCE))
-						return 0;
-					else
-						return 1;
-				else if (c2.value.equals(RDFS.RESOURCE))
-					return -1;
-				
-				// second lowest prio (second-highest order number): applyToInstances=false
-				if (!c1.applyToInstances)
-					if (!c2.applyToInstances)
-						return 0;
-					else
-						return -1;
-				else if (!c2.applyToInstances)
-					return 1;
-				
-				// highest priority (lowest order number): applyToInstances=true
-				// (which holds if we reach this piece of code)
-				return !c2.applyToInstances ? -1 : 0;
-			}
-		});
-		
+		WidgetIndex widgetIndex = getIndex();
 		UserManager userManager = EndpointImpl.api().getUserManager();
 		ReadDataManager dm = EndpointImpl.api().getDataManager();
-		for (WidgetConfig wc : widgetConfig)
+		
+		// the types are looked up once, and only if there are type-specific widget configs
+		Set<Resource> types = Collections.emptySet();
+		if (pc.value instanceof Resource && widgetIndex.requiresTypes())
+			types = dm.getType((Resource) pc.value);
+		
+		for (WidgetConfig wc : widgetIndex.select(pc.value, types))
 		{
 			// filter out widgets that are blocked according to global system settings or ACLs
 			if (!com.fluidops.iwb.util.Config.getConfig().getPivotActive() && (wc.widget.equals(PivotWidget.class))) continue;
 			if (!userManager.hasUIComponentAccess(UIComponent.NAVIGATION_GRAPH,null) && (wc.widget.equals(GraphWidget.class))) continue;
 			if (!userManager.hasUIComponentAccess(UIComponent.NAVIGATION_PIVOT,null) && (wc.widget.equals(PivotWidget.class))) continue;
 			if (!userManager.hasUIComponentAccess(UIComponent.NAVIGATION_TABLE,null) && (wc.widget.equals(TripleEditorWidget.class))) continue;
-				
-			// (1) in case the widget applies to the resource directly...
-			if (!wc.applyToInstances)
-			{
-				// ... add it if the resource addressed by the widget matches 
-				// the current pc.value (otherwise, we ignore the widget definition)
-				if (wc.value.equals(pc.value))
-				{
-					addWidget(wc, pc);
-					continue;
-				}
-			}
 			
-			// (2) in case the widget applies to instances of the resource...
-			if (wc.applyToInstances)
-			{
-				// ... the current resource must be of type Resource ...
-				if (pc.value instanceof Resource)
-				{
-				    for(Value type : dm.getType((Resource) pc.value)) 
-				    {
-						// ... and the widget must match  one of its types
-				    	if(!wc.value.equals(type)) continue;
-				            
-						addWidget(wc, pc);
-						continue;
-					}
-				}
-			}
-			
-			// (3) in case the widget is of special type RDFS.RESOURCE, it
-			//     applies to every URI (if applyToInstances=true)
-			if (pc.value instanceof URI && wc.value.equals(RDFS.RESOURCE) && wc.applyToInstances)
-			{
-				addWidget(wc, pc);
-				continue;
-			}	
+			addWidget(wc, pc);
 		}
  
 		if (pc.value instanceof URI && userManager.hasUIComponentAccess(UIComponent.NAVIGATION_WIKI, null))
@@ -157,6 +114,22 @@ public class WidgetSelectorImpl extends AbstractWidgetSelector
 			pc.widgets.add(widget);
 		}
 	}
+    
+    /**
+     * Returns the index of the current widget configurations, the index
+     * is rebuilt if the configurations have changed.
+     */
+    private WidgetIndex getIndex()
+    {
+    	long version = getVersion();
+    	WidgetIndex res = index;
+    	if (res==null || res.version!=version)
+    	{
+    		res = new WidgetIndex(version, getWidgets());
+    		index = res;
+    	}
+    	return res;
+    }
 
 	private boolean isApplicable(WidgetConfig wc, Value value)
 	{
@@ -164,31 +137,45 @@ public class WidgetSelectorImpl extends AbstractWidgetSelector
 		
     	if (StringUtil.isNotNullNorEmpty(askQuery))
     	{
-        	ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
-        	
-    		 try
-			{
-				return dm.sparqlAsk(askQuery, true, value, false);
-			}
-			catch (RepositoryException e)
-			{
-				logger.warn(e.getMessage());
-				return false;
-			}
-			catch (MalformedQueryException e)
-			{				
-				logger.warn("invalid ask-query: "+e.getMessage());
-				return false;
-			}
-			catch (QueryEvaluationException e)
-			{
-				logger.warn(e.getMessage());
-				return false;
-			}
-
+    		if (askQuery.contains(USER_PATTERN))
+    			return evaluatePreCondition(askQuery, value);
+    		
+    		Pair<String,Value> key = new Pair<String,Value>(askQuery, value);
+    		Boolean res = preConditionCache.lookup(Global.repository, key);
+    		if (res==null)
+    		{
+    			res = evaluatePreCondition(askQuery, value);
+    			preConditionCache.insert(Global.repository, key, res);
+    		}
+    		return res;
     	}
 		return true;
 	}
+	
+	private boolean evaluatePreCondition(String askQuery, Value value)
+	{
+    	ReadDataManager dm = ReadDataManagerImpl.getDataManager(Global.repository);
+    	
+		 try
+		{
+			return dm.sparqlAsk(askQuery, true, value, false);
+		}
+		catch (RepositoryException e)
+		{
+			logger.warn(e.getMessage());
+			return false;
+		}
+		catch (MalformedQueryException e)
+		{				
+			logger.warn("invalid ask-query: "+e.getMessage());
+			return false;
+		}
+		catch (QueryEvaluationException e)
+		{
+			logger.warn(e.getMessage());
+			return false;
+		}
+	}
 
 	/**
 	 * Checks if a widget of a certain class has already been added to 
@@ -235,5 +222,131 @@ public class WidgetSelectorImpl extends AbstractWidgetSelector
 			logger.error(e.getMessage(),e);
 		}
 	}
+	
+	/**
+	 * Index of the widget configurations. The configurations are selected
+	 * in the order of their priority:
+	 * 
+	 * <ol>
+	 * <li>configs for the resource itself (applyToInstances=false)</li>
+	 * <li>configs for the types of the resource (applyToInstances=true)</li>
+	 * <li>configs for RDFS.RESOURCE, i.e. for every URI</li>
+	 * </ol>
+	 * 
+	 * Within each group, the configurations keep the order of {@link #getWidgets()}.
+	 */
+	private static class WidgetIndex
+	{
+		private final long version;
+		
+		private final Map<Value,List<WidgetConfig>> byValue = new HashMap<Value,List<WidgetConfig>>();
+		
+		private final Map<Value,List<IndexedConfig>> byType = new HashMap<Value,List<IndexedConfig>>();
+		
+		private final List<WidgetConfig> resourceWide = new ArrayList<WidgetConfig>();
+		
+		private boolean requiresTypes = false;
+		
+		private WidgetIndex(long version, List<WidgetConfig> widgetConfigs)
+		{
+			this.version = version;
+			
+			int position = 0;
+			for (WidgetConfig wc : widgetConfigs)
+			{
+				if (wc.value.equals(RDFS.RESOURCE))
+				{
+					resourceWide.add(wc);
+					requiresTypes |= wc.applyToInstances;
+				}
+				else if (wc.applyToInstances)
+				{
+					List<IndexedConfig> configs = byType.get(wc.value);
+					if (configs==null)
+					{
+						configs = new ArrayList<IndexedConfig>();
+						byType.put(wc.value, configs);
+					}
+					configs.add(new IndexedConfig(position++, wc));
+					requiresTypes = true;
+				}
+				else
+				{
+					List<WidgetConfig> configs = byValue.get(wc.value);
+					if (configs==null)
+					{
+						configs = new ArrayList<WidgetConfig>();
+						byValue.put(wc.value, configs);
+					}
+					configs.add(wc);
+				}
+			}
+		}
+		
+		/**
+		 * @return true if the selection depends on the types of the resource
+		 */
+		private boolean requiresTypes()
+		{
+			return requiresTypes;
+		}
+		
+		/**
+		 * Returns the widget configurations applicable to the given value,
+		 * in the order of their priority.
+		 * 
+		 * @param value
+		 * @param types the types of the value, empty if the value is not a resource
+		 */
+		private List<WidgetConfig> select(Value value, Set<Resource> types)
+		{
+			List<WidgetConfig> res = new ArrayList<WidgetConfig>();
+			
+			// (1) configs for the resource itself
+			List<WidgetConfig> valueConfigs = byValue.get(value);
+			if (valueConfigs!=null)
+				res.addAll(valueConfigs);
+			
+			// (2) configs for the types of the resource
+			List<IndexedConfig> typeConfigs = new ArrayList<IndexedConfig>();
+			for (Resource type : types)
+			{
+				List<IndexedConfig> configs = byType.get(type);
+				if (configs!=null)
+					typeConfigs.addAll(configs);
+			}
+			Collections.sort(typeConfigs);
+			for (IndexedConfig ic : typeConfigs)
+				res.add(ic.config);
+			
+			// (3) configs for RDFS.RESOURCE, applying to every URI (if applyToInstances=true)
+			for (WidgetConfig wc : resourceWide)
+			{
+				if (wc.applyToInstances ? (value instanceof URI || types.contains(RDFS.RESOURCE)) : wc.value.equals(value))
+					res.add(wc);
+			}
+			return res;
+		}
+	}
+	
+	/**
+	 * A widget configuration with its position in the configuration order
+	 */
+	private static class IndexedConfig implements Comparable<IndexedConfig>
+	{
+		private final int position;
+		private final WidgetConfig config;
+		
+		private IndexedConfig(int position, WidgetConfig config)
+		{
+			this.position = position;
+			this.config = config;
+		}
 
+		@Override
+		public int compareTo(IndexedConfig other)
+		{
+			return position < other.position ? -1 : (position > other.position ? 1 : 0);
+		}
+	}
 }
@@ -21,11 +21,14 @@ package com.fluidops.iwb.api.editor;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Resource;
@@ -44,6 +47,8 @@ import com.fluidops.iwb.api.EndpointImpl;
 import com.fluidops.iwb.api.ReadDataManager;
 import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.provider.ProviderUtils;
+import com.fluidops.iwb.util.Config;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Triple editor source reloading URIs on demand. The triple editor source
@@ -81,6 +86,9 @@ public class TripleEditorSourceURIOnDemand implements TripleEditorSource, Triple
 	
 	private ReadDataManager dm = EndpointImpl.api().getDataManager();
 	
+	private static final ScheduledExecutorService cursorTimer = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("IWB Triple Editor Cursor Timeout").setDaemon(true).build());
+	
 	/**
 	 * Default constructor, invoked by reflection call.
 	 */
@@ -137,6 +145,19 @@ public class TripleEditorSourceURIOnDemand implements TripleEditorSource, Triple
 		return tepi2extractor.keySet();
 	}
 
+	/**
+	 * Closes the open query results of all extractors, e.g. before the
+	 * statements of the value are modified. Further statements are read
+	 * with a new query.
+	 */
+	public void close()
+	{
+		if (tepi2extractor==null)
+			return;
+		for (CacheBasedTripleEditorStatementExtractor extractor : tepi2extractor.values())
+			extractor.close();
+	}
+
 	private CacheBasedTripleEditorStatementExtractor getExtractorForTepi(TripleEditorPropertyInfo tepi)
 	{
 		CacheBasedTripleEditorStatementExtractor extractor = tepi2extractor.get(tepi);
@@ -312,6 +333,15 @@ public class TripleEditorSourceURIOnDemand implements TripleEditorSource, Triple
 
 	/**
 	 * Abstract superclass for extracting triple editor statements related to a TEPI.
+	 * 
+	 * The statements are read from the repository in chunks and kept in the cache.
+	 * The values are sorted once: the result of the query is kept open between 
+	 * chunks, such that each chunk continues where the previous one stopped 
+	 * instead of sorting the values again and skipping the cached ones. Since an 
+	 * open result may block writes to the repository, it is closed if no further
+	 * chunk is requested within {@link Config#getTripleEditorCursorIdleTimeout()}
+	 * and before the statements are modified (see {@link TripleEditorSourceURIOnDemand#close()}).
+	 * Only then, the next chunk is read with an OFFSET query.
 	 */
 	public abstract class CacheBasedTripleEditorStatementExtractor
 	{
@@ -336,18 +366,144 @@ public class TripleEditorSourceURIOnDemand implements TripleEditorSource, Triple
 		 */
 		protected TripleEditorPropertyInfo tepi;
 		
+		/**
+		 * The open query result positioned after the cached statements, if any
+		 */
+		private TupleQueryResult cursor;
+		
+		/**
+		 * Closes the cursor once it is idle
+		 */
+		private ScheduledFuture<?> cursorTimeout;
+		
 		public CacheBasedTripleEditorStatementExtractor(URI value, TripleEditorPropertyInfo tepi)
 		{
 			this.value = value;
 			this.tepi = tepi;
-			cache = new LinkedList<TripleEditorStatement>();
+			cache = new ArrayList<TripleEditorStatement>();
 		}
 		
 		public abstract List<TripleEditorStatement> computePreview(int previewSize)
 		throws QueryEvaluationException;
 		
-		public abstract List<TripleEditorStatement> getValues(int offset, int limit)
-		throws QueryEvaluationException;
+		/**
+		 * @return the query for the distinct values and contexts of the TEPI,
+		 * 			ordered by value and context
+		 */
+		protected abstract String getQuery();
+		
+		/**
+		 * @return the triple editor statement for a result of the query
+		 */
+		protected abstract TripleEditorStatement createTripleEditorStatement(BindingSet tuple);
+		
+		/**
+		 * @return the context of the tuple, null for the default context
+		 */
+		protected Resource getContext(BindingSet tuple)
+		{
+			return tuple.getBinding("c") != null ? (Resource) tuple.getBinding("c").getValue() : null;
+		}
+		
+		public synchronized List<TripleEditorStatement> getValues(int offset, int limit) throws QueryEvaluationException
+		{
+			long start = System.currentTimeMillis();
+			if (!canAnswerFromCache(offset,limit))
+			{
+				// extract 5x more triples then requested to accelerate iterative user requests
+				// (next time, the triples will be taken from the cache)
+				extendCache(limit>=0 ? offset+5*limit : TripleEditorSource.ALL_STATEMENTS);
+			}
+			
+			long end = System.currentTimeMillis();
+			logger.trace("Calculated requested values for property " + tepi.getUri() + " of " + value + " in " + (end-start) + "ms");
+
+			return getValidSublistFromCache(offset,limit);
+		}
+		
+		/**
+		 * Appends the next statements to the cache.
+		 * 
+		 * @param nrRequestedStatements the number of statements to append, 
+		 * 			{@link TripleEditorSource#ALL_STATEMENTS} for all
+		 */
+		protected synchronized void extendCache(int nrRequestedStatements) throws QueryEvaluationException
+		{
+			cancelCursorTimeout();
+			boolean keepOpen = false;
+			try 
+			{
+				if (cursor==null)
+				{
+					String query = getQuery();
+					if (cache.size()>0)
+						query += " OFFSET " + cache.size();
+					query = query.replace("%NODE%", ProviderUtils.uriToQueryString(value));
+					query = query.replace("%PRED%", ProviderUtils.uriToQueryString(tepi.getUri()));
+					cursor = dm.sparqlSelect(query, true);
+				}
+				
+				int added = 0;
+				while ((nrRequestedStatements<0 || added<nrRequestedStatements) && cursor.hasNext())
+				{
+					cache.add(createTripleEditorStatement(cursor.next()));
+					added++;
+				}
+				
+				if (!cursor.hasNext())
+					cacheComplete = true;
+				else
+					keepOpen = Config.getConfig().getTripleEditorCursorIdleTimeout()>0;
+			}
+			catch (MalformedQueryException e) 
+			{
+				throw new RuntimeException(e);
+			} 
+			finally 
+			{
+				if (keepOpen)
+					scheduleCursorTimeout();
+				else
+					closeCursor();
+			}
+		}
+		
+		private void scheduleCursorTimeout()
+		{
+			cursorTimeout = cursorTimer.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					synchronized (CacheBasedTripleEditorStatementExtractor.this)
+					{
+						closeCursor();
+					}
+				}
+			}, Config.getConfig().getTripleEditorCursorIdleTimeout(), TimeUnit.MILLISECONDS);
+		}
+		
+		private void cancelCursorTimeout()
+		{
+			if (cursorTimeout!=null)
+				cursorTimeout.cancel(false);
+			cursorTimeout = null;
+		}
+		
+		/**
+		 * Closes the open query result, if any
+		 */
+		public synchronized void close()
+		{
+			cancelCursorTimeout();
+			closeCursor();
+		}
+		
+		private void closeCursor()
+		{
+			ReadDataManagerImpl.closeQuietly(cursor);
+			cursor = null;
+		}
 		
 		/**
 		 * Returns the sublist for the given offset & limit specification, assuming
@@ -410,57 +566,18 @@ public class TripleEditorSourceURIOnDemand implements TripleEditorSource, Triple
 		}
 		
 		@Override
-		public List<TripleEditorStatement> getValues(int offset, int limit) throws QueryEvaluationException
+		protected String getQuery()
 		{
-			long start = System.currentTimeMillis();
-			if (!canAnswerFromCache(offset,limit))
-			{
-				List<TripleEditorStatement> stmts = new ArrayList<TripleEditorStatement>();
-				
-				// extract 5x more triples then requested to accelerate iterative user requests
-				// (next time, the triples will be taken from the cache)
-				int nrRequestedStatements = offset+5*limit;
-				String query =  "SELECT DISTINCT ?s ?c WHERE { " +
-												    "  ?s %PRED% %NODE% . " +
-													"	OPTIONAL { GRAPH ?c { ?s %PRED% %NODE% } } " +
-													"} ORDER BY ?s ?c OFFSET " + cache.size();
-				
-				if (limit>=0)
-					query += " LIMIT " + nrRequestedStatements;
-				
-				query = query.replace("%NODE%", ProviderUtils.uriToQueryString(value));
-				query = query.replace("%PRED%", ProviderUtils.uriToQueryString(tepi.getUri()));
-				
-				TupleQueryResult qRes = null;
-				try 
-				{
-					qRes = dm.sparqlSelect(query, true);
-					while (qRes.hasNext()) 
-					{
-						BindingSet tuple = qRes.next();
-	
-						Resource context = tuple.getBinding("c") != null ? (Resource) tuple.getBinding("c").getValue() : null;
-						stmts.add(new TripleEditorStatement((Resource)tuple.getBinding("s").getValue(), tepi.getUri(), value, context, tepi));
-					}
-				}
-				catch (MalformedQueryException e) 
-				{
-					throw new RuntimeException(e);
-				} 
-				finally 
-				{
-					ReadDataManagerImpl.closeQuietly(qRes);
-				}
-				
-				cache.addAll(stmts);
-				if (stmts.size()<nrRequestedStatements)
-					cacheComplete = true;
-			}
-			
-			long end = System.currentTimeMillis();
-			logger.trace("Calculated requested values for outgoing property " + value + " in " + (end-start) + "ms");
-
-			return getValidSublistFromCache(offset,limit);
+			return "SELECT DISTINCT ?s ?c WHERE { " +
+					"  ?s %PRED% %NODE% . " +
+					"	OPTIONAL { GRAPH ?c { ?s %PRED% %NODE% } } " +
+					"} ORDER BY ?s ?c";
+		}
+		
+		@Override
+		protected TripleEditorStatement createTripleEditorStatement(BindingSet tuple)
+		{
+			return new TripleEditorStatement((Resource)tuple.getBinding("s").getValue(), tepi.getUri(), value, getContext(tuple), tepi);
 		}
 	}
 	
@@ -488,59 +605,18 @@ public class TripleEditorSourceURIOnDemand implements TripleEditorSource, Triple
 		}
 
 		@Override
-		public List<TripleEditorStatement> getValues(int offset, int limit) 
-		throws QueryEvaluationException
+		protected String getQuery()
 		{
-			long start = System.currentTimeMillis();
-			
-			if (!canAnswerFromCache(offset,limit))
-			{
-				List<TripleEditorStatement> stmts = new ArrayList<TripleEditorStatement>();
-				
-				// extract 5x more triples then requested to accelerate iterative user requests
-				// (next time, the triples will be taken from the cache)
-				int nrRequestedStatements = offset+5*limit;
-				String query =  "SELECT DISTINCT ?o ?c WHERE { " +
-												    "   %NODE% %PRED% ?o . " +
-													"	OPTIONAL { GRAPH ?c { %NODE% %PRED% ?o } } " +
-													"} ORDER BY ?o ?c OFFSET " + cache.size();
-				if (limit>=0)
-					query += " LIMIT "+ nrRequestedStatements;
-				
-				query = query.replace("%NODE%", ProviderUtils.uriToQueryString(value));
-				query = query.replace("%PRED%", ProviderUtils.uriToQueryString(tepi.getUri()));
-				
-				TupleQueryResult qRes = null;
-				try 
-				{
-					qRes = dm.sparqlSelect(query, true);
-					while (qRes.hasNext()) 
-					{
-						BindingSet tuple = qRes.next();
-	
-						Resource context = tuple.getBinding("c") != null ? (Resource) tuple.getBinding("c").getValue() : null;
-						stmts.add(new TripleEditorStatement(value, tepi.getUri(),
-								tuple.getBinding("o").getValue(), context, tepi));
-					}
-				}
-				catch (MalformedQueryException e) 
-				{
-					throw new RuntimeException(e);
-				} 
-				finally 
-				{
-					ReadDataManagerImpl.closeQuietly(qRes);
-				}
-				
-				cache.addAll(stmts);
-				if (stmts.size()<nrRequestedStatements)
-					cacheComplete = true;
-			}
-			
-			long end = System.currentTimeMillis();
-			logger.trace("Calculated requested values for outgoing property " + value + " in " + (end-start) + "ms");
-
-			return getValidSublistFromCache(offset,limit);
+			return "SELECT DISTINCT ?o ?c WHERE { " +
+					"   %NODE% %PRED% ?o . " +
+					"	OPTIONAL { GRAPH ?c { %NODE% %PRED% ?o } } " +
+					"} ORDER BY ?o ?c";
+		}
+		
+		@Override
+		protected TripleEditorStatement createTripleEditorStatement(BindingSet tuple)
+		{
+			return new TripleEditorStatement(value, tepi.getUri(), tuple.getBinding("o").getValue(), getContext(tuple), tepi);
 		}
 	}
 }
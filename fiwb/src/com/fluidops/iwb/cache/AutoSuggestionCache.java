@@ -21,6 +21,7 @@ package com.fluidops.iwb.cache;
 import java.util.List;
 
 import org.openrdf.model.URI;
+import org.openrdf.repository.Repository;
 
 /**
  * Cache for Repository-based autosuggestion cache.
@@ -51,4 +52,14 @@ public class AutoSuggestionCache extends RepositoryCache<URI,List<String>>
     {
         super();
     }
+    
+    /**
+     * The suggestions depend on arbitrary resources, hence the cache
+     * is invalidated once for the whole delta (rather than per subject).
+     */
+    @Override
+    public void updateCache(Repository rep, CacheDelta delta)
+    {
+        invalidate(rep);
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.cache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+/**
+ * Summary of a set of added or removed statements that is relevant for
+ * fine-grained cache maintenance: the affected subjects, the predicates,
+ * and the objects of rdf:type statements. Caches evict only the entries
+ * matching the delta, see {@link RepositoryCache#updateCache(org.openrdf.repository.Repository, CacheDelta)}.
+ * 
+ * To bound memory for bulk changes, at most {@link #MAX_SUBJECTS} subjects
+ * are recorded. If the limit is exceeded, the delta is marked as overflown 
+ * and a complete cache invalidation is performed instead.
+ */
+public class CacheDelta
+{
+	/**
+	 * Maximum number of subjects recorded before falling back to 
+	 * full cache invalidation
+	 */
+	public static final int MAX_SUBJECTS = 100000;
+	
+	private final Set<Resource> subjects = new HashSet<Resource>();
+	
+	private final Set<URI> predicates = new HashSet<URI>();
+	
+	private final Set<Resource> types = new HashSet<Resource>();
+	
+	private boolean overflow = false;
+	
+	/**
+	 * Record the given statement as changed
+	 * 
+	 * @param stmt
+	 */
+	public void add(Statement stmt)
+	{
+		if (overflow)
+			return;
+		
+		subjects.add(stmt.getSubject());
+		predicates.add(stmt.getPredicate());
+		if (RDF.TYPE.equals(stmt.getPredicate()) && stmt.getObject() instanceof Resource)
+			types.add((Resource)stmt.getObject());
+		
+		if (subjects.size()>MAX_SUBJECTS)
+		{
+			overflow = true;
+			subjects.clear();
+			predicates.clear();
+			types.clear();
+		}
+	}
+	
+	/**
+	 * Record all given statements as changed
+	 * 
+	 * @param stmts
+	 */
+	public void addAll(Iterable<? extends Statement> stmts)
+	{
+		for (Statement stmt : stmts)
+			add(stmt);
+	}
+	
+	/**
+	 * @return the subjects of the changed statements
+	 */
+	public Set<Resource> getSubjects()
+	{
+		return subjects;
+	}
+	
+	/**
+	 * @return the predicates of the changed statements
+	 */
+	public Set<URI> getPredicates()
+	{
+		return predicates;
+	}
+	
+	/**
+	 * @return the objects of changed rdf:type statements
+	 */
+	public Set<Resource> getTypes()
+	{
+		return types;
+	}
+	
+	/**
+	 * @return true if too many statements were recorded, such that the 
+	 * 			delta is incomplete and all caches must be invalidated
+	 */
+	public boolean isOverflow()
+	{
+		return overflow;
+	}
+	
+	/**
+	 * @return true if no statement has been recorded
+	 */
+	public boolean isEmpty()
+	{
+		return !overflow && subjects.isEmpty();
+	}
+	
+	/**
+	 * Returns true if the delta contains changes to the class or property
+	 * hierarchy, or to domain, range or inverse definitions, which may
+	 * affect inferred information of resources that are not part of the delta.
+	 * 
+	 * @return
+	 */
+	public boolean containsSchemaChanges()
+	{
+		return overflow 
+				|| predicates.contains(RDFS.SUBCLASSOF) 
+				|| predicates.contains(RDFS.SUBPROPERTYOF)
+				|| predicates.contains(RDFS.DOMAIN)
+				|| predicates.contains(RDFS.RANGE)
+				|| predicates.contains(OWL.INVERSEOF);
+	}
+	
+	/**
+	 * Convenience method to create the delta for a set of statements
+	 * 
+	 * @param stmts
+	 * @return
+	 */
+	public static CacheDelta forStatements(Iterable<? extends Statement> stmts)
+	{
+		CacheDelta delta = new CacheDelta();
+		delta.addAll(stmts);
+		return delta;
+	}
+}
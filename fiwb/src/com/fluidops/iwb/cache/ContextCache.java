@@ -18,8 +18,6 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Map;
-
 import org.openrdf.model.Resource;
 import org.openrdf.repository.Repository;
 
@@ -57,8 +55,6 @@ public class ContextCache extends RepositoryCache<Resource,Context>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<Resource,Context> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        remove(rep, u);
     }
 }
@@ -27,6 +27,7 @@ import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
+import org.openrdf.repository.Repository;
 
 /**
  * Singleton cache class that resolves URIs and literals to
@@ -75,6 +76,15 @@ public class ImageFileCache extends RepositoryCache<String, String>
         cache = new HashMap<String,Map<String,String>>();
     }
     
+    /**
+     * Image mappings are read from files, repository changes do not
+     * affect them.
+     */
+    @Override
+    public void updateCache(Repository rep, CacheDelta delta)
+    {
+    }
+    
     /**
      * Return image mapping stored in one file using cache
      * if file has already been loaded.
@@ -19,7 +19,9 @@
 package com.fluidops.iwb.cache;
 
 import java.util.List;
+
 import org.openrdf.model.Resource;
+import org.openrdf.repository.Repository;
 
 
 /**
@@ -53,4 +55,20 @@ public class InstanceCache extends RepositoryCache<Resource,List<Resource>>
     {
         super();
     }
+    
+    /**
+     * Instances of a type change only if rdf:type statements for
+     * the type change, or if the class hierarchy changes.
+     */
+    @Override
+    public void updateCache(Repository rep, CacheDelta delta)
+    {
+        if (delta.containsSchemaChanges())
+        {
+            invalidate(rep);
+            return;
+        }
+        for (Resource type : delta.getTypes())
+            remove(rep, type);
+    }
 }
@@ -18,10 +18,9 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Map;
-
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
+import org.openrdf.model.vocabulary.OWL;
 import org.openrdf.repository.Repository;
 
 public class InversePropertyCache extends RepositoryCache<URI,URI>
@@ -58,8 +57,19 @@ public class InversePropertyCache extends RepositoryCache<URI,URI>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<URI,URI> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        remove(rep, u);
+    }
+    
+    /**
+     * A change of <code>X owl:inverseOf P</code> affects the entry of P,
+     * which is not among the changed subjects.
+     */
+    @Override
+    public void updateCache(Repository rep, CacheDelta delta)
+    {
+        if (delta.getPredicates().contains(OWL.INVERSEOF))
+            invalidate(rep);
+        else
+            super.updateCache(rep, delta);
     }
 }
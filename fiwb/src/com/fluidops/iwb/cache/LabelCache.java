@@ -18,8 +18,6 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Map;
-
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.repository.Repository;
@@ -57,8 +55,6 @@ public class LabelCache extends RepositoryCache<URI,String>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<URI,String> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        remove(rep, u);
     }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.cache;
+
+import org.openrdf.model.Value;
+import org.openrdf.repository.Repository;
+
+import com.fluidops.util.Pair;
+
+/**
+ * Cache for the results of widget preconditions (SPARQL ASK queries),
+ * keyed by the query and the resource of the page. Since the query may
+ * refer to arbitrary data, any change to the repository invalidates
+ * the cache for the repository.
+ */
+public class PreConditionCache extends RepositoryCache<Pair<String,Value>,Boolean>
+{
+    private static PreConditionCache instance = null;
+    
+    /**
+     * Return the one and only instance
+     * 
+     * @return
+     */
+    static public PreConditionCache getInstance()
+    {
+        if (instance==null)
+            instance = new PreConditionCache();
+        return instance;
+    }
+    
+    /**
+     * Private Constructor (Singleton)
+     */
+    private PreConditionCache()
+    {
+        super();
+    }
+    
+    @Override
+    public void updateCache(Repository rep, CacheDelta delta)
+    {
+        invalidate(rep);
+    }
+}
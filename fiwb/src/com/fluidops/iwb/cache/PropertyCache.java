@@ -20,7 +20,6 @@ package com.fluidops.iwb.cache;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.openrdf.model.Resource;
@@ -311,8 +310,6 @@ public class PropertyCache extends RepositoryCache<URI,PropertyInfo>
     @Override
     public void updateCache(Repository rep, Resource u)
     {
-        Map<URI,PropertyInfo> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(u);
+        remove(rep, u);
     }
 }
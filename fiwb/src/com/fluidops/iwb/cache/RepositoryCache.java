@@ -18,32 +18,56 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.log4j.Logger;
 import org.openrdf.model.Resource;
 import org.openrdf.repository.Repository;
 
+import com.fluidops.iwb.util.Config;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
 /**
  * Abstract superclass for implementing caches over the repository.
  * 
+ * For each repository a separate bounded, concurrent cache is maintained.
+ * The maximum weight of each of these caches (see {@link #weigh(Object, Object)})
+ * and an optional expiry time can be configured per cache class, see
+ * {@link Config#getCacheMaximumWeight(String)} and 
+ * {@link Config#getCacheExpireAfterAccess(String)}. If the maximum weight
+ * is exceeded, least recently used entries are evicted. Hit, miss and
+ * eviction counts are recorded and available via {@link #stats(Repository)}.
+ * 
  * @author msc
  *
  */
 public abstract class RepositoryCache<KEY,VALUE>
 {    
+	private static final Logger logger = Logger.getLogger(RepositoryCache.class.getName());
+	
+	/**
+	 * Placeholder for null values, which are not supported by the
+	 * underlying cache implementation
+	 */
+	private static final Object NULL_VALUE = new Object();
+	
     /**
      * The cache, mapping keys to values
      */
-    protected Map<Repository,Map<KEY,VALUE>> cache;
+    private final ConcurrentMap<Repository,Cache<KEY,Object>> cache;
  
     /**
      * Constructor
      */
     public RepositoryCache()
     {
-        cache = new HashMap<Repository,Map<KEY,VALUE>>();
+        cache = new ConcurrentHashMap<Repository,Cache<KEY,Object>>();
     }
     
     /**
@@ -53,19 +77,24 @@ public abstract class RepositoryCache<KEY,VALUE>
      * @param key
      * @return
      */
-    public VALUE lookup(Repository rep, KEY key)
+    @SuppressWarnings("unchecked")
+	public VALUE lookup(Repository rep, KEY key)
     {
         // get repository-specific cache
-        Map<KEY,VALUE> repCache = cache.get(rep);
-        return repCache==null?null:repCache.get(key);
+        Cache<KEY,Object> repCache = cache.get(rep);
+        if (repCache==null)
+        	return null;
+        Object val = repCache.getIfPresent(key);
+        return val==null || val==NULL_VALUE ? null : (VALUE)val;
     }
     
     public boolean containsKey(Repository rep, KEY key)
     {
         // get repository-specific cache
-        Map<KEY,VALUE> repCache = cache.get(rep);
-        return repCache!=null&&repCache.containsKey(key);
+        Cache<KEY,Object> repCache = cache.get(rep);
+        return repCache!=null && repCache.getIfPresent(key)!=null;
     }
+    
     /**
      * Inserts a key-value pair into the repository
      * @param rep
@@ -74,16 +103,21 @@ public abstract class RepositoryCache<KEY,VALUE>
      */
     public void insert(Repository rep, KEY key, VALUE val)
     {
-        Map<KEY,VALUE> repCache = cache.get(rep);
-        
-        // initially create repository-dependent cache, if it does not exist
-        if (repCache==null)
-        {
-            repCache = Collections.synchronizedMap(new HashMap<KEY,VALUE>());
-            cache.put(rep,repCache);
-        }
-        
-        repCache.put(key,val);
+        getRepositoryCache(rep).put(key, val==null ? NULL_VALUE : val);
+    }
+    
+    /**
+     * Removes the entry for the given key from the cache of the
+     * repository, if present.
+     * 
+     * @param rep
+     * @param key
+     */
+    public void remove(Repository rep, Object key)
+    {
+        Cache<KEY,Object> repCache = cache.get(rep);
+        if (repCache!=null)
+            repCache.invalidate(key);
     }
     
     /**
@@ -100,9 +134,9 @@ public abstract class RepositoryCache<KEY,VALUE>
      */
     public void invalidate(Repository rep)
     {
-        Map<KEY,VALUE> repCache = cache.get(rep);
+        Cache<KEY,Object> repCache = cache.get(rep);
         if (repCache!=null)
-            repCache.clear();
+            repCache.invalidateAll();
     }
     
     
@@ -119,6 +153,23 @@ public abstract class RepositoryCache<KEY,VALUE>
     }
     
     
+    /**
+     * Updates the cache for the given Repository and a set of changed
+     * statements. The default implementation updates the cache for
+     * each of the changed subjects, see {@link #updateCache(Repository, Resource)}.
+     * Caches whose entries do not depend on the subject only (e.g. caches keyed
+     * by type) should re-implement this method.
+     * 
+     * @param rep
+     * @param delta the changes, must not be overflown
+     */
+    public void updateCache(Repository rep, CacheDelta delta)
+    {
+        for (Resource subject : delta.getSubjects())
+            updateCache(rep, subject);
+    }
+    
+    
     /**
      * Return the size of the cache for the provided repository, i.e
      * the number of KEY elements present in the cache. If rep is null,
@@ -131,17 +182,96 @@ public abstract class RepositoryCache<KEY,VALUE>
      */
     public int size(Repository rep) {	
 		if (rep!=null) {
-			Map<KEY, VALUE> repCache = cache.get(rep);
+			Cache<KEY,Object> repCache = cache.get(rep);
 			if (repCache==null)
 				return 0;
-			return repCache.size();
+			return (int)repCache.size();
 		}
 		
 		int size=0;
-		for (Repository r : cache.keySet())
-			size+=cache.get(r).size();
+		for (Cache<KEY,Object> repCache : cache.values())
+			size+=repCache.size();
 		return size;
 	}
-				
-	
+    
+    /**
+     * Return the hit, miss and eviction statistics of the cache for the
+     * provided repository. If rep is null, the statistics are summed up
+     * over all repositories present in the cache.
+     * 
+     * @param rep
+     * 			the repository, null is allowed
+     * @return
+     * 			the statistics, never null
+     */
+    public CacheStats stats(Repository rep) {
+    	CacheStats res = new CacheStats(0, 0, 0, 0, 0, 0);
+    	if (rep!=null) {
+    		Cache<KEY,Object> repCache = cache.get(rep);
+    		return repCache==null ? res : repCache.stats();
+    	}
+    	
+    	for (Cache<KEY,Object> repCache : cache.values())
+    		res = res.plus(repCache.stats());
+    	return res;
+    }
+    
+    /**
+     * Returns the weight of a cache entry, which is used to bound the 
+     * size of the cache. The default implementation weighs collections
+     * by their size and any other value by 1. Subclasses storing large
+     * composite values should override this method.
+     * 
+     * @param key
+     * @param val the value, may be null
+     * @return a non-negative weight
+     */
+    protected int weigh(KEY key, VALUE val)
+    {
+    	if (val instanceof Collection)
+    		return 1 + ((Collection<?>)val).size();
+    	return 1;
+    }
+    
+    /**
+     * Returns the cache for the given repository, the cache is
+     * created if it does not yet exist.
+     * 
+     * @param rep
+     * @return
+     */
+    private Cache<KEY,Object> getRepositoryCache(Repository rep)
+    {
+    	Cache<KEY,Object> repCache = cache.get(rep);
+    	if (repCache!=null)
+    		return repCache;
+    	
+    	// initially create repository-dependent cache, if it does not exist
+    	Cache<KEY,Object> newCache = createRepositoryCache();
+    	repCache = cache.putIfAbsent(rep, newCache);
+    	return repCache==null ? newCache : repCache;
+    }
+    
+    private Cache<KEY,Object> createRepositoryCache()
+    {
+    	String cacheName = getClass().getSimpleName();
+    	long maximumWeight = Config.getConfig().getCacheMaximumWeight(cacheName);
+    	long expireAfterAccess = Config.getConfig().getCacheExpireAfterAccess(cacheName);
+    	logger.debug("Creating " + cacheName + " with maximum weight " + maximumWeight 
+    			+ (expireAfterAccess>0 ? " and expiry after " + expireAfterAccess + "s" : ""));
+    	
+    	CacheBuilder<Object,Object> builder = CacheBuilder.newBuilder().recordStats();
+    	if (maximumWeight>0)
+    		builder.maximumWeight(maximumWeight).weigher(new Weigher<KEY,Object>() {
+    			@SuppressWarnings("unchecked")
+    			@Override
+    			public int weigh(KEY key, Object val)
+    			{
+    				return RepositoryCache.this.weigh(key, val==NULL_VALUE ? null : (VALUE)val);
+    			}
+    		});
+    	if (expireAfterAccess>0)
+    		builder.expireAfterAccess(expireAfterAccess, TimeUnit.SECONDS);
+    	return builder.<KEY,Object>build();
+    }
 }
@@ -18,10 +18,7 @@
 
 package com.fluidops.iwb.cache;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.openrdf.model.Resource;
 import org.openrdf.repository.Repository;
@@ -61,45 +58,48 @@ public class TypeCache extends RepositoryCache<Resource,Pair<List<Resource>,List
     
     public void insertDirectTypesForResource(Repository rep, Resource res, List<Resource> types)
     {
-        Map<Resource,Pair<List<Resource>,List<Resource>>> repCache = cache.get(rep);
-        if (repCache==null)
-        {
-            repCache = Collections.synchronizedMap(
-                    new HashMap<Resource,Pair<List<Resource>,List<Resource>>>());
-            cache.put(rep,repCache);
-        }
-        
-        Pair<List<Resource>,List<Resource>> val = repCache.get(res);
+        Pair<List<Resource>,List<Resource>> val = lookup(rep, res);
         if (val==null)
             val = new Pair<List<Resource>,List<Resource>>(types,null);
         else
             val = new Pair<List<Resource>,List<Resource>>(types,val.snd);
-        repCache.put(res,val);
+        insert(rep, res, val);
     }
     
     public void insertIndirectTypesForResource(Repository rep, Resource res, List<Resource> types)
     {
-        Map<Resource,Pair<List<Resource>,List<Resource>>> repCache = cache.get(rep);
-        if (repCache==null)
-        {
-            repCache = Collections.synchronizedMap(
-                    new HashMap<Resource,Pair<List<Resource>,List<Resource>>>());
-            cache.put(rep,repCache);
-        }
-        
-        Pair<List<Resource>,List<Resource>> val = repCache.get(res);
+        Pair<List<Resource>,List<Resource>> val = lookup(rep, res);
         if (val==null)
             val = new Pair<List<Resource>,List<Resource>>(null,types);
         else
             val = new Pair<List<Resource>,List<Resource>>(val.fst,types);
-        repCache.put(res,val);
+        insert(rep, res, val);
     }
     
     @Override
     public void updateCache(Repository rep, Resource res)
     {
-        Map<Resource,Pair<List<Resource>,List<Resource>>> repCache = cache.get(rep);
-        if (repCache!=null)
-            repCache.remove(res);
+        remove(rep, res);
+    }
+    
+    /**
+     * Changes to the class hierarchy affect the indirect types 
+     * of all resources.
+     */
+    @Override
+    public void updateCache(Repository rep, CacheDelta delta)
+    {
+        if (delta.containsSchemaChanges())
+            invalidate(rep);
+        else
+            super.updateCache(rep, delta);
+    }
+    
+    @Override
+    protected int weigh(Resource res, Pair<List<Resource>,List<Resource>> val)
+    {
+        if (val==null)
+            return 1;
+        return 1 + (val.fst==null ? 0 : val.fst.size()) + (val.snd==null ? 0 : val.snd.size());
     }
 }
@@ -22,6 +22,7 @@ import java.util.List;
 
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
+import org.openrdf.repository.Repository;
 
 
 public class URIAutoSuggestionCache extends RepositoryCache<URI, List<Value>> {
@@ -32,4 +33,14 @@ public class URIAutoSuggestionCache extends RepositoryCache<URI, List<Value>> {
 	}
 
 	private URIAutoSuggestionCache() { }
+	
+	/**
+	 * Suggestions are computed from the types of resources and the
+	 * domain and range definitions, so only changes to these are relevant.
+	 */
+	@Override
+	public void updateCache(Repository rep, CacheDelta delta) {
+		if (!delta.getTypes().isEmpty() || delta.containsSchemaChanges())
+			invalidate(rep);
+	}
 }
@@ -21,6 +21,7 @@ package com.fluidops.iwb.keywordsearch;
 import org.openrdf.model.Value;
 import org.openrdf.query.QueryResult;
 import org.openrdf.query.TupleQueryResult;
+import org.openrdf.sail.lucene.LuceneSail;
 
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.ReadDataManagerImpl;
@@ -32,7 +33,8 @@ import com.fluidops.util.StringUtil;
 
 /**
  * Search provider implementation for the default RDF repository. Processes SPARQL queries as-is, 
- * transforms keyword queries to SPARQL using the query skeleton.
+ * transforms keyword queries to SPARQL using the query skeleton. If the default query skeleton is
+ * used, keyword queries are evaluated directly on the Lucene index instead.
  * 
  * @author andriy.nikolov
  *
@@ -44,6 +46,12 @@ public class DataRepositorySearchProvider extends AbstractSparqlSearchProvider i
 	{
 		String luceneQuery = null;
 		luceneQuery = KeywordSearchAPI.normalizeLuceneQuery(keywordString);
+
+		LuceneSail luceneSail = KeywordIndexAPI.getLuceneSail();
+		if (luceneSail!=null && KeywordSearchAPI.isDefaultQuerySkeleton())
+			return LuceneKeywordSearch.search(luceneSail.getLuceneIndex(), luceneQuery, 
+					KeywordSearchAPI.SEARCH_LIMIT, Global.repository);
+
 		luceneQuery = StringUtil.escapeSparqlStrings(luceneQuery);
 		
 		String querySkeleton = Config.getConfig().getKeywordQuerySkeleton();
@@ -20,12 +20,15 @@ package com.fluidops.iwb.keywordsearch;
 
 import static com.fluidops.iwb.model.Vocabulary.SYSTEM.WIKI;
 
+import info.aduna.iteration.CloseableIteration;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
@@ -35,11 +38,14 @@ import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.repository.event.base.NotifyingRepositoryWrapper;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.sail.Sail;
-import org.openrdf.sail.lucene.LuceneIndex;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.SailException;
 import org.openrdf.sail.lucene.LuceneSail;
 
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.cms.util.ExtractText;
+import com.fluidops.iwb.util.Config;
+import com.fluidops.iwb.util.IWBFileUtil;
 import com.fluidops.iwb.wiki.WikiStorage;
 import com.fluidops.iwb.wiki.WikiSynchronizer;
 import com.fluidops.iwb.wiki.Wikimedia;
@@ -49,7 +55,16 @@ public class KeywordIndexAPI {
 	
 	private static final Logger logger = Logger.getLogger(KeywordIndexAPI.class.getName());
 	
-	private static LuceneSail getLuceneSail()
+	/**
+	 * File in the data folder recording the progress of the wiki indexing
+	 */
+	private static final String WIKI_INDEX_CHECKPOINT = "wikiindex.checkpoint";
+	
+	private static KeywordIndexUpdater keywordIndexUpdater;
+	
+	private static KeywordIndexUpdater wikiIndexUpdater;
+	
+	static LuceneSail getLuceneSail()
 	{
 		if (Global.repository != null && (Global.repository instanceof NotifyingRepositoryWrapper))
 		{
@@ -63,7 +78,7 @@ public class KeywordIndexAPI {
 		return null;
 	}
 	
-	private static LuceneSail getWikiLuceneSail()
+	static LuceneSail getWikiLuceneSail()
 	{
 		if (Global.wikiLuceneRepository != null)
 		{
@@ -96,13 +111,8 @@ public class KeywordIndexAPI {
 		LuceneSail luceneSail = getWikiLuceneSail();
 		if (luceneSail != null)
 		{
-			luceneSail.reindex();
-			WikiStorage storage = Wikimedia.getWikiStorage();
-			List<URI> uriList = storage.getAllWikiURIs();
-			for (URI uri : uriList)
-			{
-				indexWikiPage(luceneSail.getLuceneIndex(), uri, storage.getRawWikiContent(uri, null));
-			}
+			new WikiIndexer(luceneSail, Wikimedia.getWikiStorage(), IWBFileUtil.getFileInDataFolder(WIKI_INDEX_CHECKPOINT), 
+					Runtime.getRuntime().availableProcessors(), getWikiIndexUpdater()).run();
 			return true;
 		}
 		else
@@ -112,53 +122,154 @@ public class KeywordIndexAPI {
 		}
 	}
 	
-	public static void replaceWikiIndexEntry(URI uri, String content) throws IOException
+	/**
+	 * Schedules an update of the keyword index entry of the given wiki page.
+	 * The update is applied in the background, using the wiki content which
+	 * is current at that time.
+	 * 
+	 * @param uri
+	 */
+	public static void replaceWikiIndexEntry(URI uri) throws IOException
 	{
-		LuceneSail luceneSail = getWikiLuceneSail();
-		if (luceneSail != null)
+		KeywordIndexUpdater updater = getWikiIndexUpdater();
+		if (updater != null)
 		{
-			indexWikiPage(luceneSail.getLuceneIndex(), uri, content);
+			updater.update(uri);
 		}
 		else
 		{
 			logger.debug("Could not update keyword index because no LuceneSail is configured.");
 		}
 	}
-
-	private static void indexWikiPage(LuceneIndex luceneIndex, Resource resource, String content) throws IOException
+	
+	/**
+	 * Returns the incremental updater of the keyword index over structured data,
+	 * or null if no LuceneSail is configured.
+	 */
+	public static synchronized KeywordIndexUpdater getKeywordIndexUpdater()
 	{
-		if (luceneIndex == null)
-			return;
-		
-		ValueFactory vf = ValueFactoryImpl.getInstance();
-		
-		// remove old wiki pages from Lucene index, if any
-		List<Document> docs = luceneIndex.getDocuments(resource);
-		
-		for(Document doc : docs) {
-			String[] values = doc.getValues(WIKI.stringValue());
-			for (String value : values)
+		if (keywordIndexUpdater == null)
+		{
+			final LuceneSail luceneSail = getLuceneSail();
+			if (luceneSail == null)
+				return null;
+			keywordIndexUpdater = new KeywordIndexUpdater(luceneSail.getLuceneIndex(), "IWB Keyword Index Update", 
+					Config.getConfig().getKeywordIndexUpdateInterval())
 			{
-				Statement remove = vf.createStatement(resource, WIKI, vf.createLiteral(value));
-				luceneIndex.removeStatement(remove);
-			}
+				@Override
+				protected List<Statement> getStatements(Resource subject) throws Exception
+				{
+					// read from the base sail, the LuceneSail connection would index the statements again
+					List<Statement> res = new ArrayList<Statement>();
+					SailConnection conn = luceneSail.getBaseSail().getConnection();
+					try
+					{
+						CloseableIteration<? extends Statement, SailException> stmts = conn.getStatements(subject, null, null, false);
+						try
+						{
+							while (stmts.hasNext())
+							{
+								Statement st = luceneSail.mapStatement(stmts.next());
+								if (st != null)
+									res.add(st);
+							}
+						}
+						finally
+						{
+							stmts.close();
+						}
+					}
+					finally
+					{
+						conn.close();
+					}
+					return res;
+				}
+			};
 		}
+		return keywordIndexUpdater;
+	}
+	
+	/**
+	 * Returns the incremental updater of the keyword index over wiki pages,
+	 * or null if no LuceneSail is configured for the wiki.
+	 */
+	public static synchronized KeywordIndexUpdater getWikiIndexUpdater()
+	{
+		if (wikiIndexUpdater == null)
+		{
+			LuceneSail luceneSail = getWikiLuceneSail();
+			if (luceneSail == null)
+				return null;
+			wikiIndexUpdater = new KeywordIndexUpdater(luceneSail.getLuceneIndex(), "IWB Wiki Index Update", 
+					Config.getConfig().getKeywordIndexUpdateInterval())
+			{
+				@Override
+				protected List<Statement> getStatements(Resource subject) throws Exception
+				{
+					Statement st = subject instanceof URI ? getWikiStatement(Wikimedia.getWikiStorage(), (URI)subject) : null;
+					return st == null ? Collections.<Statement>emptyList() : Collections.singletonList(st);
+				}
+			};
+		}
+		return wikiIndexUpdater;
+	}
+	
+	/**
+	 * Returns the statement under which the current content of the given
+	 * wiki page is indexed, or null if the page does not exist.
+	 */
+	static Statement getWikiStatement(WikiStorage storage, URI uri)
+	{
+		String content = storage.getRawWikiContent(uri, null);
+		if (content == null)
+			return null;
 		
-		if(content==null)
-			return;
-
 		// filter out HTML tags from wiki content
 		content = ExtractText.html2text(content).trim();
-		
-		// add new wiki page to index
-		Statement add = vf.createStatement(resource, WIKI, vf.createLiteral(content));
-		luceneIndex.addStatement(add);
+		ValueFactory vf = ValueFactoryImpl.getInstance();
+		return vf.createStatement(uri, WIKI, vf.createLiteral(content));
 	}
 	
-	@Deprecated
+	/**
+	 * @return the time in ms since the oldest change of structured data
+	 * 			or wiki pages which is not yet reflected in the keyword index
+	 */
+	public static long getIndexingLag()
+	{
+		long lag = 0;
+		if (keywordIndexUpdater != null)
+			lag = keywordIndexUpdater.getIndexingLag();
+		if (wikiIndexUpdater != null)
+			lag = Math.max(lag, wikiIndexUpdater.getIndexingLag());
+		return lag;
+	}
+	
+	/**
+	 * @return the number of resources and wiki pages waiting for an
+	 * 			update of their keyword index entries
+	 */
+	public static int getPendingUpdates()
+	{
+		int pending = 0;
+		if (keywordIndexUpdater != null)
+			pending += keywordIndexUpdater.getPendingUpdates();
+		if (wikiIndexUpdater != null)
+			pending += wikiIndexUpdater.getPendingUpdates();
+		return pending;
+	}
+	
+	/**
+	 * Schedules an update of the keyword index entry of the given resource,
+	 * which is applied in the background.
+	 * 
+	 * @param uri
+	 */
 	public static void replaceKeywordIndexEntry(URI uri) throws Exception
 	{
-		logger.debug("KeywordIndexAPI.replaceKeywordIndexEntry(URI) is deprecated");
+		KeywordIndexUpdater updater = getKeywordIndexUpdater();
+		if (updater != null)
+			updater.update(uri);
 /*
 		SimpleFSDirectory dir = new SimpleFSDirectory(new File(Constant.keywordIndexLocation + "/keyword"));
 		
@@ -253,10 +364,17 @@ public class KeywordIndexAPI {
     	WikiSynchronizer.removeSemanticLinks(stmt);
     }
     
-    @Deprecated
+    /**
+     * Schedules an update of the keyword index entries of the given (changed
+     * or deleted) resources, which is applied in the background.
+     * 
+     * @param urisToUpdate
+     */
     public static void updateUrisInIndex(Set<URI> urisToUpdate) 
     {
-		logger.debug("KeywordIndexAPI.updateUrisInIndex(Set<URI>) is deprecated");
+		KeywordIndexUpdater updater = getKeywordIndexUpdater();
+		if (updater != null)
+			updater.update(urisToUpdate);
 /*
     	try 
     	{
@@ -296,6 +414,16 @@ public class KeywordIndexAPI {
 	 */
 	public static void shutdown()
 	{
+		synchronized (KeywordIndexAPI.class)
+		{
+			if (keywordIndexUpdater != null)
+				keywordIndexUpdater.shutdown();
+			if (wikiIndexUpdater != null)
+				wikiIndexUpdater.shutdown();
+			keywordIndexUpdater = null;
+			wikiIndexUpdater = null;
+		}
+		
 		LuceneSail luceneSail = getLuceneSail();
 		if (luceneSail != null)
 		{
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.sail.lucene.LuceneIndex;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Incremental maintenance of a Lucene keyword index. Changed subjects are
+ * collected via {@link #update(Resource)}; multiple changes of a subject are
+ * coalesced until the next batch. A background thread periodically brings
+ * the documents of the changed subjects in line with their current statements
+ * (as provided by {@link #getStatements(Resource)}) and applies all additions
+ * and removals of a batch with a single index commit, after which the readers
+ * are reopened, i.e. searches see the changes.
+ * 
+ * In contrast to a full reindex, only the documents of the changed subjects
+ * are touched, and documents that are already up to date are not rewritten.
+ */
+public abstract class KeywordIndexUpdater
+{
+	private static final Logger logger = Logger.getLogger(KeywordIndexUpdater.class.getName());
+
+	/**
+	 * Maximum number of subjects updated in one batch
+	 */
+	static final int BATCH_SIZE = 1000;
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	protected final LuceneIndex index;
+
+	/**
+	 * The subjects waiting for an update, with the time of the first change not yet indexed
+	 */
+	private final ConcurrentMap<Resource,Long> pending = new ConcurrentHashMap<Resource,Long>();
+
+	/**
+	 * The subjects of the batch currently applied, with the time of their first change
+	 */
+	private volatile Map<Resource,Long> inFlight = Collections.emptyMap();
+
+	private final ScheduledExecutorService executor;
+
+	private final AtomicLong updatedSubjects = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * @param index the index to maintain
+	 * @param name the name of the update thread
+	 * @param interval the delay in ms between two batches
+	 */
+	protected KeywordIndexUpdater(LuceneIndex index, String name, long interval)
+	{
+		this.index = index;
+		this.executor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat(name).setDaemon(true).build());
+		this.executor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					flush();
+				}
+				catch (Exception e)
+				{
+					logger.error("Keyword index update failed: " + e.getMessage(), e);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the statements of the given subject which are to be indexed.
+	 * Statements with non-literal objects are ignored.
+	 * 
+	 * @param subject
+	 * @return the current statements of the subject, empty if the subject
+	 * 			is to be removed from the index
+	 */
+	protected abstract List<Statement> getStatements(Resource subject) throws Exception;
+
+	/**
+	 * Marks the given subject for an update in the next batch.
+	 * 
+	 * @param subject
+	 */
+	public void update(Resource subject)
+	{
+		pending.putIfAbsent(subject, System.currentTimeMillis());
+	}
+
+	/**
+	 * Marks the given subjects for an update in the next batch.
+	 * 
+	 * @param subjects
+	 */
+	public void update(Collection<? extends Resource> subjects)
+	{
+		Long now = System.currentTimeMillis();
+		for (Resource subject : subjects)
+			pending.putIfAbsent(subject, now);
+	}
+
+	/**
+	 * Updates the index for all pending subjects, in batches of at
+	 * most {@link #BATCH_SIZE} subjects. If a batch fails, its subjects
+	 * are pending again, i.e. they are retried with the next flush.
+	 */
+	public synchronized void flush() throws Exception
+	{
+		while (!pending.isEmpty())
+		{
+			Map<Resource,Long> batch = new LinkedHashMap<Resource,Long>();
+			for (Resource subject : pending.keySet())
+			{
+				// removing the subject before reading its statements makes sure that
+				// a concurrent change of the subject is picked up by the next batch
+				Long time = pending.remove(subject);
+				if (time!=null)
+					batch.put(subject, time);
+				if (batch.size()>=BATCH_SIZE)
+					break;
+			}
+			inFlight = batch;
+			try
+			{
+				updateBatch(batch.keySet());
+			}
+			catch (Exception e)
+			{
+				for (Map.Entry<Resource,Long> entry : batch.entrySet())
+					reschedule(entry.getKey(), entry.getValue());
+				throw e;
+			}
+			finally
+			{
+				inFlight = Collections.emptyMap();
+			}
+		}
+	}
+
+	/**
+	 * Marks the subject of a failed batch as pending again, keeping
+	 * the time of its first change.
+	 */
+	private void reschedule(Resource subject, Long time)
+	{
+		while (true)
+		{
+			Long current = pending.putIfAbsent(subject, time);
+			if (current==null || current<=time || pending.replace(subject, current, time))
+				return;
+		}
+	}
+
+	/**
+	 * Runs the given task while no batch is applied, i.e. the task may write
+	 * to the index directly without interfering with the incremental updates.
+	 * 
+	 * @param task
+	 * @return the result of the task
+	 */
+	synchronized <T> T runExclusively(Callable<T> task) throws Exception
+	{
+		return task.call();
+	}
+
+	private void updateBatch(Collection<Resource> batch) throws Exception
+	{
+		List<Statement> added = new ArrayList<Statement>();
+		List<Statement> removed = new ArrayList<Statement>();
+		for (Resource subject : batch)
+			diff(subject, added, removed);
+
+		if (!added.isEmpty() || !removed.isEmpty())
+			index.addRemoveStatements(added, removed);
+
+		updatedSubjects.addAndGet(batch.size());
+		batches.incrementAndGet();
+		if (logger.isDebugEnabled())
+			logger.debug("Updated keyword index for " + batch.size() + " subjects (" + added.size() 
+					+ " added, " + removed.size() + " removed statements)");
+	}
+
+	/**
+	 * Computes the statements to be added to and removed from the index
+	 * for the given subject, by comparing its documents with its current
+	 * statements.
+	 */
+	private void diff(Resource subject, List<Statement> added, List<Statement> removed) throws Exception
+	{
+		Map<String,Statement> current = new HashMap<String,Statement>();
+		for (Statement st : getStatements(subject))
+		{
+			if (st.getObject() instanceof Literal && index.accept((Literal)st.getObject()))
+				current.put(key(getContextID(st.getContext()), st.getPredicate().stringValue(), 
+						((Literal)st.getObject()).getLabel()), st);
+		}
+
+		for (Document doc : index.getDocuments(subject))
+		{
+			String contextID = doc.get(LuceneIndex.CONTEXT_FIELD_NAME);
+			for (Fieldable field : index.getPropertyFields(doc.getFields()))
+			{
+				if (current.remove(key(contextID, field.name(), field.stringValue()))==null)
+					removed.add(vf.createStatement(subject, vf.createURI(field.name()), 
+							vf.createLiteral(field.stringValue()), getContext(contextID)));
+			}
+		}
+
+		added.addAll(current.values());
+	}
+
+	private static String key(String contextID, String property, String value)
+	{
+		return contextID + "\n" + property + "\n" + value;
+	}
+
+	/**
+	 * Returns the context identifier as stored in the index
+	 */
+	private static String getContextID(Resource context)
+	{
+		if (context==null)
+			return LuceneIndex.CONTEXT_NULL;
+		if (context instanceof BNode)
+			return LuceneIndex.BNODE_ID_PREFIX + ((BNode)context).getID();
+		return context.stringValue();
+	}
+
+	/**
+	 * Returns the context for the given identifier as stored in the index
+	 */
+	private static Resource getContext(String contextID)
+	{
+		if (contextID==null || contextID.equals(LuceneIndex.CONTEXT_NULL))
+			return null;
+		if (contextID.startsWith(LuceneIndex.BNODE_ID_PREFIX))
+			return vf.createBNode(contextID.substring(LuceneIndex.BNODE_ID_PREFIX.length()));
+		return vf.createURI(contextID);
+	}
+
+	/**
+	 * @return the number of subjects waiting for an update
+	 */
+	public int getPendingUpdates()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * @return the time in ms since the oldest change not yet reflected
+	 * 			in the index (including the batch currently applied), 0 if 
+	 * 			the index is up to date
+	 */
+	public long getIndexingLag()
+	{
+		long oldest = Long.MAX_VALUE;
+		for (Long time : pending.values())
+			oldest = Math.min(oldest, time);
+		for (Long time : inFlight.values())
+			oldest = Math.min(oldest, time);
+		return oldest==Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+	}
+
+	/**
+	 * @return the number of subject updates applied to the index
+	 */
+	public long getUpdatedSubjects()
+	{
+		return updatedSubjects.get();
+	}
+
+	/**
+	 * @return the number of batches applied to the index
+	 */
+	public long getBatches()
+	{
+		return batches.get();
+	}
+
+	/**
+	 * Applies the pending updates and stops the background thread.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+		try
+		{
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			flush();
+		}
+		catch (Exception e)
+		{
+			logger.warn("Could not apply pending keyword index updates: " + e.getMessage(), e);
+		}
+	}
+}
@@ -18,6 +18,7 @@
 
 package com.fluidops.iwb.keywordsearch;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,7 +30,10 @@ import org.apache.lucene.util.Version;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.sail.lucene.LuceneSail;
 
+import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.EndpointImpl;
 import com.fluidops.iwb.api.ReadDataManager;
 import com.fluidops.iwb.model.MutableTupleQueryResultImpl;
@@ -38,6 +42,11 @@ import com.fluidops.util.StringUtil;
 
 public class KeywordSearchAPI
 {
+	/**
+	 * The maximum number of matches of a keyword search, as in the default query skeletons
+	 */
+	public static final int SEARCH_LIMIT = 1000;
+
 	public static final String defaultQuerySkeleton =
 			"PREFIX search: <http://www.openrdf.org/contrib/lucenesail#> \n" +
 			"PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#> \n" +
@@ -141,6 +150,23 @@ public class KeywordSearchAPI
 	public static TupleQueryResult search(String query) throws ParseException, MalformedQueryException, QueryEvaluationException
 	{
 		String luceneQuery = normalizeLuceneQuery(query);
+		LuceneSail luceneSail = KeywordIndexAPI.getLuceneSail();
+		if (luceneSail!=null && isDefaultQuerySkeleton())
+		{
+			try
+			{
+				return LuceneKeywordSearch.search(luceneSail.getLuceneIndex(), luceneQuery, SEARCH_LIMIT, Global.repository);
+			}
+			catch (IOException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+			catch (RepositoryException e)
+			{
+				throw new QueryEvaluationException(e);
+			}
+		}
+
 		luceneQuery = StringUtil.escapeSparqlStrings(luceneQuery);
 		String sparqlQuery = Config.getConfig().getKeywordQuerySkeleton().replace("??", luceneQuery);
 
@@ -149,4 +175,22 @@ public class KeywordSearchAPI
         return new MutableTupleQueryResultImpl(res);
 	}
 
+	/**
+	 * Returns true if the keyword query skeleton is not customized, i.e. if keyword
+	 * queries over structured data can be evaluated directly on the Lucene index.
+	 */
+	static boolean isDefaultQuerySkeleton()
+	{
+		return defaultQuerySkeleton.equals(Config.getConfig().getKeywordQuerySkeleton());
+	}
+
+	/**
+	 * Returns true if the wiki query skeleton is not customized, i.e. if keyword
+	 * queries over wiki pages can be evaluated directly on the Lucene index.
+	 */
+	static boolean isDefaultWikiQuerySkeleton()
+	{
+		return defaultWikiQuerySkeleton.equals(Config.getConfig().getWikiQuerySkeleton());
+	}
+
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.keywordsearch;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.sail.lucene.LuceneIndex;
+import org.openrdf.sail.lucene.ReaderMonitor;
+
+import com.fluidops.iwb.model.MutableTupleQueryResultImpl;
+
+/**
+ * Keyword search directly on the Lucene index of a {@link org.openrdf.sail.lucene.LuceneSail},
+ * i.e. without evaluating the keyword query skeleton in the Sesame query engine.
+ * The result has the same structure as the one of the default query skeletons:
+ * one row with the bindings Subject, Property and Value (the snippet) per matching
+ * property of a hit, ordered by score, joined with the types of the subject.
+ * 
+ * In contrast to the SPARQL evaluation, the hits are fetched page by page until
+ * the requested number of rows is reached, snippets are only computed for these
+ * hits, and the types of all subjects are resolved in one pass over a single
+ * repository connection.
+ */
+public class LuceneKeywordSearch
+{
+	private static final Logger logger = Logger.getLogger(LuceneKeywordSearch.class.getName());
+
+	/**
+	 * Number of hits fetched from the index at once
+	 */
+	static final int PAGE_SIZE = 100;
+
+	/**
+	 * Maximum number of fragments per snippet (as in the LuceneSail)
+	 */
+	private static final int MAX_FRAGMENTS = 2;
+
+	private static final List<String> BINDING_NAMES = Arrays.asList("Subject", "Property", "Value", "Type");
+
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+	/**
+	 * Searches the given index and resolves the types of the hits in the given repository.
+	 * 
+	 * @param index the Lucene index of the LuceneSail
+	 * @param query the (normalized) Lucene query
+	 * @param limit the maximum number of matching properties, i.e. of rows before the type join
+	 * @param typeRepository the repository used to resolve the types of the subjects, may be null
+	 * @return the search result with the bindings Subject, Property, Value and Type
+	 */
+	public static TupleQueryResult search(LuceneIndex index, String query, int limit, Repository typeRepository)
+			throws ParseException, IOException, RepositoryException
+	{
+		List<Match> matches = findMatches(index, query, limit);
+		Map<Resource, List<Value>> types = resolveTypes(typeRepository, matches);
+		return toResult(matches, types, null);
+	}
+
+	/**
+	 * Searches the given index, using the same type for all hits.
+	 * 
+	 * @param index the Lucene index of the LuceneSail
+	 * @param query the (normalized) Lucene query
+	 * @param limit the maximum number of matching properties, i.e. of rows
+	 * @param type the value bound to Type in all rows
+	 * @return the search result with the bindings Subject, Property, Value and Type
+	 */
+	public static TupleQueryResult search(LuceneIndex index, String query, int limit, Value type)
+			throws ParseException, IOException
+	{
+		return toResult(findMatches(index, query, limit), Collections.<Resource, List<Value>>emptyMap(), type);
+	}
+
+	/**
+	 * Runs the query on the index and returns the matching properties of the
+	 * hits with their snippets, ordered by score.
+	 */
+	static List<Match> findMatches(LuceneIndex index, String query, int limit)
+			throws ParseException, IOException
+	{
+		Query q = index.parseQuery(query, null);
+		Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter(), new QueryScorer(q));
+		List<Match> res = new ArrayList<Match>();
+
+		// a concurrent commit may replace the current monitor, hence we retry until
+		// the searcher belongs to the monitor for which reading has begun
+		ReaderMonitor monitor;
+		IndexSearcher searcher;
+		while (true)
+		{
+			monitor = index.getCurrentMonitor();
+			monitor.beginReading();
+			try
+			{
+				searcher = index.getIndexSearcher();
+			}
+			catch (IOException e)
+			{
+				monitor.endReading();
+				throw e;
+			}
+			if (index.getCurrentMonitor()==monitor)
+				break;
+			monitor.endReading();
+		}
+		
+		try
+		{
+			ScoreDoc last = null;
+			while (res.size() < limit)
+			{
+				TopDocs docs = last==null ? searcher.search(q, PAGE_SIZE) : searcher.searchAfter(last, q, PAGE_SIZE);
+				for (ScoreDoc scoreDoc : docs.scoreDocs)
+				{
+					addMatches(index, searcher.doc(scoreDoc.doc), highlighter, res, limit);
+					if (res.size() >= limit)
+						break;
+				}
+				if (docs.scoreDocs.length < PAGE_SIZE)
+					break;
+				last = docs.scoreDocs[docs.scoreDocs.length-1];
+			}
+		}
+		finally
+		{
+			monitor.endReading();
+		}
+		return res;
+	}
+
+	/**
+	 * Adds one match per property of the document for which a snippet can be
+	 * computed, i.e. which matches the query.
+	 */
+	private static void addMatches(LuceneIndex index, Document doc, Highlighter highlighter,
+			List<Match> res, int limit)
+	{
+		Resource subject = index.getResource(doc);
+		for (Fieldable field : index.getPropertyFields(doc.getFields()))
+		{
+			String text = field.stringValue();
+			String snippet;
+			try
+			{
+				snippet = highlighter.getBestFragments(
+						index.getAnalyzer().tokenStream(field.name(), new StringReader(text)), 
+						text, MAX_FRAGMENTS, "...");
+			}
+			catch (Exception e)
+			{
+				logger.error("Could not compute snippet for field " + field.name() + ": " + e.getMessage(), e);
+				continue;
+			}
+			if (snippet==null || snippet.isEmpty())
+				continue;
+
+			res.add(new Match(subject, vf.createURI(field.name()), vf.createLiteral(snippet)));
+			if (res.size() >= limit)
+				return;
+		}
+	}
+
+	/**
+	 * Resolves the (explicit) types of the distinct subjects of the matches
+	 * using a single connection.
+	 */
+	private static Map<Resource, List<Value>> resolveTypes(Repository repository, List<Match> matches)
+			throws RepositoryException
+	{
+		Map<Resource, List<Value>> res = new LinkedHashMap<Resource, List<Value>>();
+		if (repository==null || matches.isEmpty())
+			return res;
+
+		RepositoryConnection conn = repository.getConnection();
+		try
+		{
+			for (Match match : matches)
+			{
+				if (res.containsKey(match.subject))
+					continue;
+				List<Value> types = new ArrayList<Value>();
+				RepositoryResult<Statement> stmts = conn.getStatements(match.subject, RDF.TYPE, null, false);
+				try
+				{
+					while (stmts.hasNext())
+						types.add(stmts.next().getObject());
+				}
+				finally
+				{
+					stmts.close();
+				}
+				res.put(match.subject, types);
+			}
+		}
+		finally
+		{
+			conn.close();
+		}
+		return res;
+	}
+
+	/**
+	 * Joins the matches with the types, analogously to an OPTIONAL type pattern
+	 * (or a fixed type, if given).
+	 */
+	private static TupleQueryResult toResult(List<Match> matches, Map<Resource, List<Value>> types, Value fixedType)
+	{
+		List<BindingSet> rows = new ArrayList<BindingSet>();
+		for (Match match : matches)
+		{
+			List<Value> matchTypes = fixedType!=null ? Collections.singletonList(fixedType) : types.get(match.subject);
+			if (matchTypes==null || matchTypes.isEmpty())
+				rows.add(match.toBindingSet(null));
+			else
+				for (Value type : matchTypes)
+					rows.add(match.toBindingSet(type));
+		}
+		return new MutableTupleQueryResultImpl(BINDING_NAMES, rows);
+	}
+
+	/**
+	 * A property of a hit which matches the query
+	 */
+	static class Match
+	{
+		final Resource subject;
+		final Value property;
+		final Value snippet;
+
+		Match(Resource subject, Value property, Value snippet)
+		{
+			this.subject = subject;
+			this.property = property;
+			this.snippet = snippet;
+		}
+
+		BindingSet toBindingSet(Value type)
+		{
+			MapBindingSet bs = new MapBindingSet(4);
+			bs.addBinding("Subject", subject);
+			bs.addBinding("Property", property);
+			bs.addBinding("Value", snippet);
+			if (type!=null)
+				bs.addBinding("Type", type);
+			return bs;
+		}
+	}
+}
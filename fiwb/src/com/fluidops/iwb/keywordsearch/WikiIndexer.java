@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.keywordsearch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.sail.lucene.LuceneIndex;
+import org.openrdf.sail.lucene.LuceneSail;
+
+import com.fluidops.iwb.wiki.WikiStorage;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bulk (re-)indexing of all wiki pages. The pages are processed in order of
+ * their URIs and in batches: while a batch is written to the index, the
+ * pages of the next batch are read and converted to text in parallel. All
+ * writes go through the single index writer of the {@link LuceneIndex},
+ * which is committed once per batch. After each commit, the last indexed
+ * page is recorded in a checkpoint file, such that an interrupted run
+ * (e.g. by a crash) continues after the last committed batch instead
+ * of starting from scratch. Batches are written while no incremental update
+ * of the {@link KeywordIndexUpdater} is applied.
+ */
+public class WikiIndexer
+{
+	private static final Logger logger = Logger.getLogger(WikiIndexer.class.getName());
+
+	/**
+	 * Number of pages per commit
+	 */
+	static final int BATCH_SIZE = 500;
+
+	private static final String LAST_URI = "lastURI";
+
+	private final LuceneSail luceneSail;
+
+	private final WikiStorage storage;
+
+	private final File checkpointFile;
+
+	/**
+	 * The previous checkpoint while the checkpoint file is replaced
+	 */
+	private final File backupFile;
+
+	private final int nThreads;
+
+	private final KeywordIndexUpdater updater;
+
+	/**
+	 * @param luceneSail the LuceneSail of the wiki index
+	 * @param storage the wiki storage to index
+	 * @param checkpointFile the file in which the progress is recorded
+	 * @param nThreads the number of threads reading and converting pages
+	 * @param updater the incremental updater of the wiki index, may be null
+	 */
+	public WikiIndexer(LuceneSail luceneSail, WikiStorage storage, File checkpointFile, int nThreads, 
+			KeywordIndexUpdater updater)
+	{
+		this.luceneSail = luceneSail;
+		this.storage = storage;
+		this.checkpointFile = checkpointFile;
+		this.backupFile = new File(checkpointFile.getPath() + ".bak");
+		this.nThreads = nThreads;
+		this.updater = updater;
+	}
+
+	/**
+	 * @return true if a previous run was interrupted, i.e. {@link #run()} resumes it
+	 */
+	public boolean hasCheckpoint()
+	{
+		return checkpointFile.exists() || backupFile.exists();
+	}
+
+	/**
+	 * Indexes all wiki pages. If a previous run was interrupted, only the pages
+	 * after the last committed batch are indexed, otherwise the index is cleared
+	 * first.
+	 * 
+	 * @return the number of pages indexed in this run
+	 */
+	public int run() throws Exception
+	{
+		String lastURI = readCheckpoint();
+		if (lastURI == null)
+		{
+			luceneSail.reindex();
+			writeCheckpoint("");
+			lastURI = "";
+		}
+		else
+			logger.info("Resuming wiki indexing after " + lastURI);
+
+		List<URI> uris = new ArrayList<URI>();
+		for (URI uri : storage.getAllWikiURIs())
+		{
+			if (uri.stringValue().compareTo(lastURI) > 0)
+				uris.add(uri);
+		}
+		Collections.sort(uris, new Comparator<URI>()
+		{
+			@Override
+			public int compare(URI u1, URI u2)
+			{
+				return u1.stringValue().compareTo(u2.stringValue());
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads, 
+				new ThreadFactoryBuilder().setNameFormat("IWB Wiki Indexer %d").setDaemon(true).build());
+		try
+		{
+			List<Future<Statement>> batch = submit(executor, uris, 0);
+			for (int start = 0; start < uris.size(); start += BATCH_SIZE)
+			{
+				// read the next batch while writing the current one
+				List<Future<Statement>> next = submit(executor, uris, start + BATCH_SIZE);
+				write(uris.subList(start, Math.min(start + BATCH_SIZE, uris.size())), batch);
+				batch = next;
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		// make the changes visible to searches
+		luceneSail.getLuceneIndex().addRemoveStatements(Collections.<Statement>emptyList(), Collections.<Statement>emptyList());
+		if (!checkpointFile.delete())
+			logger.warn("Could not delete checkpoint file " + checkpointFile);
+		if (backupFile.exists() && !backupFile.delete())
+			logger.warn("Could not delete checkpoint file " + backupFile);
+		logger.info("Indexed " + uris.size() + " wiki pages");
+		return uris.size();
+	}
+
+	/**
+	 * Submits the conversion of the pages of the batch starting at the given position
+	 */
+	private List<Future<Statement>> submit(ExecutorService executor, List<URI> uris, int start)
+	{
+		List<Future<Statement>> res = new ArrayList<Future<Statement>>();
+		for (int i = start; i < Math.min(start + BATCH_SIZE, uris.size()); i++)
+		{
+			final URI uri = uris.get(i);
+			res.add(executor.submit(new Callable<Statement>()
+			{
+				@Override
+				public Statement call() throws Exception
+				{
+					return KeywordIndexAPI.getWikiStatement(storage, uri);
+				}
+			}));
+		}
+		return res;
+	}
+
+	/**
+	 * Replaces the documents of the given pages, commits and records the checkpoint.
+	 * Concurrent incremental updates are blocked until the batch is committed.
+	 */
+	private void write(final List<URI> uris, final List<Future<Statement>> statements) throws Exception
+	{
+		Callable<Void> task = new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				LuceneIndex index = luceneSail.getLuceneIndex();
+				// the same lock as for the statement updates of the index
+				synchronized (index)
+				{
+					writeBatch(index, uris, statements);
+				}
+				return null;
+			}
+		};
+		if (updater != null)
+			updater.runExclusively(task);
+		else
+			task.call();
+		writeCheckpoint(uris.get(uris.size()-1).stringValue());
+	}
+
+	private void writeBatch(LuceneIndex index, List<URI> uris, List<Future<Statement>> statements) throws Exception
+	{
+		IndexWriter writer = index.getIndexWriter();
+		for (int i = 0; i < uris.size(); i++)
+		{
+			URI uri = uris.get(i);
+			Statement st;
+			try
+			{
+				st = statements.get(i).get();
+			}
+			catch (Exception e)
+			{
+				logger.warn("Could not index wiki page " + uri + ": " + e.getMessage(), e);
+				continue;
+			}
+
+			// documents of a batch that was written but not checkpointed before an interruption
+			writer.deleteDocuments(new Term(LuceneIndex.URI_FIELD_NAME, uri.stringValue()));
+			if (st != null)
+				index.addDocuments(uri, Collections.singletonList(st));
+		}
+		writer.commit();
+	}
+
+	/**
+	 * Reads the checkpoint, falling back to the previous one if the
+	 * checkpoint file was not replaced completely.
+	 */
+	private String readCheckpoint() throws IOException
+	{
+		File file = checkpointFile.exists() ? checkpointFile : backupFile;
+		if (!file.exists())
+			return null;
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			props.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		return props.getProperty(LAST_URI, "");
+	}
+
+	/**
+	 * Writes the checkpoint to a temporary file first, such that an interruption
+	 * while writing does not leave an incomplete checkpoint. The temporary file
+	 * is renamed over the checkpoint file. Where this is not supported, the
+	 * previous checkpoint is kept as backup until the new one is in place.
+	 */
+	private void writeCheckpoint(String lastURI) throws IOException
+	{
+		Properties props = new Properties();
+		props.setProperty(LAST_URI, lastURI);
+		File tmp = new File(checkpointFile.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try
+		{
+			props.store(out, "Progress of the wiki indexing");
+		}
+		finally
+		{
+			out.close();
+		}
+		if (tmp.renameTo(checkpointFile))
+			return;
+		if (backupFile.exists() && !backupFile.delete())
+			throw new IOException("Could not delete checkpoint file " + backupFile);
+		if (checkpointFile.exists() && !checkpointFile.renameTo(backupFile))
+			throw new IOException("Could not replace checkpoint file " + checkpointFile);
+		if (!tmp.renameTo(checkpointFile))
+			throw new IOException("Could not write checkpoint file " + checkpointFile);
+		if (!backupFile.delete())
+			logger.warn("Could not delete checkpoint file " + backupFile);
+	}
+}
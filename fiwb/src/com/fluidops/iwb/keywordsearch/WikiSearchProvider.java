@@ -21,11 +21,14 @@ package com.fluidops.iwb.keywordsearch;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
 import org.openrdf.model.Value;
+import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.QueryResult;
 import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.impl.GraphQueryResultImpl;
+import org.openrdf.sail.lucene.LuceneSail;
 
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.ReadDataManager;
@@ -40,12 +43,17 @@ import com.fluidops.util.StringUtil;
 /**
  * Search provider implementation for the Wiki indexing repository. 
  * Only processes SPARQL SELECT queries, transforms keyword queries to SPARQL using the wikiQuerySkeleton parameter. 
+ * If the default wiki query skeleton is used, keyword queries are evaluated directly on the Lucene index instead.
  * 
  * @author andriy.nikolov
  *
  */
 public class WikiSearchProvider extends AbstractSparqlSearchProvider implements KeywordSearchProvider {
 	
+	/**
+	 * The type of all hits, as bound in the default wiki query skeleton
+	 */
+	private static final Literal WIKI_PAGE_TYPE = ValueFactoryImpl.getInstance().createLiteral("Wiki page");
 	
 	
 	@Override
@@ -53,6 +61,12 @@ public class WikiSearchProvider extends AbstractSparqlSearchProvider implements
 	{
 		String luceneQuery = null;
 		luceneQuery = KeywordSearchAPI.normalizeLuceneQuery(keywordString);
+
+		LuceneSail luceneSail = KeywordIndexAPI.getWikiLuceneSail();
+		if (luceneSail!=null && KeywordSearchAPI.isDefaultWikiQuerySkeleton())
+			return LuceneKeywordSearch.search(luceneSail.getLuceneIndex(), luceneQuery, 
+					KeywordSearchAPI.SEARCH_LIMIT, WIKI_PAGE_TYPE);
+
 		luceneQuery = StringUtil.escapeSparqlStrings(luceneQuery);
 		
 		String querySkeleton = Config.getConfig().getWikiQuerySkeleton();
@@ -20,14 +20,26 @@ package com.fluidops.iwb.monitoring;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringEscapeUtils;
 
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.Version;
+import com.fluidops.iwb.api.CacheManager;
 import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
+import com.fluidops.iwb.keywordsearch.KeywordIndexAPI;
 import com.fluidops.iwb.monitoring.SystemStateInfo.State;
 import com.fluidops.iwb.util.SQL;
 import com.fluidops.iwb.util.SQL.SQLType;
+import com.fluidops.iwb.widget.WidgetRenderer;
+import com.fluidops.iwb.widget.WidgetRenderer.WidgetTiming;
+import com.google.common.cache.CacheStats;
 
 
 /**
@@ -152,8 +164,66 @@ public enum SystemStateFeature {
 		boolean info() {
 			return SQL.isWritable(SQLType.MYSQL);
 		}
+	},
+	
+	CACHE_STATISTICS("Repository caches (hit rate, evictions)") {
+		@Override
+		public SystemStateInfo state() {
+			StringBuilder details = new StringBuilder();
+			for (Map.Entry<String,CacheStats> stats : CacheManager.getInstance().getCacheStatistics(null).entrySet()) {
+				if (stats.getValue().requestCount()==0)
+					continue;
+				if (details.length()>0)
+					details.append("<br/>");
+				details.append(StringEscapeUtils.escapeHtml(stats.getKey())).append(": ")
+					.append(Math.round(stats.getValue().hitRate()*100)).append("% of ")
+					.append(stats.getValue().requestCount()).append(", ")
+					.append(stats.getValue().evictionCount()).append(" evicted");
+			}
+			if (details.length()==0)
+				return SystemStateInfo.createNotApplicable(this);
+			return SystemStateInfo.create(this, State.NOT_APPLICABLE, details.toString());
+		}
+	},
+	
+	KEYWORD_INDEX_LAG("Keyword index (changes not yet searchable)") {
+		@Override
+		public SystemStateInfo state() {
+			if (KeywordIndexAPI.getKeywordIndexUpdater()==null && KeywordIndexAPI.getWikiIndexUpdater()==null)
+				return SystemStateInfo.createNotApplicable(this);
+			return SystemStateInfo.create(this, State.NOT_APPLICABLE, KeywordIndexAPI.getPendingUpdates() 
+					+ " pending, lag " + KeywordIndexAPI.getIndexingLag() + " ms");
+		}
+	},
+	
+	WIDGET_RENDERING("Slowest widgets (average build time)") {
+		@Override
+		public SystemStateInfo state() {
+			List<Map.Entry<String,WidgetTiming>> timings = 
+					new ArrayList<Map.Entry<String,WidgetTiming>>(WidgetRenderer.getInstance().getStatistics().entrySet());
+			if (timings.isEmpty())
+				return SystemStateInfo.createNotApplicable(this);
+			Collections.sort(timings, new Comparator<Map.Entry<String,WidgetTiming>>() {
+				@Override
+				public int compare(Map.Entry<String,WidgetTiming> t1, Map.Entry<String,WidgetTiming> t2) {
+					return Long.valueOf(t2.getValue().getAverageTime()).compareTo(t1.getValue().getAverageTime());
+				}
+			});
+			StringBuilder details = new StringBuilder();
+			for (Map.Entry<String,WidgetTiming> timing : timings.subList(0, Math.min(SLOWEST_WIDGETS, timings.size()))) {
+				if (details.length()>0)
+					details.append("<br/>");
+				details.append(StringEscapeUtils.escapeHtml(timing.getKey())).append(": ").append(timing.getValue());
+			}
+			return SystemStateInfo.create(this, State.NOT_APPLICABLE, details.toString());
+		}
 	};
 	
+	/**
+	 * Number of widget classes shown for {@link #WIDGET_RENDERING}
+	 */
+	private static final int SLOWEST_WIDGETS = 5;
+	
 	SystemStateFeature(String keyString) {
 		this.keyString = keyString;
 	}
@@ -288,6 +288,12 @@ public abstract class AbstractFlexProvider<T extends Serializable> implements Po
      */
     public Long pollInterval;
     
+    /**
+     * for lookup providers: time in ms a page waits for the lookup if no data is
+     * cached for the page yet, null for the default (see Config lookupProviderTimeout)
+     */
+    public Long lookupTimeout;
+    
     /**
      * currently running
      */
@@ -303,6 +309,11 @@ public abstract class AbstractFlexProvider<T extends Serializable> implements Po
      */
     public Long lastDuration;
     
+    /**
+     * duration of writing the data of the last update to the repository
+     */
+    public Long lastWriteDuration;
+    
     /**
      * last error msg
      */
@@ -23,22 +23,27 @@ import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
+import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
+import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
 import org.openrdf.model.vocabulary.XMLSchema;
-import org.openrdf.query.BindingSet;
-import org.openrdf.query.QueryLanguage;
-import org.openrdf.query.TupleQuery;
-import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryResult;
 import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.sail.inferencer.fc.ForwardChainingRDFSInferencer;
@@ -49,15 +54,23 @@ import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.model.ParameterConfigDoc;
 import com.fluidops.iwb.model.TypeConfigDoc;
 import com.fluidops.iwb.provider.TableProvider.Table;
+import com.fluidops.iwb.util.CSVReader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * code to parse CSV
- * TODO: escaping, possible first row does not contain headers
+ * 
+ * The file is read in a streaming fashion (with quoting according to RFC 4180),
+ * the column properties and ranges are looked up once in the schema, and the
+ * rows are converted to statements in parallel chunks. Memory usage is thus
+ * independent of the file size.
+ * 
+ * TODO: possible first row does not contain headers
  * 
  * @author aeb
  */
 @TypeConfigDoc( "Import data in Comma Seperated Values format" )
-public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
+public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config> implements StreamingProvider
 {
 	/**
 	 * 
@@ -66,6 +79,11 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
 
 	private static final Logger logger = Logger.getLogger(CSVProvider.class.getName());
 	
+	/**
+	 * Number of rows converted per task
+	 */
+	private static final int CHUNK_SIZE = 5000;
+	
 	Map<String, URI> properties = new HashMap<String,URI>();
 	Map<String, URI> ranges = new HashMap<String,URI>();
 	
@@ -86,7 +104,7 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
 				required = true)
 		public String schema;
 
-		@ParameterConfigDoc(desc = "separator")
+		@ParameterConfigDoc(desc = "separator, a single character (default: ;)")
 		public String separator;
 
 		@ParameterConfigDoc(
@@ -113,7 +131,86 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
     
     public void gather(List<Statement> stmts) throws Exception
     {
-
+    	gather(ProviderUtils.listSink(stmts));
+    }
+    
+    @Override
+    public void gather(final StatementSink sink) throws Exception
+    {
+    	if(config.separator==null) config.separator=";";
+    	char separator = getSeparator(config.separator);
+    	
+    	CSVReader in = new CSVReader(new BufferedReader(new FileReader(new File(config.filename))), separator);
+    	int nThreads = Runtime.getRuntime().availableProcessors();
+    	ExecutorService executor = Executors.newFixedThreadPool(nThreads, 
+    			new ThreadFactoryBuilder().setNameFormat("CSVProvider %d").setDaemon(true).build());
+    	try {
+    		List<String> collabels = in.readRow();
+    		if (collabels==null)
+    			return; // empty file
+    		
+    		String defaultNS = EndpointImpl.api().getNamespaceService().defaultNamespace();
+    		final RowConverter converter = new RowConverter(collabels, defaultNS);
+    		
+    		// convert the rows chunk by chunk, with a bounded number of chunks
+    		// in memory (waiting for the oldest if necessary)
+    		LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+    		List<List<String>> chunk = new ArrayList<List<String>>(CHUNK_SIZE);
+    		List<String> row;
+    		while ((row = in.readRow())!=null)
+    		{
+    			chunk.add(row);
+    			if (chunk.size()<CHUNK_SIZE)
+    				continue;
+    			
+    			if (pending.size()>=2*nThreads)
+    				waitFor(pending.removeFirst());
+    			pending.add(executor.submit(converter.task(chunk, sink)));
+    			chunk = new ArrayList<List<String>>(CHUNK_SIZE);
+    		}
+    		if (!chunk.isEmpty())
+    			pending.add(executor.submit(converter.task(chunk, sink)));
+    		
+    		for (Future<?> f : pending)
+    			waitFor(f);
+    	}
+    	finally {
+    		executor.shutdownNow();
+    		in.close();
+    	}
+    }
+    
+    private static void waitFor(Future<?> f) throws Exception
+    {
+    	try
+    	{
+    		f.get();
+    	}
+    	catch (ExecutionException e)
+    	{
+    		if (e.getCause() instanceof Exception)
+    			throw (Exception)e.getCause();
+    		throw e;
+    	}
+    }
+    
+    private static char getSeparator(String separator)
+    {
+    	if ("\\t".equals(separator))
+    		return '\t';
+    	if (separator.length()!=1)
+    		throw new IllegalArgumentException("Separator must be a single character: " + separator);
+    	return separator.charAt(0);
+    }
+    
+    /**
+     * Looks up the property and range of the given column labels in the
+     * schema, using a single pass over the rdfs:label statements. Columns
+     * not defined in the schema are mapped to a property in the default
+     * namespace with range xsd:string.
+     */
+    private void lookupColumns(List<String> collabels, String defaultNS) throws Exception
+    {
     	Repository schema = new SailRepository(new ForwardChainingRDFSInferencer(new MemoryStore()));
     	schema.initialize();
     	
@@ -121,77 +218,136 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
     	try {
 	    	con.add(new File(config.schema), null, RDFFormat.RDFXML);
 	    	
-	    	BufferedReader  in = new BufferedReader(new FileReader(new File(config.filename)));
+	    	Map<String,URI> schemaProperties = new HashMap<String,URI>();
+	    	Map<String,URI> schemaRanges = new HashMap<String,URI>();
+	    	RepositoryResult<Statement> labels = con.getStatements(null, RDFS.LABEL, null, true);
+	    	try {
+	    		while (labels.hasNext()) {
+	    			Statement st = labels.next();
+	    			if (!(st.getSubject() instanceof URI) || !isPlainLiteral(st.getObject()))
+	    				continue;
+	    			String label = st.getObject().stringValue();
+	    			if (schemaProperties.containsKey(label) || !collabels.contains(label))
+	    				continue;
+	    			RepositoryResult<Statement> range = con.getStatements(st.getSubject(), RDFS.RANGE, null, true);
+	    			try {
+	    				while (range.hasNext()) {
+	    					Value r = range.next().getObject();
+	    					if (r instanceof URI) {
+	    						schemaProperties.put(label, (URI)st.getSubject());
+	    						schemaRanges.put(label, (URI)r);
+	    						break;
+	    					}
+	    				}
+	    			}
+	    			finally {
+	    				range.close();
+	    			}
+	    		}
+	    	}
+	    	finally {
+	    		labels.close();
+	    	}
 	    	
-	    	if(config.separator==null) config.separator=";";
-	        Table table = getTable(in, config.separator);
-	        ValueFactory f = new ValueFactoryImpl();
-	
-	        URI property = null;
-	    	URI range = null;
-	
-	    	String defaultNS = EndpointImpl.api().getNamespaceService().defaultNamespace();
-	        for(String collabel:table.collabels) {
-	            property = null;
-	        	range = null;
-	        	TupleQuery query = con.prepareTupleQuery(QueryLanguage.SPARQL, 
-	        			"SELECT ?prop ?range WHERE { ?prop <http://www.w3.org/2000/01/rdf-schema#label> \""+collabel+"\" . ?prop <http://www.w3.org/2000/01/rdf-schema#range> ?range }");
-	        	TupleQueryResult result = query.evaluate();
-	        	if(result.hasNext()) {
-	        		BindingSet binding = result.next();
-	        		property = (URI)binding.getBinding("prop").getValue();
-	        		range = (URI)binding.getBinding("range").getValue();
-	        	}	
+	    	ValueFactory f = ValueFactoryImpl.getInstance();
+	    	for(String collabel:collabels) {
+	    		URI property = schemaProperties.get(collabel);
+	    		URI range = schemaRanges.get(collabel);
 	        	if(property==null)
 	        		property = f.createURI(defaultNS+collabel);
 	        	if(range==null)
 	        		range = XMLSchema.STRING;
 	        	properties.put(collabel, property);
 	        	ranges.put(collabel, range);
-	        }
-	    	
-	        for ( List<String> row : table.values )
-	        {
-	        	if(row.size()==0) continue; //sometimes rows are empty
-	        	
-	        	int colnum=0;
-	        	URI subject = null;
-	        	
-	        	//we assume we have a composite key. The first column is always part of the key. Optionally there may be more columns part of the key
-	        	StringBuilder key = new StringBuilder(row.get(0));
-	        	for(int i=1;i<config.keycolumns;i++) {
-	        		key.append("_");
-	        		key.append(row.get(i));
-	        	}
-	       		subject = f.createURI(defaultNS+key.toString()); // the first two columns are key
-	        	stmts.add(ReadDataManagerImpl.s(subject, RDF.TYPE, config.type));
-	       	
-	        	
-	            for ( String c : row ) {
-	            	if(colnum>=table.collabels.size()) {
-	            		logger.warn("Error in row: "+ row);
-	            		continue;
-	            	}
-	            	String colname = table.collabels.get(colnum++);
-	            	
-	            	if(c.isEmpty()) continue;
-	            	
-	            	property = properties.get(colname);
-	            	range = ranges.get(colname);
-	            	if(range.stringValue().startsWith("http://www.w3.org/2001/XMLSchema#"))
-	            	    stmts.add(ReadDataManagerImpl.s(subject, property, f.createLiteral(c)));
-	            	else {
-	            	    
-	            		URI object = f.createURI(defaultNS+c);
-	            		stmts.add(ReadDataManagerImpl.s(subject, property,object ));
-	            		stmts.add(ReadDataManagerImpl.s(object, RDF.TYPE, range));
-	            	}
-	            }
-	            
-	        }
+	    	}
     	}
     	finally {
     		con.close();
+    		schema.shutDown();
+    	}
+    }
+    
+    private static boolean isPlainLiteral(Value v)
+    {
+    	return v instanceof Literal && ((Literal)v).getLanguage()==null && ((Literal)v).getDatatype()==null;
+    }
+    
+    /**
+     * Converts rows to statements, using the column mapping which is
+     * computed once in the constructor. Thread safe.
+     */
+    private class RowConverter
+    {
+    	private final String defaultNS;
+    	private final List<String> collabels;
+    	private final URI[] colProperties;
+    	private final URI[] colRanges;
+    	private final boolean[] colLiteral;
+    	
+    	private RowConverter(List<String> collabels, String defaultNS) throws Exception
+    	{
+    		this.defaultNS = defaultNS;
+    		this.collabels = collabels;
+    		lookupColumns(collabels, defaultNS);
+    		
+    		int n = collabels.size();
+    		colProperties = new URI[n];
+    		colRanges = new URI[n];
+    		colLiteral = new boolean[n];
+    		for (int i=0; i<n; i++) {
+    			colProperties[i] = properties.get(collabels.get(i));
+    			colRanges[i] = ranges.get(collabels.get(i));
+    			colLiteral[i] = colRanges[i].stringValue().startsWith("http://www.w3.org/2001/XMLSchema#");
+    		}
+    	}
+    	
+    	private Runnable task(final List<List<String>> rows, final StatementSink sink)
+    	{
+    		return new Runnable()
+    		{
+    			@Override
+    			public void run()
+    			{
+    				for (List<String> row : rows)
+    					convert(row, sink);
+    			}
+    		};
+    	}
+    	
+    	private void convert(List<String> row, StatementSink sink)
+    	{
+        	if(row.size()<Math.max(config.keycolumns, 1)) {
+        		logger.warn("Row without key columns: "+ row);
+        		return;
+        	}
+        	
+        	ValueFactory f = ValueFactoryImpl.getInstance();
+        	
+        	//we assume we have a composite key. The first column is always part of the key. Optionally there may be more columns part of the key
+        	StringBuilder key = new StringBuilder(row.get(0));
+        	for(int i=1;i<config.keycolumns;i++) {
+        		key.append("_");
+        		key.append(row.get(i));
+        	}
+       		URI subject = f.createURI(defaultNS+key.toString()); // the first two columns are key
+       		sink.add(ReadDataManagerImpl.s(subject, RDF.TYPE, config.type));
+       		
+       		if(row.size()>collabels.size())
+       			logger.warn("Error in row: "+ row);
+       		
+       		int n = Math.min(row.size(), collabels.size());
+       		for (int colnum=0; colnum<n; colnum++) {
+       			String c = row.get(colnum);
+       			if(c.isEmpty()) continue;
+       			
+       			if(colLiteral[colnum])
+       				sink.add(ReadDataManagerImpl.s(subject, colProperties[colnum], f.createLiteral(c)));
+       			else {
+       				URI object = f.createURI(defaultNS+c);
+       				sink.add(ReadDataManagerImpl.s(subject, colProperties[colnum], object));
+       				sink.add(ReadDataManagerImpl.s(object, RDF.TYPE, colRanges[colnum]));
+       			}
+       		}
     	}
     }
         
@@ -203,28 +359,13 @@ public class CSVProvider extends AbstractFlexProvider<CSVProvider.Config>
     public Table getTable( BufferedReader csv, String separator ) throws Exception
     {
         Table table = new Table();
-        boolean isFirst = true;
-        String l;
-        while ((l = csv.readLine())!=null)
-        {
-        	
-            l = l.trim();
-            if ( l.length() == 0 )
-                continue;
-            List<String> row = new ArrayList<String>();
-            for ( String v : l.split( separator ) ) {
-            	if(v.startsWith("\"")) v=v.substring(1);
-            	if(v.endsWith("\"")) v=v.substring(0,v.length()-1);
-                row.add( v );
-            }
-            if ( isFirst )
-            {
-                isFirst = false;
-                table.collabels = row;
-            }
-            else
-                table.values.add( row );
-        }
+        CSVReader in = new CSVReader(csv, getSeparator(separator));
+        table.collabels = in.readRow();
+        if (table.collabels==null)
+        	table.collabels = new ArrayList<String>();
+        List<String> row;
+        while ((row = in.readRow())!=null)
+        	table.values.add( row );
         return table;
     }
 
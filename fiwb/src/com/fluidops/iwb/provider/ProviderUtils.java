@@ -697,4 +697,29 @@ public class ProviderUtils
 			}
 		}
 	}
+	
+	/**
+	 * Returns a statement sink appending the statements to the given list,
+	 * which can be used to implement the list based gather method for a
+	 * {@link StreamingProvider}.
+	 * 
+	 * @param res the list where to append the statements
+	 * @return
+	 */
+	public static StatementSink listSink(final List<Statement> res)
+	{
+		return new StatementSink()
+		{
+			@Override
+			public void add(Statement stmt)
+			{
+				if (stmt==null)
+					return;
+				synchronized (res)
+				{
+					res.add(stmt);
+				}
+			}
+		};
+	}
 }
@@ -25,17 +25,18 @@ import java.io.Serializable;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipInputStream;
 
 import org.apache.log4j.Logger;
 import org.openrdf.model.Statement;
 import org.openrdf.model.impl.ValueFactoryImpl;
-import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
-import org.openrdf.repository.sail.SailRepository;
 import org.openrdf.rio.RDFFormat;
-import org.openrdf.sail.memory.MemoryStore;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
 import org.xeustechnologies.jtar.TarInputStream;
 
 import com.fluidops.iwb.Global;
@@ -46,7 +47,7 @@ import fr.inria.rdfa.RDFaParser;
 
 @TypeConfigDoc( "Reads RDF data from a web document in any RDF format to store the data unmodified locally."+ 
 		"The source data may also be compressed in .zip, .gz or .tar.gz format." )
-public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
+public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config> implements StreamingProvider
 {
 	private static final long serialVersionUID = 7415666290518242634L;
 
@@ -73,6 +74,12 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
 	
 	@Override
 	public void gather(final List<Statement> res) throws Exception
+	{
+		gather(ProviderUtils.listSink(res));
+	}
+	
+	@Override
+	public void gather(final StatementSink sink) throws Exception
 	{
 	    // TODO: This should be done via SPARQL Provider, has nothing to do with RDF Provider.
 		// if statement can be moved to DataSourcesTable - leave it in for now so
@@ -84,18 +91,23 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
 			c.query = "construct {?s ?p ?o} where {?s ?p ?o}";
 			SPARQLEndpointProvider p = new SPARQLEndpointProvider();
 			p.config = c;
-			p.gather(res);
+			p.gather(sink);
 			return;
 		}
-		Repository repository;
 		
-		// in streaming mode, we write directly into the repository
-		if(config.streaming)
-		    repository = Global.repository;
-		else {
-		    repository = new SailRepository(new MemoryStore());
-		    repository.initialize();
-		}
+		// count the gathered statements in order to detect empty results
+		final AtomicInteger count = new AtomicInteger();
+		final StatementSink res = new StatementSink()
+		{
+			@Override
+			public void add(Statement stmt)
+			{
+				if (stmt==null)
+					return;
+				count.incrementAndGet();
+				sink.add(stmt);
+			}
+		};
 		
         URL url = new URL(config.url);
         
@@ -141,16 +153,28 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
             logger.error("Failed to determine RDF Format for "+url);
         if(rdfFormat !=null )
         {
-            RepositoryConnection con = repository.getConnection();
+            // in streaming mode, we write directly into the repository,
+            // otherwise the parsed statements are passed to the sink
+            RepositoryConnection con = config.streaming ? Global.repository.getConnection() : null;
             try 
             {
-                con.add(unpackStream(url, conn.getInputStream()), url.toString(), rdfFormat, ValueFactoryImpl.getInstance().createURI(url.toString()));
+                if (config.streaming)
+                    con.add(unpackStream(url, conn.getInputStream()), url.toString(), rdfFormat, ValueFactoryImpl.getInstance().createURI(url.toString()));
+                else
+                {
+                    RDFParser parser = Rio.createParser(rdfFormat);
+                    parser.setRDFHandler(new RDFHandlerBase()
+                    {
+                        @Override
+                        public void handleStatement(Statement st)
+                        {
+                            res.add(st);
+                        }
+                    });
+                    parser.parse(unpackStream(url, conn.getInputStream()), url.toString());
+                }
                 success = true;
                 logger.info("Successfully loaded "+url+" with RDFFormat "+rdfFormat);
-                
-                // in non streaming mode, we need to return the triples as list
-                if(!config.streaming) 
-                    res.addAll(con.getStatements(null, null, null, false).asList());
             }
             catch ( Exception e )
             {
@@ -159,7 +183,8 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
             }
             finally 
             {
-                con.close();
+                if (con!=null)
+                    con.close();
             }
         }
         
@@ -192,7 +217,7 @@ public class RDFProvider extends AbstractFlexProvider<RDFProvider.Config>
             	logger.trace("Error occured while collecting RDF data: " + ignore.getMessage(), ignore);
             }
         }
-        if ( res.isEmpty() )
+        if ( count.get()==0 )
             throw new RuntimeException("No valid RDF data found");
 	}
 
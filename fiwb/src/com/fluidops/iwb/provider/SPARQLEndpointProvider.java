@@ -37,14 +37,19 @@ import com.fluidops.iwb.util.User;
 import com.fluidops.util.StringUtil;
 
 @TypeConfigDoc( "The SPARQL endpoint provider gathers RDF data from a public SPARQL endpoint via a CONSTRUCT query" )
-public class SPARQLEndpointProvider extends AbstractFlexProvider<SPARQLEndpointProvider.Config>
+public class SPARQLEndpointProvider extends AbstractFlexProvider<SPARQLEndpointProvider.Config> implements StreamingProvider
 {
 	private static final long serialVersionUID = -5612668119106879634L;
 
 	@Override
 	public void gather(List<Statement> res) throws Exception
 	{
-	    
+		gather(ProviderUtils.listSink(res));
+	}
+	
+	@Override
+	public void gather(StatementSink sink) throws Exception
+	{
 		SparqlQueryType qt = ReadDataManagerImpl.getSparqlQueryType(config.query, true);
 		if (qt!=SparqlQueryType.CONSTRUCT)
 			throw new IllegalArgumentException("Only CONSTRUCT queries are allowed");
@@ -63,9 +68,13 @@ public class SPARQLEndpointProvider extends AbstractFlexProvider<SPARQLEndpointP
 	    try {
 	    	dm = ReadWriteDataManagerImpl.openDataManager(repository);
 	        GraphQueryResult result = dm.sparqlConstruct(config.query, true, null, false);
-	        
-	        while(result.hasNext())
-	            res.add(result.next());
+	        try {
+	        	while(result.hasNext())
+	        		sink.add(result.next());
+	        }
+	        finally {
+	        	result.close();
+	        }
 	    }
 	    finally {
 	    	ReadWriteDataManagerImpl.closeQuietly(dm);
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.provider;
+
+import org.openrdf.model.Statement;
+
+/**
+ * Receiver of the statements gathered by a {@link StreamingProvider}. 
+ * Depending on the implementation, the statements are written to the
+ * repository in batches while the provider is still running, or they
+ * are collected in memory.
+ * 
+ * Implementations are thread safe, i.e. a provider may push statements
+ * from several threads.
+ */
+public interface StatementSink
+{
+    /**
+     * Adds a statement, null statements are ignored.
+     * 
+     * @param stmt
+     * @throws RuntimeException if the statement cannot be written
+     */
+    public void add(Statement stmt);
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package com.fluidops.iwb.provider;
+
+/**
+ * Interface for providers which push the gathered statements to a
+ * {@link StatementSink} rather than returning them as list. The provider
+ * service prefers this method for streaming providers, such that the data
+ * is written in batches while the provider is running and the memory
+ * required does not depend on the size of the provider's output.
+ * 
+ * Streaming providers implement {@link AbstractFlexProvider#gather(java.util.List)}
+ * by delegating to {@link #gather(StatementSink)} with a sink obtained 
+ * from {@link ProviderUtils#listSink(java.util.List)}.
+ */
+public interface StreamingProvider
+{
+    /**
+     * Gathers the data of the provider.
+     * 
+     * @param sink the sink receiving the statements
+     * @throws Exception
+     */
+    public void gather(StatementSink sink) throws Exception;
+}
@@ -18,7 +18,10 @@
 
 package com.fluidops.iwb.provider;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -29,9 +32,14 @@ import java.util.Map.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -48,6 +56,7 @@ import org.openrdf.model.vocabulary.OWL;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.RDFS;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -81,7 +90,7 @@ import com.sun.org.apache.xpath.internal.jaxp.XPathFactoryImpl;
  * @author msc
  */
 @TypeConfigDoc("XML Provider transforms an XML document into RDF, using a mapping language.  This provider requires a mapping file and valid XML as input.")
-public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
+public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config> implements StreamingProvider
 {
 	private static final long serialVersionUID = 7415666290518242634L;
 
@@ -96,15 +105,50 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	private transient ProviderURIResolver uriResolver;
 	
 	private transient NamespaceContext ctx;
+	
+	/**
+	 * Compiled XPath expressions of the current gather run, such that each
+	 * expression of the mapping file is compiled only once
+	 */
+	private transient Map<String,XPathExpression> compiledExpressions;
 
 	
 	@Override
 	public void gather(final List<Statement> res) throws Exception
+	{
+		gather(ProviderUtils.listSink(res));
+	}
+
+
+	@Override
+	public void gather(StatementSink sink) throws Exception
 	{				
 		HashMap<String, MappingRule> mappingRules = initializeGather();
+		File xmlFile = IWBFileUtil.getFileInWorkingDir(config.xmlfile);
 	
+		// in streaming mode, rules which match elements by a simple path and
+		// only look into the matched element are evaluated in a single StAX pass
+		List<MappingRule> domRules = new ArrayList<MappingRule>();
+		Map<MappingRule,ElementPath> streamingRules = new HashMap<MappingRule,ElementPath>();
+		for (MappingRule mr : mappingRules.values())
+		{
+			ElementPath path = config.streaming ? ElementPath.compile(mr.nodeBase, ctx) : null;
+			if (path!=null && isLocalRule(mr))
+				streamingRules.put(mr, path);
+			else
+				domRules.add(mr);
+		}
+		
+		if (!streamingRules.isEmpty())
+			processMappingRulesStreaming(sink, mappingRules, streamingRules, xmlFile);
+		
+		if (domRules.isEmpty())
+			return;
+		
+		if (config.streaming)
+			logger.info("Rules " + ruleIds(domRules) + " cannot be streamed, loading " + config.xmlfile + " into DOM");
+		
 		// load XML in DOM
-		File xmlFile = IWBFileUtil.getFileInWorkingDir(config.xmlfile);
 		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		factory.setValidating(false);
 		factory.setNamespaceAware(true);
@@ -114,8 +158,8 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 		Document doc = builder.parse(xmlFile);
 		
 		// execute mapping rules in specification one by one
-	    for (MappingRule mr : mappingRules.values())
-	    	processMappingRule(res, mappingRules, doc, mr);
+	    for (MappingRule mr : domRules)
+	    	processMappingRule(sink, mappingRules, doc, mr);
 	}
 
 
@@ -213,6 +257,7 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 		ctx = getNamespaceContextFromConfig();
 
 		initializeXPathFactory();
+		compiledExpressions = new HashMap<String,XPathExpression>();
 		
 		// initialize property resolver
 		uriResolver = new ProviderURIResolver(config.globalResolver);
@@ -233,7 +278,7 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	 * @param mr
 	 * @throws XPathExpressionException
 	 */
-	protected void processMappingRule(List<Statement> stmts,
+	protected void processMappingRule(StatementSink stmts,
 			HashMap<String, MappingRule> mappingRules, Document doc,
 			MappingRule mr) throws XPathExpressionException 
 	{
@@ -243,119 +288,345 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 		nlXpath.setNamespaceContext(ctx);
 		NodeList nl = (NodeList)nlXpath.evaluate(mr.nodeBase, doc, XPathConstants.NODESET);
 
+		Map<String,URI> types = resolveTypes(mr);
 		for (int i=0; i<nl.getLength(); i++)
-		{
-			Node n = nl.item(i);
-			
-			// node type
-		    Map<String,URI> types = new HashMap<String,URI>();
-		    for (String owlType : mr.owlTypes)
-		    {
-		    	URI type = null;
-		    	if (owlType.contains("="))
-		    	{
-		    		String keyVal[] = owlType.split("=");
-		    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(keyVal[1]);
-		    		types.put(keyVal[0],type);
-		    	}
-		    	else
-		    	{
-		    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(owlType);
-		    		types.put("*", type);
-		    	}
-		    }
+			processNode(stmts, mappingRules, mr, types, nl.item(i));
+	}
+	
+	/**
+	 * Resolves the OWL types of a mapping rule, mapping tag names
+	 * (or "*" for any tag) to the type URI.
+	 * 
+	 * @param mr
+	 * @return
+	 */
+	protected Map<String,URI> resolveTypes(MappingRule mr)
+	{
+	    Map<String,URI> types = new HashMap<String,URI>();
+	    for (String owlType : mr.owlTypes)
+	    {
+	    	URI type = null;
+	    	if (owlType.contains("="))
+	    	{
+	    		String keyVal[] = owlType.split("=");
+	    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(keyVal[1]);
+	    		types.put(keyVal[0],type);
+	    	}
+	    	else
+	    	{
+	    		type = EndpointImpl.api().getNamespaceService().guessURIOrCreateInDefaultNS(owlType);
+	    		types.put("*", type);
+	    	}
+	    }
+	    return types;
+	}
+	
+	/**
+	 * Process a single node matching a mapping rule.
+	 * 
+	 * @param stmts
+	 * @param mappingRules
+	 * @param mr
+	 * @param types the types of the rule, as obtained from {@link #resolveTypes(MappingRule)}
+	 * @param n
+	 * @throws XPathExpressionException
+	 */
+	protected void processNode(StatementSink stmts,
+			HashMap<String, MappingRule> mappingRules, MappingRule mr,
+			Map<String,URI> types, Node n) throws XPathExpressionException
+	{
+		// get node id
+	    URI uri = null;
+	    if (mr.objectId!=null)
+	    {                	
+	    	uri = resolveParametrizedExpressionAsURI(mr.objectId,n,mr.instanceNamespace,false,null,null);
+	    	if (uri==null)
+	    		uri = getRandomId(n,mr.instanceNamespace);
+	    }
+	    else
+	    {
+	    	uri = getRandomId(n,mr.instanceNamespace);
+	    }
+	    
+	    if (uri==null)
+	    {
+	    	logger.warn(" URI could not be created: " + mr.objectId);
+	    	return; // cannot be resolved
+	    }
+	    
+	    URI type = null;
+	    if (types.containsKey(n.getNodeName()))
+	    	type = types.get(n.getNodeName());
+	    else if (types.containsKey("*"))
+	    	type = types.get("*");
+	    else
+	    	throw new RuntimeException("Unmatched Tag Name '" + n.getNodeName() + "'.");
+		stmts.add(vf.createStatement(uri, RDF.TYPE, type));
 
+		
+	    // get node label
+	    List<Literal> labelValues = resolveParametrizedExpressionAsLiterals(mr.objectLabel,n,false,null,null);
+	    if (labelValues.size()==1)
+	        stmts.add(vf.createStatement(uri, RDFS.LABEL, labelValues.get(0)));
 
-			// get node id
-		    URI uri = null;
-		    if (mr.objectId!=null)
-		    {                	
-		    	uri = resolveParametrizedExpressionAsURI(mr.objectId,n,mr.instanceNamespace,false,null,null);
-		    	if (uri==null)
-		    		uri = getRandomId(n,mr.instanceNamespace);
-		    }
-		    else
-		    {
-		    	uri = getRandomId(n,mr.instanceNamespace);
-		    }
-		    
-		    if (uri==null)
-		    {
-		    	logger.warn(" URI could not be created: " + mr.objectId);
-		    	continue; // cannot be resolved
-		    }
-		    
-		    URI type = null;
-		    if (types.containsKey(n.getNodeName()))
-		    	type = types.get(n.getNodeName());
-		    else if (types.containsKey("*"))
-		    	type = types.get("*");
-		    else
-		    	throw new RuntimeException("Unmatched Tag Name '" + n.getNodeName() + "'.");
-			stmts.add(vf.createStatement(uri, RDF.TYPE, type));
+	    
+	    // handle datatype properties
+	    for (DatatypePropertyMapping dpMapping : mr.datatypePropMappings)
+	    {
+	    	String xpathDP = dpMapping.value;
+	    	
+	    	// type predicate and assign label
+	    	URI predicate = uriResolver.resolveProperty(dpMapping.owlProperty,type,OWL.DATATYPEPROPERTY);
+	        
+	        // extract and write values for rule
+	        List<Literal> values = resolveParametrizedExpressionAsLiterals(xpathDP,n,dpMapping.useNodeName,dpMapping.ignoreIfMatches, dpMapping.manipulator);
+	    	for (int j=0;j<values.size();j++)
+	    	{
+	            stmts.add(vf.createStatement(uri, predicate, values.get(j)));
+	    	}
+	    }
+	    
+	    // handle object properties
+	    for (ObjectPropertyMapping opMapping : mr.objectPropertyMappings)
+	    {
+	    	String xpathOP = opMapping.value;
+	    	
+	    	// type predicate and assign label
+	    	URI predicate = uriResolver.resolveProperty(opMapping.owlProperty,type, OWL.OBJECTPROPERTY);
+	        
+	        // create object property mapping for each node in the node base
+	    	XPath opmNodeListXpath = xpf.newXPath();
+	    	opmNodeListXpath.setNamespaceContext(ctx);
+	        NodeList opmNodeList = (NodeList)opmNodeListXpath.evaluate(opMapping.nodeBase, n, XPathConstants.NODESET);
+	        for (int j=0; j<opmNodeList.getLength(); j++)
+	        {
+	        	Node opmNode = opmNodeList.item(j);
+	        	
+	            // extract and write values for rule
+	            List<String> values = null;
+	            if (opMapping.hashValue)
+	            	values = getHashValue(xpathOP,opmNode);
+	            else
+	            	values = resolveParametrizedExpression(xpathOP,opmNode,opMapping.useNodeName,opMapping.ignoreIfMatches);
+	            
+        		// we use the namespace from the referred rule, to create exactly
+        		// the same URI as written by the original object
+        		MappingRule referredRule = mappingRules.get(opMapping.referredRule);
+        		
+        		String namespace = referredRule!=null ? 
+        			referredRule.instanceNamespace : opMapping.instanceNamespace;
+	        	for (String value : values)
+	        	{
+		            // generate the corresponding statement
+	        		URI obj = createUriInNamespace(value,namespace);
+	        		stmts.add(vf.createStatement(uri, predicate, obj));
+	        	}
+	        }
+	    }
+	}
+
+	/**
+	 * Evaluates the given rules in a single pass over the XML document using
+	 * a StAX parser, without loading the document into memory. Whenever an
+	 * element matches the path of a rule, the subtree of the element is read
+	 * into a DOM fragment, against which the rule is evaluated as usual. For
+	 * nested matches, the outermost subtree is read once and all matching
+	 * rules are evaluated after its end tag (in document order).
+	 * 
+	 * @param stmts
+	 * @param mappingRules all mapping rules, for the lookup of referred rules
+	 * @param streamingRules the rules to evaluate with their compiled paths, see
+	 * 			{@link ElementPath#compile(String, NamespaceContext)} and {@link #isLocalRule(MappingRule)}
+	 * @param xmlFile
+	 * @throws Exception
+	 */
+	protected void processMappingRulesStreaming(StatementSink stmts,
+			HashMap<String, MappingRule> mappingRules, Map<MappingRule,ElementPath> streamingRules, 
+			File xmlFile) throws Exception
+	{
+		Map<MappingRule,Map<String,URI>> types = new HashMap<MappingRule,Map<String,URI>>();
+		for (MappingRule mr : streamingRules.keySet())
+			types.put(mr, resolveTypes(mr));
+		
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		xif.setProperty(XMLInputFactory.IS_COALESCING, true);
+		xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		DocumentBuilder builder = factory.newDocumentBuilder();
 
+		InputStream in = new BufferedInputStream(new FileInputStream(xmlFile));
+		XMLStreamReader reader = null;
+		try
+		{
+			reader = xif.createXMLStreamReader(in);
 			
-		    // get node label
-		    List<Literal> labelValues = resolveParametrizedExpressionAsLiterals(mr.objectLabel,n,false,null,null);
-		    if (labelValues.size()==1)
-		        stmts.add(vf.createStatement(uri, RDFS.LABEL, labelValues.get(0)));
-
-		    
-		    // handle datatype properties
-		    for (DatatypePropertyMapping dpMapping : mr.datatypePropMappings)
-		    {
-		    	String xpathDP = dpMapping.value;
-		    	
-		    	// type predicate and assign label
-		    	URI predicate = uriResolver.resolveProperty(dpMapping.owlProperty,type,OWL.DATATYPEPROPERTY);
-		        
-		        // extract and write values for rule
-		        List<Literal> values = resolveParametrizedExpressionAsLiterals(xpathDP,n,dpMapping.useNodeName,dpMapping.ignoreIfMatches, dpMapping.manipulator);
-		    	for (int j=0;j<values.size();j++)
-		    	{
-		            stmts.add(vf.createStatement(uri, predicate, values.get(j)));
-		    	}
-		    }
-		    
-		    // handle object properties
-		    for (ObjectPropertyMapping opMapping : mr.objectPropertyMappings)
-		    {
-		    	String xpathOP = opMapping.value;
-		    	
-		    	// type predicate and assign label
-		    	URI predicate = uriResolver.resolveProperty(opMapping.owlProperty,type, OWL.OBJECTPROPERTY);
-		        
-		        // create object property mapping for each node in the node base
-		    	XPath opmNodeListXpath = xpf.newXPath();
-		    	opmNodeListXpath.setNamespaceContext(ctx);
-		        NodeList opmNodeList = (NodeList)opmNodeListXpath.evaluate(opMapping.nodeBase, n, XPathConstants.NODESET);
-		        for (int j=0; j<opmNodeList.getLength(); j++)
-		        {
-		        	Node opmNode = opmNodeList.item(j);
-		        	
-		            // extract and write values for rule
-		            List<String> values = null;
-		            if (opMapping.hashValue)
-		            	values = getHashValue(xpathOP,opmNode);
-		            else
-		            	values = resolveParametrizedExpression(xpathOP,opmNode,opMapping.useNodeName,opMapping.ignoreIfMatches);
-		            
-	        		// we use the namespace from the referred rule, to create exactly
-	        		// the same URI as written by the original object
-	        		MappingRule referredRule = mappingRules.get(opMapping.referredRule);
-	        		
-	        		String namespace = referredRule!=null ? 
-	        			referredRule.instanceNamespace : opMapping.instanceNamespace;
-		        	for (String value : values)
-		        	{
-			            // generate the corresponding statement
-		        		URI obj = createUriInNamespace(value,namespace);
-		        		stmts.add(vf.createStatement(uri, predicate, obj));
-		        	}
-		        }
-		    }
+			List<QName> path = new ArrayList<QName>();
+			
+			// the fragment of the outermost matching element and its current node
+			Document fragment = null;
+			Node current = null;
+			List<Pair<MappingRule,Node>> matches = new ArrayList<Pair<MappingRule,Node>>();
+			
+			while (reader.hasNext())
+			{
+				switch (reader.next())
+				{
+				case XMLStreamConstants.START_ELEMENT:
+					path.add(reader.getName());
+					List<MappingRule> matching = new ArrayList<MappingRule>(1);
+					for (Entry<MappingRule,ElementPath> entry : streamingRules.entrySet())
+					{
+						if (entry.getValue().matches(path))
+							matching.add(entry.getKey());
+					}
+					if (fragment==null && !matching.isEmpty())
+					{
+						fragment = builder.newDocument();
+						current = fragment;
+					}
+					if (fragment!=null)
+					{
+						Element e = createElement(fragment, reader);
+						current.appendChild(e);
+						current = e;
+						for (MappingRule mr : matching)
+							matches.add(new Pair<MappingRule,Node>(mr, e));
+					}
+					break;
+					
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (fragment!=null)
+						current.appendChild(fragment.createTextNode(reader.getText()));
+					break;
+					
+				case XMLStreamConstants.COMMENT:
+					if (fragment!=null)
+						current.appendChild(fragment.createComment(reader.getText()));
+					break;
+					
+				case XMLStreamConstants.END_ELEMENT:
+					path.remove(path.size()-1);
+					if (fragment!=null)
+					{
+						current = current.getParentNode();
+						if (current==fragment)
+						{
+							for (Pair<MappingRule,Node> match : matches)
+								processNode(stmts, mappingRules, match.fst, types.get(match.fst), match.snd);
+							matches.clear();
+							fragment = null;
+							current = null;
+						}
+					}
+					break;
+				}
+			}
+		}
+		finally
+		{
+			if (reader!=null)
+				reader.close();
+			in.close();
 		}
 	}
+	
+	/**
+	 * Creates a DOM element for the current start tag of the reader,
+	 * including its namespace declarations and attributes.
+	 */
+	private static Element createElement(Document doc, XMLStreamReader reader)
+	{
+		Element e = doc.createElementNS(emptyToNull(reader.getNamespaceURI()), 
+				qualifiedName(reader.getPrefix(), reader.getLocalName()));
+		for (int i=0; i<reader.getNamespaceCount(); i++)
+		{
+			String prefix = reader.getNamespacePrefix(i);
+			e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, 
+					StringUtil.isNullOrEmpty(prefix) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, 
+					reader.getNamespaceURI(i));
+		}
+		for (int i=0; i<reader.getAttributeCount(); i++)
+		{
+			e.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)), 
+					qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), 
+					reader.getAttributeValue(i));
+		}
+		return e;
+	}
+	
+	private static String qualifiedName(String prefix, String localName)
+	{
+		return StringUtil.isNullOrEmpty(prefix) ? localName : prefix + ":" + localName;
+	}
+	
+	private static String emptyToNull(String s)
+	{
+		return StringUtil.isNullOrEmpty(s) ? null : s;
+	}
+	
+	/**
+	 * Pattern for XPath constructs leaving the subtree of the context node:
+	 * absolute paths, reverse and sibling axes, and functions accessing
+	 * other parts of the document.
+	 */
+	private static final Pattern NON_LOCAL_XPATH_PATTERN = Pattern.compile(
+			"(^|[\\[(|,=<>!\\s])\\s*/|\\.\\.|ancestor|parent::|preceding|following|\\bid\\s*\\(|document\\s*\\(");
+	
+	/**
+	 * Returns true if all expressions of the rule are relative to the matched
+	 * node and only access its subtree, such that the rule can be evaluated
+	 * against a fragment holding only this subtree.
+	 * 
+	 * @param mr
+	 * @return
+	 */
+	protected static boolean isLocalRule(MappingRule mr)
+	{
+		if (!isLocalParametrizedExpression(mr.objectId) || !isLocalParametrizedExpression(mr.objectLabel))
+			return false;
+		for (DatatypePropertyMapping dpMapping : mr.datatypePropMappings)
+		{
+			if (!isLocalParametrizedExpression(dpMapping.value))
+				return false;
+		}
+		for (ObjectPropertyMapping opMapping : mr.objectPropertyMappings)
+		{
+			if (!isLocalXPath(opMapping.nodeBase) || !isLocalParametrizedExpression(opMapping.value))
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean isLocalParametrizedExpression(String parametrizedExpression)
+	{
+		if (parametrizedExpression==null)
+			return true;
+		Matcher m = PARAMETRIZED_EXPRESSION_PATTERN.matcher(parametrizedExpression);
+		while (m.find())
+		{
+			if (!isLocalXPath(m.group(1)))
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean isLocalXPath(String xpath)
+	{
+		return xpath==null || !NON_LOCAL_XPATH_PATTERN.matcher(xpath).find();
+	}
+	
+	private static String ruleIds(List<MappingRule> rules)
+	{
+		List<String> ids = new ArrayList<String>();
+		for (MappingRule mr : rules)
+			ids.add(mr.id);
+		return ids.toString();
+	}
 
 	/**
 	 * Requires the input to be a single node
@@ -419,7 +690,8 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	 */
 	protected List<String> resolveParametrizedExpression(String parametrizedExpression, Node context, boolean useNodeName, String ignoreIfMatches)
 	{		
-		Map<String,XPathExpression> map = new HashMap<String,XPathExpression>();
+		Map<String,XPathExpression> map = compiledExpressions!=null ? 
+				compiledExpressions : new HashMap<String,XPathExpression>();
 		
 		List<String> result = new ArrayList<String>();
 		if (parametrizedExpression==null)
@@ -777,6 +1049,131 @@ public class XMLProvider  extends AbstractFlexProvider<XMLProvider.Config>
 	    
 	    @ParameterConfigDoc(desc = "Comma-separated list of namespaces that can occur in XPath expressions in the mapping file e.g. fluidops=http://www.fluidops.com/, we can now use fluidops: to refer to XML elements in the respective namespace.")
 	    public String namespaceAbbreviations;
+	    
+	    @ParameterConfigDoc(desc = "Streaming mode for large XML files: rules with a simple node base (e.g. //fops:person or /fops:doc/fops:nodeWithoutId) which only access the subtree of the matched node are evaluated without loading the document into memory")
+	    public boolean streaming;
+	}
+
+	/**
+	 * A node base which selects elements by a simple path, i.e. a sequence
+	 * of element names (or *) separated by / or //, such as //fops:person or
+	 * /fops:doc/fops:nodeWithoutId. Such a path can be matched against the
+	 * path of the current element while streaming the document.
+	 */
+	protected static class ElementPath
+	{
+		private static final Pattern STEP_PATTERN = Pattern.compile("(?:([\\w][\\w.\\-]*):)?([\\w][\\w.\\-]*|\\*)");
+		
+		/**
+		 * The element names of the steps, null for *
+		 */
+		private final List<QName> steps = new ArrayList<QName>();
+		
+		/**
+		 * For each step, whether it is preceded by // (instead of /)
+		 */
+		private final List<Boolean> descendant = new ArrayList<Boolean>();
+		
+		private ElementPath()
+		{
+		}
+		
+		/**
+		 * Compiles the given node base into an element path.
+		 * 
+		 * @param nodeBase
+		 * @param ctx the namespace context for resolving prefixes
+		 * @return the element path, or null if the node base is not a simple path
+		 * 			or uses an undefined prefix
+		 */
+		public static ElementPath compile(String nodeBase, NamespaceContext ctx)
+		{
+			if (StringUtil.isNullOrEmpty(nodeBase))
+				return null;
+			
+			// the node base is evaluated against the document node, so a relative
+			// path is equivalent to the absolute one
+			String path = nodeBase.trim();
+			if (path.startsWith("/"))
+				path = path.substring(1);
+			
+			ElementPath res = new ElementPath();
+			boolean isDescendant = false;
+			for (String step : path.split("/", -1))
+			{
+				if (step.length()==0)
+				{
+					// second slash of //, anything else is not a simple path
+					if (isDescendant)
+						return null;
+					isDescendant = true;
+					continue;
+				}
+				Matcher m = STEP_PATTERN.matcher(step);
+				if (!m.matches())
+					return null;
+				
+				QName name = null;
+				if (!"*".equals(m.group(2)))
+				{
+					String namespace = "";
+					if (m.group(1)!=null)
+					{
+						namespace = ctx.getNamespaceURI(m.group(1));
+						if (namespace==null)
+							return null;
+					}
+					name = new QName(namespace, m.group(2));
+				}
+				else if (m.group(1)!=null)
+					return null;
+				
+				res.steps.add(name);
+				res.descendant.add(isDescendant);
+				isDescendant = false;
+			}
+			
+			// trailing slash
+			if (isDescendant || res.steps.isEmpty())
+				return null;
+			return res;
+		}
+		
+		/**
+		 * @param path the names of the elements from the root element to the current element
+		 * @return true if the current element is selected by this path
+		 */
+		public boolean matches(List<QName> path)
+		{
+			// fast path: the last step must select the current element
+			if (path.isEmpty() || !matchesStep(steps.size()-1, path.get(path.size()-1)))
+				return false;
+			return matches(path, 0, 0);
+		}
+		
+		private boolean matches(List<QName> path, int step, int pos)
+		{
+			if (step==steps.size())
+				return pos==path.size();
+			if (pos==path.size())
+				return false;
+			
+			if (!descendant.get(step))
+				return matchesStep(step, path.get(pos)) && matches(path, step+1, pos+1);
+			
+			for (int i=pos; i<path.size(); i++)
+			{
+				if (matchesStep(step, path.get(i)) && matches(path, step+1, i+1))
+					return true;
+			}
+			return false;
+		}
+		
+		private boolean matchesStep(int step, QName name)
+		{
+			QName stepName = steps.get(step);
+			return stepName==null || stepName.equals(name);
+		}
 	}
 
 	/**
@@ -22,6 +22,13 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -36,6 +43,7 @@ import org.openrdf.model.Statement;
 import org.openrdf.model.Value;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.BindingSet;
+import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryResult;
@@ -59,6 +67,7 @@ import com.fluidops.iwb.keywordsearch.SearchProvider;
 import com.fluidops.iwb.keywordsearch.SearchProviderFactory;
 import com.fluidops.iwb.keywordsearch.SparqlSearchProvider;
 import com.fluidops.iwb.layout.AdHocSearchTabWidgetContainer;
+import com.fluidops.iwb.model.AbstractMutableTupleQueryResult;
 import com.fluidops.iwb.model.MultiPartMutableTupleQueryResultImpl;
 import com.fluidops.iwb.model.MutableTupleQueryResultImpl;
 import com.fluidops.iwb.page.PageContext;
@@ -75,6 +84,7 @@ import com.fluidops.util.StringUtil;
 import com.fluidops.util.TemplateBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Hybrid search servlet combining structured and unstructured queries.
@@ -121,6 +131,7 @@ public class HybridSearchServlet extends IWBHttpServlet
 		public int errorCode;
 		public String message;
 		public String queryTarget;
+		public Long latency;
 		
 		public ErrorRecord(int errorCode, String message, String queryTarget) {
 			this.errorCode = errorCode;
@@ -129,6 +140,74 @@ public class HybridSearchServlet extends IWBHttpServlet
 		}
 	}
 
+	/**
+	 * Executes the search against a single provider, see {@link HybridSearchServlet#searchAll(List, ProviderSearch)}
+	 */
+	private static interface ProviderSearch<P extends SearchProvider> {
+		public QueryResult<?> search(P provider) throws Exception;
+	}
+	
+	/**
+	 * The result of a single search provider (read completely into memory) or
+	 * the error, together with the time the provider took to answer
+	 */
+	private static class ProviderResult {
+		public final SearchProvider provider;
+		public QueryResult<?> result;
+		public Exception error;
+		public long latency;
+		
+		public ProviderResult(SearchProvider provider) {
+			this.provider = provider;
+		}
+		
+		public QueryResult<?> get() throws Exception {
+			if (error!=null)
+				throw error;
+			return result;
+		}
+	}
+	
+	/**
+	 * Search of a single provider on the search executor
+	 */
+	private static class ProviderSearchTask<P extends SearchProvider> implements Callable<ProviderResult> {
+		private final P provider;
+		private final ProviderSearch<P> search;
+		
+		/**
+		 * Start time of the search, 0 while waiting for a thread
+		 */
+		private volatile long started;
+		
+		/**
+		 * Set when the search has timed out. The task stops reading the
+		 * result as soon as possible, but is not interrupted, as interrupts
+		 * may break the IO of the underlying repository or index.
+		 */
+		private volatile boolean cancelled;
+		
+		public ProviderSearchTask(P provider, ProviderSearch<P> search) {
+			this.provider = provider;
+			this.search = search;
+		}
+
+		@Override
+		public ProviderResult call() {
+			started = System.currentTimeMillis();
+			if (cancelled) {
+				ProviderResult result = new ProviderResult(provider);
+				result.error = new TimeoutException("search cancelled before start");
+				return result;
+			}
+			return searchProvider(this);
+		}
+	}
+	
+	private static final int SEARCH_THREADS = 16;
+	
+	private static final ThreadPoolExecutor searchExecutor = createSearchExecutor();
+	
 	private static final long serialVersionUID = -1145307972797973995L;
 	private static final Logger log = Logger.getLogger(HybridSearchServlet.class);
 
@@ -259,7 +338,7 @@ public class HybridSearchServlet extends IWBHttpServlet
 		
 		// value to be used in queries instead of ??
         String _resolveValue = req.getParameter("value");
-        Value resolveValue = _resolveValue!=null ? ValueFactoryImpl.getInstance().createURI(_resolveValue) : null;
+        final Value resolveValue = _resolveValue!=null ? ValueFactoryImpl.getInstance().createURI(_resolveValue) : null;
 		
         boolean infer = false;		// default value for inferencing is false
     	
@@ -294,20 +373,28 @@ public class HybridSearchServlet extends IWBHttpServlet
 			
 			List<SparqlSearchProvider> sparqlProviders = 
 					SearchProviderFactory.getInstance().getSparqlSearchProviders(queryTargets);
+			
+			final String query = pc.query;
+			final SparqlQueryType queryType = qt;
+			final boolean inferencing = infer;
+			List<ProviderResult> results = searchAll(sparqlProviders, new ProviderSearch<SparqlSearchProvider>() {
+				@Override
+				public QueryResult<?> search(SparqlSearchProvider provider) throws Exception {
+					return provider.search(query, queryType, resolveValue, inferencing);
+				}
+			});
 				
-			for(SparqlSearchProvider sparqlProvider : sparqlProviders) {
-
-				try {
-					QueryResult<?> currentQueryRes = sparqlProvider.search(pc.query, qt, resolveValue, infer);
-					queryRes = ReadDataManagerImpl.mergeQueryResults(queryRes, currentQueryRes);
-				} catch(MalformedQueryException e) {
-					// If a SPARQL query is malformed, no need to send it to all search providers
-					error(resp, 400, e.getMessage());
+			for(ProviderResult result : results) {
+				// If a SPARQL query is malformed, it is malformed for all search providers
+				if(result.error instanceof MalformedQueryException) {
+					error(resp, 400, result.error.getMessage());
 					return;
+				}
+				try {
+					queryRes = ReadDataManagerImpl.mergeQueryResults(queryRes, result.get());
 				} catch(Exception e) {
-					errorRecords.add(createErrorRecord(e, sparqlProvider, pc));
+					errorRecords.add(createErrorRecord(e, result, pc));
 				}
-					
 			}
 				
 			if(queryRes == null) {
@@ -335,15 +422,21 @@ public class HybridSearchServlet extends IWBHttpServlet
 					.getInstance()
 					.getSearchProvidersSupportingQueryLanguage(queryTargets, pc.queryLanguage);
 			
-			QueryResult<?> currentQueryResult;
+			// If the query protocol was provided, we assume that the target knows how to deal with it.
+			final String queryLanguage = pc.queryLanguage;
+			final String query = pc.query;
+			List<ProviderResult> results = searchAll(providers, new ProviderSearch<SearchProvider>() {
+				@Override
+				public QueryResult<?> search(SearchProvider provider) throws Exception {
+					return provider.search(queryLanguage, query);
+				}
+			});
 			
-			for(SearchProvider provider : providers) {
-				// If the query protocol was provided, we assume that the target knows how to deal with it.
+			for(ProviderResult result : results) {
 				try {
-					currentQueryResult = provider.search(pc.queryLanguage, pc.query);
-					queryRes = ReadDataManagerImpl.mergeQueryResults(queryRes, currentQueryResult);
+					queryRes = ReadDataManagerImpl.mergeQueryResults(queryRes, result.get());
 				} catch(Exception e) {
-					errorRecords.add(createErrorRecord(e, provider, pc));
+					errorRecords.add(createErrorRecord(e, result, pc));
 				}
 			}
 				
@@ -358,21 +451,27 @@ public class HybridSearchServlet extends IWBHttpServlet
 			
 			MultiPartMutableTupleQueryResultImpl queryRes = null;
 			
-			TupleQueryResult currentQueryResult;
-				
 			List<KeywordSearchProvider> providers = SearchProviderFactory
 					.getInstance()
 					.getKeywordSearchProviders(queryTargets);
+			
+			final String query = pc.query;
+			List<ProviderResult> results = searchAll(providers, new ProviderSearch<KeywordSearchProvider>() {
+				@Override
+				public QueryResult<?> search(KeywordSearchProvider provider) throws Exception {
+					return provider.search(query);
+				}
+			});
 	
-			for(KeywordSearchProvider provider : providers) {
-				try {
-					currentQueryResult = provider.search(pc.query);
-					queryRes = ReadDataManagerImpl.mergeQueryResults(queryRes, currentQueryResult, provider.getShortName());
-				} catch(ParseException e) {
-					error(resp, 400, "Malformed keyword query:\n\n" + pc.query + "\n\n" + e.getMessage());
+			for(ProviderResult result : results) {
+				if(result.error instanceof ParseException) {
+					error(resp, 400, "Malformed keyword query:\n\n" + pc.query + "\n\n" + result.error.getMessage());
 					return;
+				}
+				try {
+					queryRes = ReadDataManagerImpl.mergeQueryResults(queryRes, (TupleQueryResult)result.get(), result.provider.getShortName());
 				} catch(Exception e) {
-					errorRecords.add(createErrorRecord(e, provider, pc));
+					errorRecords.add(createErrorRecord(e, result, pc));
 				}
 			}
 				
@@ -412,10 +511,19 @@ public class HybridSearchServlet extends IWBHttpServlet
 		print(pc, resp);
     }
 	
+	private static ErrorRecord createErrorRecord (Exception e, ProviderResult result, SearchPageContext pc) {
+		ErrorRecord errorRecord = createErrorRecord(e, result.provider, pc);
+		errorRecord.latency = result.latency;
+		return errorRecord;
+	}
+	
 	private static ErrorRecord createErrorRecord (Exception e, SearchProvider provider, SearchPageContext pc) {
 		int errorCode = 500;
 		String errorMessage;
-		if (e instanceof IllegalArgumentException) {
+		if (e instanceof TimeoutException) {
+			errorCode = 504;
+			errorMessage = "Search provider did not answer in time: " + e.getMessage();
+		} else if (e instanceof IllegalArgumentException) {
 			errorMessage = "Search provider returned illegal output: " + e.getMessage();
 		} else if(e instanceof MalformedQueryException) {
 			errorCode = 400;
@@ -436,6 +544,134 @@ public class HybridSearchServlet extends IWBHttpServlet
 		return new ErrorRecord(errorCode, errorMessage, provider.getShortName());
 	}
 	
+	private static ThreadPoolExecutor createSearchExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(SEARCH_THREADS, SEARCH_THREADS, 60L, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(), 
+				new ThreadFactoryBuilder().setNameFormat("IWB Search %d").setDaemon(true).build());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Queries the given search providers in parallel. Each result is read
+	 * completely in the thread of the respective provider, such that the
+	 * results can be merged without further waiting. A provider which does
+	 * not answer within the search provider timeout, or before the overall
+	 * search timeout has passed, is reported with a {@link TimeoutException}.
+	 * 
+	 * @param providers
+	 * @param search
+	 * @return the results, in the order of the providers
+	 */
+	private static <P extends SearchProvider> List<ProviderResult> searchAll(List<P> providers, ProviderSearch<P> search) {
+		List<ProviderResult> results = Lists.newArrayListWithCapacity(providers.size());
+		
+		long start = System.currentTimeMillis();
+		long searchDeadline = start + Config.getConfig().getSearchTimeout();
+		long providerTimeout = Config.getConfig().getSearchProviderTimeout();
+		
+		List<ProviderSearchTask<P>> tasks = Lists.newArrayListWithCapacity(providers.size());
+		List<Future<ProviderResult>> futures = Lists.newArrayListWithCapacity(providers.size());
+		for (P provider : providers) {
+			ProviderSearchTask<P> task = new ProviderSearchTask<P>(provider, search);
+			tasks.add(task);
+			futures.add(searchExecutor.submit(task));
+		}
+		
+		for (int i=0; i<tasks.size(); i++) {
+			ProviderSearchTask<P> task = tasks.get(i);
+			Future<ProviderResult> future = futures.get(i);
+			ProviderResult result = null;
+			try {
+				while (result==null) {
+					// the provider timeout starts when the provider gets a thread
+					long now = System.currentTimeMillis();
+					long started = task.started;
+					long deadline = started>0 ? Math.min(searchDeadline, started + providerTimeout) : searchDeadline;
+					if (now>=deadline)
+						break;
+					try {
+						result = future.get(started>0 ? deadline-now : Math.min(deadline-now, 50), TimeUnit.MILLISECONDS);
+					} catch (TimeoutException e) {
+						// check deadline again
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// does not happen, errors are part of the result
+				result = new ProviderResult(task.provider);
+				result.error = e;
+			}
+			
+			if (result==null) {
+				task.cancelled = true;
+				future.cancel(false);
+				result = new ProviderResult(task.provider);
+				result.latency = System.currentTimeMillis() - (task.started>0 ? task.started : start);
+				result.error = new TimeoutException("no answer after " + result.latency + " ms");
+			}
+			results.add(result);
+		}
+		return results;
+	}
+	
+	/**
+	 * Searches a single provider and reads the result into memory.
+	 */
+	private static <P extends SearchProvider> ProviderResult searchProvider(ProviderSearchTask<P> task) {
+		ProviderResult result = new ProviderResult(task.provider);
+		long start = System.currentTimeMillis();
+		try {
+			result.result = materialize(task.search.search(task.provider), task);
+		} catch (Exception e) {
+			result.error = e;
+		}
+		result.latency = System.currentTimeMillis() - start;
+		log.debug("Search provider " + task.provider.getShortName() + " answered in " + result.latency + " ms");
+		return result;
+	}
+	
+	/**
+	 * Reads tuple and graph query results into memory, the given result is closed.
+	 * Reading stops with a {@link TimeoutException} once the task is cancelled.
+	 */
+	private static QueryResult<?> materialize(QueryResult<?> result, ProviderSearchTask<?> task) 
+			throws QueryEvaluationException, TimeoutException {
+		if (result instanceof TupleQueryResult && !(result instanceof AbstractMutableTupleQueryResult)) {
+			TupleQueryResult tuples = (TupleQueryResult)result;
+			try {
+				List<BindingSet> bindings = Lists.newArrayList();
+				while (tuples.hasNext()) {
+					checkCancelled(task);
+					bindings.add(tuples.next());
+				}
+				return new MutableTupleQueryResultImpl(tuples.getBindingNames(), bindings);
+			} finally {
+				ReadDataManagerImpl.closeQuietly(tuples);
+			}
+		}
+		if (result instanceof GraphQueryResult) {
+			GraphQueryResult graph = (GraphQueryResult)result;
+			try {
+				List<Statement> stmts = Lists.newArrayList();
+				while (graph.hasNext()) {
+					checkCancelled(task);
+					stmts.add(graph.next());
+				}
+				return new GraphQueryResultImpl(graph.getNamespaces(), stmts);
+			} finally {
+				ReadDataManagerImpl.closeQuietly(graph);
+			}
+		}
+		return result;
+	}
+	
+	private static void checkCancelled(ProviderSearchTask<?> task) throws TimeoutException {
+		if (task.cancelled)
+			throw new TimeoutException("search cancelled after timeout");
+	}
+	
 	private static MutableTupleQueryResultImpl createEmptyKeywordQueryResult() {
 		
 		return new MutableTupleQueryResultImpl(
@@ -539,6 +775,8 @@ public class HybridSearchServlet extends IWBHttpServlet
 			errorTableBuilder.append("/images/error.png'/>");
 			errorTableBuilder.append("</td><td>");
 			errorTableBuilder.append("Could not process the query on " +errorRecord.queryTarget + ". Error " + errorRecord.errorCode + ", cause: " + errorRecord.message);
+			if (errorRecord.latency!=null)
+				errorTableBuilder.append(" (after " + errorRecord.latency + " ms)");
 			errorTableBuilder.append("</td></tr>");
 		}
 		errorTableBuilder.append("</table>");
@@ -20,6 +20,9 @@ package com.fluidops.iwb.server;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -32,11 +35,13 @@ import org.openrdf.model.Value;
 import com.fluidops.ajax.FSession;
 import com.fluidops.ajax.api.PageMapper;
 import com.fluidops.ajax.api.PageMapperImpl;
+import com.fluidops.ajax.components.FComponent;
+import com.fluidops.ajax.components.FLabel;
 import com.fluidops.ajax.components.FPage;
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.APIImpl;
 import com.fluidops.iwb.api.EndpointImpl;
-import com.fluidops.iwb.api.ReadWriteDataManager;
+import com.fluidops.iwb.api.LookupProviderExecutor;
 import com.fluidops.iwb.api.ReadWriteDataManagerImpl;
 import com.fluidops.iwb.page.PageContext;
 import com.fluidops.iwb.provider.AbstractFlexProvider;
@@ -47,6 +52,7 @@ import com.fluidops.iwb.user.UserManager.ValueAccessLevel;
 import com.fluidops.iwb.util.Config;
 import com.fluidops.iwb.util.SQL;
 import com.fluidops.util.GenUtil;
+import com.fluidops.util.Rand;
 
 /**
  * simplified wiki servlet workflow
@@ -61,6 +67,11 @@ public class Servlet extends IWBHttpServlet
     
     private static UserManager userManager = EndpointImpl.api().getUserManager();
     
+    /**
+     * Interval in ms in which a page checks whether the lookups for the page have finished
+     */
+    private static final long LOOKUP_REFRESH_POLLING_RATE = 1000;
+    
    
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
 	{
@@ -141,35 +152,19 @@ public class Servlet extends IWBHttpServlet
 			// lookup subject
 	        api.getRequestMapper().map(pc, request);
 	        	
-	        //  Lookup Providers for this URI
+	        //  Lookup Providers for this URI: outdated data is refreshed in the background,
+	        // see LookupProviderExecutor for details
 	        // TODO: Should think about more flexible mechanism to assign providers to certain types of objects (e.g. based on rdf:type), could be similar as for WidgetConfigs
+	        List<Future<Boolean>> pendingLookups = new ArrayList<Future<Boolean>>();
 	        if ( pc.value instanceof URI )
 				for ( AbstractFlexProvider provider : EndpointImpl.api().getProviderService().getProviders() )
 					if ( provider instanceof LookupProvider )
 					{
 					    URI uri = (URI)pc.value;
 						if(!((LookupProvider)provider).accept(uri)) continue;
-						ReadWriteDataManager dm = ReadWriteDataManagerImpl.openDataManager(Global.repository);
-						
-						// if data for this URI is already cached, find our in which context and whether it needs updating
-						URI contextURI = dm.isCached(provider.getProviderID(), uri);
-
-						if(contextURI==null || ( System.currentTimeMillis() - dm.getContext(contextURI).getTimestamp())>provider.pollInterval)
-						{
-						    // the correct way to store the provider data is as follows, but it seems not to scale with OWLIM
-						    EndpointImpl.api().getProviderService().runProvider(provider.providerID, uri.stringValue());
-						    
-						    // The following is a workaround: The context management with OWLIM does not scale, therefore we write directly into the repository
-						    /*List<Statement> stmts = new LinkedList<Statement>();
-						    ((LookupProvider)provider).gather(stmts, (URI)pc.value);
-						    Context c = new Context(Context.ContextType.LOOKUPPROVIDER, 
-						            provider.providerID, null, uri,
-						            System.currentTimeMillis(), "Live Lookup");
-						    dm.addToContextNoDuplicates(stmts, c);*/
-						    
-						}
-
-						dm.close();
+						Future<Boolean> lookup = LookupProviderExecutor.getInstance().lookup(provider, uri);
+						if (lookup!=null)
+							pendingLookups.add(lookup);
 					}
  
 	        String activeLabel = request.getParameter("view");
@@ -199,6 +194,10 @@ public class Servlet extends IWBHttpServlet
 	        // layout
 	        api.getLayouter().populateContainer( pc );
 	        
+	        // reload the page once the background lookups have refreshed the data
+	        if (!pendingLookups.isEmpty())
+	        	pc.container.getContainer().add(createLookupRefresh(pendingLookups));
+	        
 	        // print
 	        api.getPrinter().print(pc, response);
 	        
@@ -215,6 +214,41 @@ public class Servlet extends IWBHttpServlet
 		}
 	}
 	
+	/**
+	 * Creates an (invisible) component which polls the given lookups and
+	 * reloads the page as soon as all have finished, if at least one of
+	 * them was successful.
+	 */
+	private static FComponent createLookupRefresh(final List<Future<Boolean>> lookups)
+	{
+		FLabel refresh = new FLabel("lookupRefresh"+Rand.getIncrementalFluidUUID(), "") 
+		{
+			@Override
+			public void onPoll(String val) 
+			{
+				boolean updated = false;
+				for (Future<Boolean> lookup : lookups)
+				{
+					if (!lookup.isDone())
+						return;
+					try
+					{
+						updated |= lookup.get();
+					}
+					catch (Exception e)
+					{
+						// failed lookups are logged by the executor
+					}
+				}
+				stopPolling();
+				if (updated)
+					doCallback("location.reload(true);");
+			}
+		};
+		refresh.setPollingRateInMs(LOOKUP_REFRESH_POLLING_RATE);
+		return refresh;
+	}
+	
 	/*
 	 * The login is done via a POST request, therefore also need to support it here.
 	 */
@@ -41,6 +41,7 @@ import com.fluidops.ajax.models.FTableModel;
 import com.fluidops.iwb.Global;
 import com.fluidops.iwb.api.Context;
 import com.fluidops.iwb.api.EndpointImpl;
+import com.fluidops.iwb.api.ProviderServiceImpl;
 import com.fluidops.iwb.api.ReadDataManagerImpl;
 import com.fluidops.iwb.provider.AbstractFlexProvider;
 import com.fluidops.util.UnitConverter;
@@ -202,6 +203,9 @@ public class ProviderEditTable extends FContainer{
 					    String providerSize = "n/a";
 					    if(provider.size != null)
 					    	providerSize = ""+provider.size;
+					    Long throughput = ProviderServiceImpl.getWriteThroughput(provider);
+					    if(throughput != null)
+					    	providerSize += " (" + throughput + " per second)";
 						return providerSize;
 					}
 			case 5: {
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for CSV data according to RFC 4180, returning one
+ * row at a time. Fields may be enclosed in double quotes, in which case
+ * they may contain separators and line breaks, and a double quote is
+ * escaped by another double quote. Lines may end with CRLF or LF.
+ * 
+ * In addition, the reader is lenient w.r.t. common deviations: surrounding
+ * whitespace of unquoted fields is ignored, quotes within unquoted fields
+ * are taken literally, and empty lines are skipped.
+ */
+public class CSVReader implements Closeable
+{
+	private static final int EOF = -1;
+	
+	private final Reader in;
+	
+	private final char separator;
+	
+	private final char[] buf = new char[65536];
+	private int pos = 0;
+	private int len = 0;
+	
+	private long lineNumber = 0;
+	
+	/**
+	 * @param in the input, buffered internally
+	 * @param separator the field separator, e.g. ',' or ';'
+	 */
+	public CSVReader(Reader in, char separator)
+	{
+		if (separator=='"' || separator=='\r' || separator=='\n')
+			throw new IllegalArgumentException("Illegal separator: " + separator);
+		this.in = in;
+		this.separator = separator;
+	}
+	
+	/**
+	 * Reads the next non-empty row.
+	 * 
+	 * @return the fields of the row, or null if the end of the input is reached
+	 * @throws IOException
+	 */
+	public List<String> readRow() throws IOException
+	{
+		List<String> row;
+		do
+		{
+			row = readLine();
+		}
+		while (row!=null && row.size()==1 && row.get(0).length()==0);
+		return row;
+	}
+	
+	/**
+	 * @return the number of lines read so far, counting line breaks
+	 * 			within quoted fields
+	 */
+	public long getLineNumber()
+	{
+		return lineNumber;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+	
+	/**
+	 * Reads the fields up to the next line break outside of quotes.
+	 */
+	private List<String> readLine() throws IOException
+	{
+		int c = read();
+		if (c==EOF)
+			return null;
+		
+		List<String> row = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		
+		while (true)
+		{
+			if (c==EOF || c=='\n' || c==separator)
+			{
+				row.add(quoted ? field.toString() : field.toString().trim());
+				if (c!=separator)
+				{
+					if (c=='\n')
+						lineNumber++;
+					return row;
+				}
+				field.setLength(0);
+				quoted = false;
+			}
+			else if (c=='\r')
+			{
+				// CR is part of the line break if followed by LF
+				if (peek()!='\n')
+					field.append('\r');
+			}
+			else if (c=='"' && !quoted && field.toString().trim().length()==0)
+			{
+				field.setLength(0);
+				quoted = true;
+				readQuoted(field);
+			}
+			else
+				field.append((char)c);
+			
+			c = read();
+		}
+	}
+	
+	/**
+	 * Reads the content of a quoted field up to its closing quote.
+	 * Characters following the closing quote are appended by the caller.
+	 */
+	private void readQuoted(StringBuilder field) throws IOException
+	{
+		while (true)
+		{
+			int c = read();
+			if (c==EOF)
+				return; // unterminated quote, take what we have
+			if (c=='"')
+			{
+				if (peek()!='"')
+					return;
+				read();
+			}
+			else if (c=='\n')
+				lineNumber++;
+			field.append((char)c);
+		}
+	}
+	
+	private int read() throws IOException
+	{
+		if (pos==len && !fill())
+			return EOF;
+		return buf[pos++];
+	}
+	
+	private int peek() throws IOException
+	{
+		if (pos==len && !fill())
+			return EOF;
+		return buf[pos];
+	}
+	
+	private boolean fill() throws IOException
+	{
+		len = in.read(buf, 0, buf.length);
+		pos = 0;
+		if (len<=0)
+		{
+			len = 0;
+			return false;
+		}
+		return true;
+	}
+}
@@ -195,7 +195,33 @@ public class Config extends DelegateConfig
     { 
         return delegate().getBoolean( "compressWikiInDatabase", false);
     }
-    
+
+    /**
+     * Maximum number of open connections to the wiki database
+     */
+    @ConfigDoc( name="sqlConnectionPoolSize",
+            desc="Maximum number of open connections to the wiki database. Default: 4",
+            category=Category.INT,
+            iwbCategory=IWBCategory.DATABASE,
+            type = Type.INTEGER )
+    public int getSQLConnectionPoolSize()
+    {
+        return delegate().getInt( "sqlConnectionPoolSize", 4);
+    }
+
+    /**
+     * Interval of the wiki storage compaction in hours
+     */
+    @ConfigDoc( name="wikiCompactionInterval",
+            desc="Interval in hours between the compactions of the wiki storage (migration to and cleanup of deduplicated contents), 0 disables compaction. Default: 24",
+            category=Category.INT,
+            iwbCategory=IWBCategory.DATABASE,
+            type = Type.INTEGER )
+    public int getWikiCompactionInterval()
+    {
+        return delegate().getInt( "wikiCompactionInterval", 24);
+    }
+
     /**
      * whether to support autocompletion
      */
@@ -545,6 +571,311 @@ public class Config extends DelegateConfig
         return delegate().getInt("queryTimeout", 30);
     }
 
+    /**
+     * Number of read connections (and data managers) held per repository 
+     * by ReadDataManagerImpl#getDataManager, which are striped over the 
+     * threads by thread id. Defaults to the number of available processors.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="readConnectionStripes", 
+            desc="Number of read connections per repository, striped over the threads for concurrent read access. Default: number of processors",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getReadConnectionStripes() 
+    {
+        return delegate().getInt("readConnectionStripes", Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Maximum number of query templates whose parsed form is cached
+     * by the data managers.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="parsedQueryCacheSize", 
+            desc="Maximum number of parsed SPARQL query templates kept in memory. Default: 1000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getParsedQueryCacheSize() 
+    {
+        return delegate().getInt("parsedQueryCacheSize", 1000);
+    }
+
+    /**
+     * Maximum number of rendered wiki pages kept in memory, 0 disables
+     * the cache.
+     *
+     * @return
+     */
+    @ConfigDoc( name="wikiPageCacheSize",
+            desc="Maximum number of rendered wiki pages kept in memory, 0 disables the cache. Default: 1000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getWikiPageCacheSize()
+    {
+        return delegate().getInt("wikiPageCacheSize", 1000);
+    }
+
+    /**
+     * Number of worker threads building the widgets of wiki pages in
+     * parallel, 0 builds the widgets sequentially on the request thread.
+     *
+     * @return
+     */
+    @ConfigDoc( name="widgetRenderingThreads",
+            desc="Number of widgets which may be built in parallel, 0 builds the widgets of a page sequentially. Default: 0",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getWidgetRenderingThreads()
+    {
+        return delegate().getInt("widgetRenderingThreads", 0);
+    }
+
+    /**
+     * Time in ms a page waits for its widgets when they are built in
+     * parallel. Widgets which are not finished by then are loaded
+     * asynchronously. Widgets taking longer are logged as slow.
+     *
+     * @return
+     */
+    @ConfigDoc( name="widgetRenderingTimeout",
+            desc="Time in ms a page waits for its widgets, slower widgets are loaded asynchronously. Default: 5000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getWidgetRenderingTimeout()
+    {
+        return delegate().getInt("widgetRenderingTimeout", 5000);
+    }
+
+    /**
+     * Time in ms an asynchronously loaded widget is waited for, before
+     * an error is shown in its place.
+     *
+     * @return
+     */
+    @ConfigDoc( name="widgetAsynchronousRenderingTimeout",
+            desc="Time in ms an asynchronously loaded widget is waited for before an error is shown. Default: 60000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getWidgetAsynchronousRenderingTimeout()
+    {
+        return delegate().getInt("widgetAsynchronousRenderingTimeout", 60000);
+    }
+
+    /**
+     * Time in ms after which the triple editor closes an open query result
+     * if no further values of the property are requested. Open results
+     * may block writes to the repository.
+     *
+     * @return
+     */
+    @ConfigDoc( name="tripleEditorCursorIdleTimeout",
+            desc="Time in ms an open query result of the triple editor is kept for loading further values, 0 to disable. Default: 3000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getTripleEditorCursorIdleTimeout()
+    {
+        return delegate().getInt("tripleEditorCursorIdleTimeout", 3000);
+    }
+
+    /**
+     * Number of statements written to the repository (and to the
+     * editorial change log) at once when adding statements in bulk.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="addToContextBatchSize", 
+            desc="Number of statements added to the repository per batch for bulk writes (e.g. provider runs). Default: 10000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getAddToContextBatchSize() 
+    {
+        return delegate().getInt("addToContextBatchSize", 10000);
+    }
+    
+    /**
+     * Whether provider runs update the data of the previous run
+     * differentially (i.e. only the added and removed statements
+     * are written) rather than replacing the whole context.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="providerDifferentialUpdate", 
+            desc="Whether provider runs write only the difference to the data of the previous run. Default: true",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.BOOLEAN)
+    public boolean getProviderDifferentialUpdate() 
+    {
+        return delegate().getBoolean("providerDifferentialUpdate", true);
+    }
+    
+    /**
+     * Number of worker threads running scheduled providers, i.e. the
+     * maximum number of providers gathering data in parallel.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="providerSchedulerThreads", 
+            desc="Number of scheduled providers which may run in parallel. Default: 4",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getProviderSchedulerThreads() 
+    {
+        return delegate().getInt("providerSchedulerThreads", 4);
+    }
+    
+    /**
+     * Number of worker threads running lookup providers in the background
+     * during page rendering.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="lookupProviderThreads", 
+            desc="Number of lookup provider runs which may run in parallel in the background. Default: 4",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getLookupProviderThreads() 
+    {
+        return delegate().getInt("lookupProviderThreads", 4);
+    }
+    
+    /**
+     * Time in ms a page request waits for a lookup provider if there is no
+     * cached data for the requested resource yet. If there is cached data
+     * (even if outdated), the page does not wait at all. Can be overridden
+     * per provider, see {@link com.fluidops.iwb.provider.AbstractFlexProvider#lookupTimeout}.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="lookupProviderTimeout", 
+            desc="Time in ms a page waits for a lookup provider if no data is cached for the page yet. Default: 2000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getLookupProviderTimeout() 
+    {
+        return delegate().getInt("lookupProviderTimeout", 2000);
+    }
+    
+    /**
+     * Time in ms after which a search provider (e.g. RDF, WIKI) that has
+     * not answered a search request is ignored for this request. The search
+     * providers are queried in parallel.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="searchProviderTimeout", 
+            desc="Time in ms after which a search provider that has not answered is skipped. Default: 20000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getSearchProviderTimeout() 
+    {
+        return delegate().getInt("searchProviderTimeout", 20000);
+    }
+    
+    /**
+     * Overall time in ms after which a search request is answered with the
+     * results of the search providers that have answered so far.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="searchTimeout", 
+            desc="Time in ms after which a search is answered with the results of the search providers answered so far. Default: 30000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getSearchTimeout() 
+    {
+        return delegate().getInt("searchTimeout", 30000);
+    }
+    
+    /**
+     * Delay in ms between two batches of incremental keyword index updates.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="keywordIndexUpdateInterval", 
+            desc="Delay in ms between two batches of incremental keyword index updates. Default: 1000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getKeywordIndexUpdateInterval() 
+    {
+        return delegate().getInt("keywordIndexUpdateInterval", 1000);
+    }
+    
+    /**
+     * The default maximum weight of the repository caches, per repository.
+     * The weight of an entry is 1 for simple values and the number of elements
+     * for collection-valued entries. A value of 0 or less disables the limit.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="cacheMaximumWeight", 
+            desc="Maximum weight (approx. number of cached elements) per repository cache. Can be overridden per cache, e.g. cacheMaximumWeight.LabelCache. Default: 500000",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getCacheMaximumWeight() 
+    {
+        return delegate().getInt("cacheMaximumWeight", 500000);
+    }
+    
+    /**
+     * The maximum weight of the repository cache with the given name (i.e.
+     * the simple class name, e.g. LabelCache), defaults to 
+     * {@link #getCacheMaximumWeight()}.
+     * 
+     * @param cacheName
+     * @return
+     */
+    public long getCacheMaximumWeight(String cacheName) 
+    {
+        return delegate().getLong("cacheMaximumWeight." + cacheName, getCacheMaximumWeight());
+    }
+    
+    /**
+     * The default time in seconds after which entries of the repository caches
+     * expire if not accessed. A value of 0 or less means that entries do not expire.
+     * 
+     * @return
+     */
+    @ConfigDoc( name="cacheExpireAfterAccess", 
+            desc="Time in seconds after which unused repository cache entries expire, 0 for no expiry. Can be overridden per cache, e.g. cacheExpireAfterAccess.LabelCache. Default: 0",
+            category=Category.INT,
+            iwbCategory=IWBCategory.CORE,
+            type = Type.INTEGER)
+    public int getCacheExpireAfterAccess() 
+    {
+        return delegate().getInt("cacheExpireAfterAccess", 0);
+    }
+    
+    /**
+     * The time in seconds after which entries of the repository cache with
+     * the given name expire if not accessed, defaults to 
+     * {@link #getCacheExpireAfterAccess()}.
+     * 
+     * @param cacheName
+     * @return
+     */
+    public long getCacheExpireAfterAccess(String cacheName) 
+    {
+        return delegate().getLong("cacheExpireAfterAccess." + cacheName, getCacheExpireAfterAccess());
+    }
+
     /**
      *  Whether editorial workflow show be enabled 
      * 
@@ -19,10 +19,13 @@
 package com.fluidops.iwb.util;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.openrdf.model.Statement;
 import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.MalformedQueryException;
@@ -130,11 +133,17 @@ public class QueryResultUtil
 	            tm.addColumn(name);
 	        int rowCounter = 0;
 	        
-	        // add the row content to the model
+	        // materialize the result and resolve all labels in one bulk lookup
+	        List<BindingSet> bindingSets = new ArrayList<BindingSet>();
 	        while (result.hasNext())
+	        	bindingSets.add(result.next());
+	        prefetchLabels(bindingSets, dm);
+	        
+	        // add the row content to the model
+	        for (BindingSet bindingSet : bindingSets)
 	        {
 	            List<FComponent> row = 
-	            	buildRow(result.next(), result.getBindingNames(), rowCounter, dm, valueCfg);
+	            	buildRow(bindingSet, result.getBindingNames(), rowCounter, dm, valueCfg);
 	            
 	            tm.addRow(row.toArray());
 	            rowCounter++;
@@ -239,6 +248,23 @@ public class QueryResultUtil
     
     
    
+    /**
+     * Resolves the labels of all values contained in the given binding sets
+     * with a single call to {@link ReadDataManager#getLabels(java.util.Collection)},
+     * such that rendering the individual cells is served from the label cache.
+     * 
+     * @param bindingSets
+     * @param dm
+     */
+    protected static void prefetchLabels(List<BindingSet> bindingSets, ReadDataManager dm)
+    {
+    	Set<Value> values = new HashSet<Value>();
+    	for (BindingSet bindingSet : bindingSets)
+    		for (Binding binding : bindingSet)
+    			values.add(binding.getValue());
+    	dm.getLabels(values);
+    }
+    
     /**
      * Build a particular row for the retrieved results, convenience method
      * 
@@ -25,6 +25,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 
 import org.apache.log4j.Logger;
 
@@ -35,7 +40,9 @@ import com.fluidops.util.Rand;
 import edu.umd.cs.findbugs.annotations.SuppressWarnings;
 
 /**
- * Convenience class for SQL interaction
+ * Convenience class for SQL interaction. Connections are taken from 
+ * a small pool (see {@link #borrowConnection(SQLType)}), each pooled
+ * connection caches its prepared statements.
  * 
  * @author as
  */
@@ -45,53 +52,74 @@ public abstract class SQL
 	
 	public static enum SQLType { MYSQL, H2SQL; }
 	
+	/**
+	 * Maximum number of prepared statements cached per connection
+	 */
+	private static final int STATEMENT_CACHE_SIZE = 32;
+	
+	/**
+	 * Version of the schema after all data migrations have been applied,
+	 * see {@link #getSchemaVersion(Connection)}:
+	 * 1 - the numeric revision dates (revisions#revdate) have been filled
+	 */
+	private static final int SCHEMA_VERSION = 1;
+	
 	private static SQL sql = null;
 	
 	/**
-	 * Retrieve the (cached) SQL connection for the given type, e.g. an
-	 * initialized MySQL connection. This method retries once. The 
-	 * established connection is maintained in a singleton variable until
-	 * it is closed.
+	 * Borrow a connection of the given type from the connection pool, e.g. 
+	 * an initialized MySQL connection. This method retries once. The pool
+	 * is maintained in a singleton variable until it is closed. The caller 
+	 * must return the connection using {@link #releaseConnection(PooledConnection)}.
 	 * 
 	 * @param sqlType
 	 * @return
 	 * @throws SQLException
 	 */
-	public static Connection getConnection(SQLType sqlType) throws SQLException {
+	public static PooledConnection borrowConnection(SQLType sqlType) throws SQLException {
 		try {
 	    	try { 
-	    		return getConnectionInternal(sqlType);
+	    		return getInstance(sqlType).borrow();
 	    	} catch (SQLException e) {
 	    		// retry once
-	    		return getConnectionInternal(sqlType);
+	    		return getInstance(sqlType).borrow();
 	    	}
     	} catch (SQLException e) {
     		throw new SQLException("Connection to SQL Server could not be established", e);
     	}
 	}
 	
-	private static Connection getConnectionInternal(SQLType sqlType) throws SQLException {
-		if (sql==null || !sql.getConnection().isValid(1))  {        	
-   		
+	/**
+	 * Return a connection to the pool it was borrowed from, null is ignored.
+	 * 
+	 * @param conn
+	 */
+	public static void releaseConnection(PooledConnection conn) {
+		if (conn!=null)
+			conn.owner.release(conn);
+	}
+	
+	private static synchronized SQL getInstance(SQLType sqlType) throws SQLException {
+		if (sql==null)  {        	
     		SQL tempSql = null;
     		try {
         		tempSql = instanceFor(sqlType); 
-        		tempSql.createIWBTablesIfNotExist();
+        		tempSql.initialize();
     		} catch (SQLException e) {
     			if (tempSql!=null)
     				tempSql.closeInternal();
     			throw e;
     		}
-            sql = tempSql;	// only here we have a correct connections
+            sql = tempSql;	// only here we have a correct connection
         }              
-            
-        return sql.getConnection();
+        return sql;
 	}
 	
 	/**
-	 * Close the underlying cached connection, if any.
+	 * Close the connection pool, if any. Connections currently borrowed
+	 * are closed when they are released.
 	 */
-	public static void close() {
+	public static synchronized void close() {
 		if (sql!=null) {
     		try {
 				sql.closeInternal();
@@ -141,29 +169,35 @@ public abstract class SQL
      * Verify if the cached connection is working, if any
      */
     public static void verifyConnection() {
-    	if (sql==null)
+    	SQL current = sql;
+    	if (current==null)
     		return;
-    	verifyConnection(sql.getType());
+    	verifyConnection(current.getType());
     }
 	
 	/**
 	 * Verify if SQL connection is working
 	 */
 	public static void verifyConnection(SQLType sqlType) {
+		PooledConnection conn = null;
     	try {
-			Connection conn = getConnection(sqlType);
-			if (!conn.isValid(2))
+			conn = borrowConnection(sqlType);
+			if (!conn.getConnection().isValid(2))
 				throw new Exception("connection timed out.");
 		} catch (Exception e) {
 			throw new RuntimeException("Connection to SQL Server could not be established: " + e.getMessage());
-		}    	
+		} finally {
+			releaseConnection(conn);
+		}
     }
 	
 	public static boolean isWritable(SQLType sqlType) {
+    	PooledConnection pooled = null;
     	PreparedStatement stat = null;
     	Statement deleteStmt = null;
     	try {
-    		Connection conn = getConnection(sqlType);
+    		pooled = borrowConnection(sqlType);
+    		Connection conn = pooled.getConnection();
 
     		String testString = Rand.getIncrementalFluidUUID();
     		stat = conn.prepareStatement("insert into writetest values (?);");
@@ -179,6 +213,7 @@ public abstract class SQL
 		}  finally {
 			closeQuietly(stat);
 			closeQuietly(deleteStmt);
+			releaseConnection(pooled);
 		}
     }  
 	
@@ -206,21 +241,78 @@ public abstract class SQL
 		throw new RuntimeException("Unsupported SQL type: " + sqlType);
 	}	
 	
-	private final Connection conn;
 	private final SQLType sqlType;
+	
+	/**
+	 * Limits the number of open connections to the pool size
+	 */
+	private final Semaphore permits;
+	
+	private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<PooledConnection>();
+	
+	private volatile boolean closed = false;
 		
-	private SQL(SQLType sqlType) throws SQLException	{
+	private SQL(SQLType sqlType) {
 		this.sqlType = sqlType;
-		conn = openConnection();
+		this.permits = new Semaphore(Math.max(1, Config.getConfig().getSQLConnectionPoolSize()), true);
 	}
 
-	private Connection openConnection() throws SQLException {
+	/**
+	 * Opens the first connection and creates the tables if necessary
+	 */
+	private void initialize() throws SQLException {
 		initializeJDBC();
-		return newConnection();		
+		Connection conn = newConnection();
+		try {
+			createIWBTablesIfNotExist(conn);
+		} catch (SQLException e) {
+			closeConnectionQuietly(conn);
+			throw e;
+		}
+		idle.offer(new PooledConnection(this, conn));
 	}
 
-	public Connection getConnection() {
-		return conn;
+	/**
+	 * Returns an idle connection of the pool, or opens a new connection if
+	 * there is none and the pool size is not exceeded. Waits for a connection 
+	 * to be released otherwise. Idle connections which are no longer valid
+	 * are closed.
+	 */
+	private PooledConnection borrow() throws SQLException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection");
+		}
+		boolean success = false;
+		try {
+			PooledConnection res;
+			while ((res = idle.poll())!=null) {
+				if (res.isValid()) {
+					success = true;
+					return res;
+				}
+				res.close();
+			}
+			res = new PooledConnection(this, newConnection());
+			success = true;
+			return res;
+		} finally {
+			if (!success)
+				permits.release();
+		}
+	}
+	
+	private void release(PooledConnection conn) {
+		try {
+			if (closed || conn.isClosed())
+				conn.close();
+			else
+				idle.offer(conn);
+		} finally {
+			permits.release();
+		}
 	}
 	
 	public SQLType getType() {
@@ -228,14 +320,173 @@ public abstract class SQL
 	}
 	
 	public void closeInternal() {
-		if (conn!=null) {
-			closeConnectionQuietly(conn);			
-    	}
+		closed = true;
+		PooledConnection conn;
+		while ((conn = idle.poll())!=null)
+			conn.close();
+	}
+	
+	/**
+	 * A connection of the pool. Prepared statements are cached per 
+	 * connection, i.e. statements obtained from {@link #prepareStatement(String)}
+	 * must not be closed by the caller.
+	 */
+	public static class PooledConnection {
+		
+		private final SQL owner;
+		private final Connection conn;
+		
+		private final Map<String,PreparedStatement> statements = new LinkedHashMap<String,PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,PreparedStatement> eldest) {
+				if (size()<=STATEMENT_CACHE_SIZE)
+					return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+		
+		private PooledConnection(SQL owner, Connection conn) {
+			this.owner = owner;
+			this.conn = conn;
+		}
+		
+		public Connection getConnection() {
+			return conn;
+		}
+		
+		/**
+		 * Returns the (cached) prepared statement for the given SQL 
+		 * with its parameters cleared. The statement must not be closed.
+		 * 
+		 * @param query
+		 * @return
+		 * @throws SQLException
+		 */
+		public PreparedStatement prepareStatement(String query) throws SQLException {
+			PreparedStatement res = statements.get(query);
+			if (res==null) {
+				res = conn.prepareStatement(query);
+				statements.put(query, res);
+			}
+			else
+				res.clearParameters();
+			return res;
+		}
+		
+		private boolean isValid() {
+			try {
+				return conn.isValid(1);
+			} catch (SQLException e) {
+				return false;
+			}
+		}
+		
+		private boolean isClosed() {
+			try {
+				return conn.isClosed();
+			} catch (SQLException e) {
+				return true;
+			}
+		}
+		
+		private void close() {
+			for (PreparedStatement stat : statements.values())
+				closeQuietly(stat);
+			statements.clear();
+			closeConnectionQuietly(conn);
+		}
 	}
 	
 	protected abstract Connection newConnection() throws SQLException;
 	
-	protected abstract void createIWBTablesIfNotExist() throws SQLException;
+	protected abstract void createIWBTablesIfNotExist(Connection conn) throws SQLException;
+	
+	/**
+	 * Returns true if the given table has a column of the given name
+	 */
+	protected static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+		ResultSet rs = null;
+		try {
+			rs = conn.getMetaData().getColumns(null, null, table, null);
+			while (rs.next())
+				if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME")))
+					return true;
+			return false;
+		} finally {
+			closeQuietly(rs);
+		}
+	}
+	
+	/**
+	 * Returns the version of the schema as recorded in the schemaversion
+	 * table, which is created with version 0 if it does not exist.
+	 */
+	protected static int getSchemaVersion(Connection conn) throws SQLException {
+		Statement stat = null;
+		ResultSet rs = null;
+		try {
+			stat = conn.createStatement();
+			if (!hasTable(conn, "schemaversion")) {
+				stat.executeUpdate("create table schemaversion (version INT)");
+				stat.executeUpdate("insert into schemaversion values (0)");
+				return 0;
+			}
+			rs = stat.executeQuery("select version from schemaversion");
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			closeQuietly(rs);
+			closeQuietly(stat);
+		}
+	}
+	
+	/**
+	 * Records the version of the schema, see {@link #getSchemaVersion(Connection)}
+	 */
+	protected static void setSchemaVersion(Connection conn, int version) throws SQLException {
+		PreparedStatement stat = null;
+		try {
+			stat = conn.prepareStatement("update schemaversion set version=?");
+			stat.setInt(1, version);
+			stat.executeUpdate();
+		} finally {
+			closeQuietly(stat);
+		}
+	}
+	
+	/**
+	 * Returns true if the given table exists (in any case)
+	 */
+	private static boolean hasTable(Connection conn, String table) throws SQLException {
+		ResultSet rs = null;
+		try {
+			rs = conn.getMetaData().getTables(null, null, null, null);
+			while (rs.next())
+				if (table.equalsIgnoreCase(rs.getString("TABLE_NAME")))
+					return true;
+			return false;
+		} finally {
+			closeQuietly(rs);
+		}
+	}
+	
+	/**
+	 * Returns true if the given table has an index of the given name
+	 */
+	protected static boolean hasIndex(Connection conn, String table, String index) throws SQLException {
+		ResultSet rs = null;
+		try {
+			rs = conn.getMetaData().getIndexInfo(null, null, table, false, true);
+			while (rs.next())
+				if (index.equalsIgnoreCase(rs.getString("INDEX_NAME")))
+					return true;
+			return false;
+		} finally {
+			closeQuietly(rs);
+		}
+	}
 	
 	private void initializeJDBC() {
 		try {
@@ -301,12 +552,11 @@ public abstract class SQL
 		            Config.getConfig().getMySQLServeradress() + "/iwb?user=" + user + "&password=" + password + "&autoReconnect=true");
 		}
 		
-		protected void createIWBTablesIfNotExist() throws SQLException {
+		protected void createIWBTablesIfNotExist(Connection conn) throws SQLException {
 			 // check if tables exists, if not create them (revisions, writetest)
-	        ResultSet revisions = null, writetest=null;
+	        ResultSet revisions = null, writetest=null, wikicontent=null;
 	        Statement stat=null;
 	        try {
-	        	Connection conn = getConnection();
 	        	revisions = conn.getMetaData().getTables(null, null, "revisions", null);
 	        	if (!revisions.next())
 	            {
@@ -322,6 +572,49 @@ public abstract class SQL
 	                closeQuietly(stat);
 	            }
 	        	
+	        	// numeric revision date, the date column is text (LONG is MEDIUMTEXT in MySQL)
+	        	// and thus cannot be used to sort by an index
+	        	if (!hasColumn(conn, "revisions", "revdate"))
+	        	{
+	        		stat = conn.createStatement();
+	        		stat.executeUpdate("alter table revisions add revdate BIGINT");
+	        		closeQuietly(stat);
+	        	}
+	        	if (!hasIndex(conn, "revisions", "revdate_revisions"))
+	        	{
+	        		stat = conn.createStatement();
+	        		stat.executeUpdate("create index revdate_revisions on revisions (revdate)");
+	        		closeQuietly(stat);
+	        	}
+	        	if (!hasIndex(conn, "revisions", "name_revdate_revisions"))
+	        	{
+	        		stat = conn.createStatement();
+	        		stat.executeUpdate("create index name_revdate_revisions on revisions (name(255), revdate)");
+	        		closeQuietly(stat);
+	        	}
+	        	if (getSchemaVersion(conn)<SCHEMA_VERSION)
+	        	{
+	        		stat = conn.createStatement();
+	        		stat.executeUpdate("update revisions set revdate=cast(date as signed) where revdate is null");
+	        		closeQuietly(stat);
+	        		setSchemaVersion(conn, SCHEMA_VERSION);
+	        	}
+	        	
+	        	// deduplicated contents, referenced from revisions by hash
+	        	if (!hasColumn(conn, "revisions", "hash"))
+	        	{
+	        		stat = conn.createStatement();
+	        		stat.executeUpdate("alter table revisions add hash VARCHAR(40)");
+	        		closeQuietly(stat);
+	        	}
+	        	wikicontent = conn.getMetaData().getTables(null, null, "wikicontent", null);
+	        	if (!wikicontent.next())
+	        	{
+	        		stat = conn.createStatement();
+	        		stat.executeUpdate("create table wikicontent(hash VARCHAR(40) primary key, content TEXT)");
+	        		closeQuietly(stat);
+	        	}
+	        	
 	        	writetest = conn.getMetaData().getTables(null, null, "writetest", null);
 	            if (!writetest.next()) {
 	            	stat = conn.createStatement();
@@ -335,6 +628,7 @@ public abstract class SQL
 	        	closeQuietly(stat);
 	        	closeQuietly(revisions);
 	        	closeQuietly(writetest);
+	        	closeQuietly(wikicontent);
 	        } 
 		}
 	}
@@ -364,13 +658,12 @@ public abstract class SQL
 			return "org.h2.Driver";
 		}	
 		
-		protected void createIWBTablesIfNotExist() throws SQLException {
+		protected void createIWBTablesIfNotExist(Connection conn) throws SQLException {
 			
 			// check if revisions table exists, if not create it
-			ResultSet revisions = null, writetest=null;
+			ResultSet revisions = null, writetest=null, wikicontent=null;
 			Statement stat=null;
 	        try {
-	        	Connection conn = getConnection();
 		        revisions = conn.getMetaData().getTables(null, null, "REVISIONS", null);
 		
 		        if (!revisions.next())
@@ -383,8 +676,50 @@ public abstract class SQL
 		            closeQuietly(stat);
 		        }
 		        
+		        // numeric revision date, used for sorting as in MySQL
+		        if (!hasColumn(conn, "REVISIONS", "revdate"))
+		        {
+		        	stat = conn.createStatement();
+		        	stat.executeUpdate("alter table revisions add revdate bigint");
+		        	closeQuietly(stat);
+		        }
+		        if (!hasIndex(conn, "REVISIONS", "revdate_revisions"))
+		        {
+		        	stat = conn.createStatement();
+		        	stat.executeUpdate("create index revdate_revisions on revisions (revdate)");
+		        	closeQuietly(stat);
+		        }
+		        if (!hasIndex(conn, "REVISIONS", "name_revdate_revisions"))
+		        {
+		        	stat = conn.createStatement();
+		        	stat.executeUpdate("create index name_revdate_revisions on revisions (name, revdate)");
+		        	closeQuietly(stat);
+		        }
+		        if (getSchemaVersion(conn)<SCHEMA_VERSION)
+		        {
+		        	stat = conn.createStatement();
+		        	stat.executeUpdate("update revisions set revdate=date where revdate is null");
+		        	closeQuietly(stat);
+		        	setSchemaVersion(conn, SCHEMA_VERSION);
+		        }
+		        
+		        // deduplicated contents, referenced from revisions by hash
+		        if (!hasColumn(conn, "REVISIONS", "hash"))
+		        {
+		        	stat = conn.createStatement();
+		        	stat.executeUpdate("alter table revisions add hash varchar");
+		        	closeQuietly(stat);
+		        }
+		        wikicontent = conn.getMetaData().getTables(null, null, "WIKICONTENT", null);
+		        if (!wikicontent.next())
+		        {
+		        	stat = conn.createStatement();
+		        	stat.executeUpdate("create table wikicontent (hash varchar primary key, content varchar)");
+		        	closeQuietly(stat);
+		        }
+		        
 		        // check if revisions table exists, if not create it
-		        writetest = conn.getMetaData().getTables(null, null, "writetest", null);
+		        writetest = conn.getMetaData().getTables(null, null, "WRITETEST", null);
 		        if (!writetest.next()) {
 		        	stat = conn.createStatement();
 		        	stat.executeUpdate("CREATE TABLE writetest (name VARCHAR);");
@@ -397,6 +732,7 @@ public abstract class SQL
 	        	closeQuietly(stat);
 	        	closeQuietly(revisions);
 	        	closeQuietly(writetest);
+	        	closeQuietly(wikicontent);
 	        }
 		}
 	}
@@ -468,9 +468,10 @@ public class ChartWidget extends AbstractWidget<ChartWidget.Config>
                 int maxvalues = values.size();
                 String[] labelsArray = new String[maxvalues];
                 Paint[] colorArray = new Color[maxvalues];
+                Map<Value, String> labelMap = globalDm.getLabels(labels);
                 for (int i = 0; i < maxvalues; i++)
                 {
-                    String label = globalDm.getLabel(labels.elementAt(i));
+                    String label = getLabel(globalDm, labelMap, labels.elementAt(i));
                     
                     labelsArray[i] = label;
                     colorArray[i] = new Color(200 - 200 * i / maxvalues,
@@ -539,7 +540,7 @@ public class ChartWidget extends AbstractWidget<ChartWidget.Config>
     
                     for (int i = 0; i < maxvalues; i++)
                     {
-                        labelsArray[i] = globalDm.getLabel(labels.elementAt(i));
+                        labelsArray[i] = getLabel(globalDm, labelMap, labels.elementAt(i));
                         for (int j = 0; j < outputs.length; j++)
                             valuesArray[i][j] = values.elementAt(i).elementAt(j)
                                     .doubleValue();
@@ -760,6 +761,16 @@ public class ChartWidget extends AbstractWidget<ChartWidget.Config>
         return null; // illegal user input
     }
 
+    /**
+     * Returns the label of the value from the bulk label lookup, falling
+     * back to the label of the value itself if it is not contained.
+     */
+    private static String getLabel(ReadDataManager dm, Map<Value, String> labelMap, Value value)
+    {
+        String label = labelMap.get(value);
+        return label!=null ? label : dm.getLabel(value);
+    }
+    
     /**
      * 
      * @param output
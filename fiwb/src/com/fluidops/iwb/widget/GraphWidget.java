@@ -18,6 +18,7 @@
 
 package com.fluidops.iwb.widget;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -231,6 +232,7 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
         try
         {
 	    		res = dm.getStatementsAsList( (Resource)value, null, null, false);
+	    		prefetchLabels(dm, res, spread, true);
 	    		
 	        	JSONObject obj = createNode(value, rep);
 	          
@@ -285,6 +287,28 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
 		
 	}
 
+	/**
+	 * Resolves the labels of the nodes (and predicates) of the first limit
+	 * statements in one bulk call, such that the subsequent per-node calls
+	 * to {@link ReadDataManager#getLabel(Value)} are answered from the cache.
+	 * 
+	 * @param dm
+	 * @param stmts
+	 * @param limit the maximum number of statements that will be rendered
+	 * @param outgoing if true, the objects are collected, the subjects otherwise
+	 */
+	private static void prefetchLabels(ReadDataManager dm, List<Statement> stmts, int limit, boolean outgoing)
+	{
+		Set<Value> values = new HashSet<Value>();
+		for (int i=0; i<stmts.size() && i<limit; i++)
+		{
+			Statement st = stmts.get(i);
+			values.add(st.getPredicate());
+			values.add(outgoing ? st.getObject() : st.getSubject());
+		}
+		dm.getLabels(values);
+	}
+
 	private JSONObject createNode(Value value, Repository rep) {
 		
         ReadWriteDataManager dm = null;
@@ -512,6 +536,7 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
 			int edgeCount = 0;
 
 			List<Statement> res = dm.getStatementsAsList((URI)value, null, null, false);
+			prefetchLabels(dm, res, spread+1, true);
 
 			JSONArray children = new JSONArray();
             Iterator<Statement> it = res.iterator();
@@ -570,6 +595,7 @@ public class GraphWidget extends AbstractWidget<GraphWidget.Config>
 			}
 
 			res = dm.getStatementsAsList(null, null, (URI)value, false);
+			prefetchLabels(dm, res, spread+1, false);
             Iterator<Statement> it2 = res.iterator();
 			while (it2.hasNext() && edgeCount <= spread) 
 			{
@@ -18,7 +18,9 @@
 
 package com.fluidops.iwb.widget;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 import org.apache.commons.lang.StringEscapeUtils;
@@ -260,6 +262,10 @@ public class TagCloudWidget extends AbstractWidget<TagCloudWidget.Config>
 			// namesList.get(0) = URI
 			// namesList.get(1) = Weight
 			List<String> namesList = result.getBindingNames();
+			
+			// tags are collected first, such that the labels can be resolved in one go
+			List<Value> tagValues = new ArrayList<Value>();
+			List<Double> tagWeights = new ArrayList<Double>();
 
 			// Iterate through the TupleQueryResult
 			// The TupleQueryResult contains BindingSet. If set
@@ -287,10 +293,8 @@ public class TagCloudWidget extends AbstractWidget<TagCloudWidget.Config>
 				try
 				{
 					double weight_double = Double.valueOf(weight.getValue().stringValue());
-                    // Tag: Label, URI, Value, Weight
-                    cloud.addTag(new Tag(dm.getLabelHTMLEncoded(uri.getValue()),
-                            buildLinkToResourceOrQueryResults(
-                                    uri.getValue(), rq), weight_double));
+					tagValues.add(uri.getValue());
+					tagWeights.add(weight_double);
 
 				} // try
 				catch ( NumberFormatException e )
@@ -301,6 +305,15 @@ public class TagCloudWidget extends AbstractWidget<TagCloudWidget.Config>
 				} // catch
 
 			} // while
+			
+			Map<Value, String> labels = dm.getLabels(tagValues);
+			for (int i = 0; i < tagValues.size(); i++)
+			{
+                // Tag: Label, URI, Value, Weight
+                cloud.addTag(new Tag(StringEscapeUtils.escapeHtml(labels.get(tagValues.get(i))),
+                        buildLinkToResourceOrQueryResults(
+                                tagValues.get(i), rq), tagWeights.get(i)));
+			}
 
 		} // try
 		catch ( MalformedQueryException e )
@@ -43,6 +43,7 @@ import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.RDFS;
 import org.openrdf.model.vocabulary.XMLSchema;
 import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.repository.RepositoryException;
 
 import com.fluidops.ajax.FClientUpdate;
 import com.fluidops.ajax.FClientUpdate.Prio;
@@ -82,6 +83,7 @@ import com.fluidops.iwb.api.editor.TripleEditorConstants;
 import com.fluidops.iwb.api.editor.TripleEditorPropertyInfo;
 import com.fluidops.iwb.api.editor.TripleEditorSource;
 import com.fluidops.iwb.api.editor.TripleEditorSourceFactory;
+import com.fluidops.iwb.api.editor.TripleEditorSourceURIOnDemand;
 import com.fluidops.iwb.api.editor.TripleEditorStatement;
 import com.fluidops.iwb.autocompletion.AutoCompleteFactory;
 import com.fluidops.iwb.autocompletion.AutoCompletionUtil;
@@ -683,6 +685,7 @@ public class TripleEditorWidget extends
 
             try
             {
+                releaseTripleSource();
                 Context ctx =
                         StatementInputHelper.saveStatementInputs(pc.repository,
                                 new ArrayList<Statement>(),
@@ -715,6 +718,7 @@ public class TripleEditorWidget extends
 
             try
             {
+                releaseTripleSource();
                 StatementInputHelper.saveStatementInputs(pc.repository, addS,
                         new ArrayList<Statement>(),
                         new ArrayList<Pair<Statement, Statement>>(),
@@ -748,6 +752,7 @@ public class TripleEditorWidget extends
         {
             try
             {
+                releaseTripleSource();
                 ArrayList<Statement> rm = new ArrayList<Statement>();
                 rm.add(key.getAssociatedStatement());
 
@@ -851,6 +856,7 @@ public class TripleEditorWidget extends
             Context ctx;
             try
             {
+                releaseTripleSource();
                 ctx =
                         StatementInputHelper.saveStatementInputs(pc.repository,
                                 add, del, chg, ContextLabel.DATA_INPUT_FORM);
@@ -906,7 +912,15 @@ public class TripleEditorWidget extends
         	CardinalityChecker cardinalityChecker = predToCardinality.get(st.getPredicate());
         	if (cardinalityChecker==null) { 
         		// TODO maybe use triple source later on to have advantage of cache
-        		int oldCardinality = dm.getStatementsAsList(st.getSubject(), st.getPredicate(), null, false).size();
+        		int oldCardinality;
+        		try
+        		{
+        			oldCardinality = dm.countStatements(st.getSubject(), st.getPredicate(), null, false);
+        		}
+        		catch (RepositoryException e)
+        		{
+        			throw new RuntimeException(e);
+        		}
         		cardinalityChecker = new CardinalityChecker(st.getPredicate(), ps.maxCardinality, ps.minCardinality, oldCardinality);
         		predToCardinality.put(st.getPredicate(), cardinalityChecker);
         	}
@@ -1729,6 +1743,7 @@ public class TripleEditorWidget extends
             c.editMode = EditMode.READ_ONLY;
 
         // initialize the triple source depending on the type
+        releaseTripleSource();
         if (val instanceof URI)
     		tripleSource = TripleEditorSourceFactory.tripleEditorSourceForURI((URI)val,
     				c.tripleEditorSource==null?null:c.tripleEditorSource.tripleEditorSourceForURI,
@@ -2458,6 +2473,16 @@ public class TripleEditorWidget extends
         return freeAddingFields;
     }
     
+    /**
+     * Releases the open query results of the triple source before the
+     * statements are modified, such that they do not block the write.
+     */
+    private void releaseTripleSource()
+    {
+        if (tripleSource instanceof TripleEditorSourceURIOnDemand)
+            ((TripleEditorSourceURIOnDemand)tripleSource).close();
+    }
+
     /**
      * Creates a button to delete all outgoing statements of the current resource that is editable
      * (determined by {@link ReadDataManager#isEditableStatement(Statement)})
@@ -2487,6 +2512,7 @@ public class TripleEditorWidget extends
                 // delete the found editable statements
                 KeywordIndexAPI.removeSemanticLinks(delStmts);
 
+                releaseTripleSource();
                 ReadWriteDataManager wdm = ReadWriteDataManagerImpl.openDataManager(pc.repository);
                 try {
                 	wdm.removeInSpecifiedContexts(delStmts, Context.getFreshUserContext(ContextLabel.DATA_INPUT_FORM));
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.widget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.fluidops.ajax.RequestUtils;
+import com.fluidops.ajax.components.FAsynchContainer;
+import com.fluidops.ajax.components.FComponent;
+import com.fluidops.iwb.util.Config;
+import com.fluidops.iwb.widget.WidgetEmbeddingError.ErrorType;
+import com.fluidops.util.Singleton;
+import com.fluidops.util.user.UserContext;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Builds the components of the widgets of a page, i.e. runs
+ * {@link Widget#getComponentUAE(String)} including the queries and the
+ * result materialization of the widgets.
+ * 
+ * If enabled (see {@link Config#getWidgetRenderingThreads()}), the widgets
+ * of a page are built concurrently on a bounded pool of worker threads. The
+ * page waits for its widgets until the page deadline (see
+ * {@link Config#getWidgetRenderingTimeout()}) has passed, widgets which are
+ * not finished by then are rendered as placeholder which loads the widget
+ * asynchronously once it is available. If the pool is busy, the widgets are
+ * built on the request thread.
+ * 
+ * Widgets are built sequentially on the request thread if parallel rendering
+ * is disabled, within ajax requests (client updates are registered per
+ * thread) and within a worker thread (i.e. for nested widgets).
+ * 
+ * The time required to build each widget is recorded per widget class, see
+ * {@link #getStatistics()}. Widgets taking longer than the page deadline
+ * are logged, also if they are built sequentially.
+ */
+public class WidgetRenderer
+{
+	private static final Logger logger = Logger.getLogger(WidgetRenderer.class.getName());
+	
+	private static Singleton<WidgetRenderer> instance = new Singleton<WidgetRenderer>() 
+	{
+		protected WidgetRenderer createInstance() throws Exception 
+		{ 
+			return new WidgetRenderer(Config.getConfig().getWidgetRenderingThreads()); 
+		}
+	};
+	
+	/**
+	 * Marks the worker threads, such that nested widgets are built sequentially
+	 */
+	private static final ThreadLocal<Boolean> workerThread = new ThreadLocal<Boolean>();
+	
+	/**
+	 * The executor, null if parallel rendering is disabled
+	 */
+	private final ThreadPoolExecutor executor;
+	
+	private final ConcurrentMap<String,WidgetTiming> timings = new ConcurrentHashMap<String,WidgetTiming>();
+	
+	/**
+	 * instance getter
+	 */
+	public static WidgetRenderer getInstance()
+	{
+		return instance.instance();
+	}
+	
+	private WidgetRenderer(int nThreads)
+	{
+		if (nThreads<=0)
+		{
+			executor = null;
+			return;
+		}
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 60L, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(nThreads*4),
+				new ThreadFactoryBuilder().setNameFormat("IWB Widget Rendering %d").setDaemon(true).build());
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Builds the components of the given widgets.
+	 * 
+	 * @param widgets the widgets, with the page context and mapping set
+	 * @param ids the component ids of the widgets (same order)
+	 * @return the components of the widgets (same order), a {@link PendingWidget}
+	 * 			for each widget not finished within the page deadline, an error
+	 * 			label for each widget which failed
+	 */
+	public List<FComponent> getComponents(List<? extends Widget<?>> widgets, List<String> ids)
+	{
+		List<FComponent> res = new ArrayList<FComponent>(widgets.size());
+		
+		if (executor==null || widgets.size()<2 || RequestUtils.isAjaxThread() || workerThread.get()!=null)
+		{
+			for (int i=0; i<widgets.size(); i++)
+			{
+				try
+				{
+					res.add(getComponent(widgets.get(i), ids.get(i)));
+				}
+				catch (RuntimeException e)
+				{
+					// as in the parallel case, a failing widget must not break the page
+					res.add(getErrorLabel(ids.get(i), e));
+				}
+			}
+			return res;
+		}
+		
+		List<Future<FComponent>> futures = new ArrayList<Future<FComponent>>(widgets.size());
+		final UserContext user = UserContext.get();
+		for (int i=0; i<widgets.size(); i++)
+			futures.add(submit(widgets.get(i), ids.get(i), user));
+		
+		long deadline = System.currentTimeMillis() + Math.max(0, Config.getConfig().getWidgetRenderingTimeout());
+		for (int i=0; i<widgets.size(); i++)
+		{
+			Widget<?> widget = widgets.get(i);
+			String id = ids.get(i);
+			Future<FComponent> future = futures.get(i);
+			try
+			{
+				res.add(future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			}
+			catch (TimeoutException e)
+			{
+				logger.debug("Widget " + widget.getClass().getSimpleName() + " (" + id 
+						+ ") exceeds the page deadline, loading it asynchronously");
+				res.add(new PendingWidget(id, future));
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				res.add(new PendingWidget(id, future));
+			}
+			catch (ExecutionException e)
+			{
+				res.add(getErrorLabel(id, e));
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * @return the time required to build the widgets so far, per widget class 
+	 */
+	public Map<String,WidgetTiming> getStatistics()
+	{
+		return Collections.unmodifiableMap(new TreeMap<String,WidgetTiming>(timings));
+	}
+	
+	/**
+	 * Removes all queued widgets. Widgets in progress are not interrupted.
+	 */
+	public void shutdown()
+	{
+		if (executor==null)
+			return;
+		executor.shutdown();
+		executor.getQueue().clear();
+	}
+	
+	/**
+	 * Builds the widget on a worker thread, or on the current thread
+	 * if no worker is available.
+	 */
+	private Future<FComponent> submit(final Widget<?> widget, final String id, final UserContext user)
+	{
+		final Thread caller = Thread.currentThread();
+		FutureTask<FComponent> task = new FutureTask<FComponent>(new Callable<FComponent>() 
+		{
+			@Override
+			public FComponent call()
+			{
+				boolean worker = Thread.currentThread()!=caller;
+				if (worker)
+				{
+					workerThread.set(Boolean.TRUE);
+					UserContext.set(user);
+				}
+				try
+				{
+					return getComponent(widget, id);
+				}
+				finally
+				{
+					if (worker)
+					{
+						UserContext.set(null);
+						workerThread.remove();
+					}
+				}
+			}
+		});
+		
+		try
+		{
+			executor.execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// pool is busy (or shut down)
+			task.run();
+		}
+		return task;
+	}
+	
+	/**
+	 * Builds the component and records the time required
+	 */
+	private FComponent getComponent(Widget<?> widget, String id)
+	{
+		long start = System.currentTimeMillis();
+		try
+		{
+			return widget.getComponentUAE(id);
+		}
+		finally
+		{
+			long duration = System.currentTimeMillis() - start;
+			String widgetClass = widget.getClass().getName();
+			WidgetTiming timing = timings.get(widgetClass);
+			if (timing==null)
+			{
+				timings.putIfAbsent(widgetClass, new WidgetTiming());
+				timing = timings.get(widgetClass);
+			}
+			timing.record(duration);
+			
+			if (duration > Config.getConfig().getWidgetRenderingTimeout())
+				logger.info("Slow widget " + widget.getClass().getSimpleName() + " (" + id + "): built in " + duration + " ms");
+			else if (logger.isDebugEnabled())
+				logger.debug("Widget " + widget.getClass().getSimpleName() + " (" + id + ") built in " + duration + " ms");
+		}
+	}
+	
+	private static FComponent getErrorLabel(String id, Exception e)
+	{
+		Throwable cause = e instanceof ExecutionException && e.getCause()!=null ? e.getCause() : e;
+		logger.error(cause.getMessage(), cause);
+		return WidgetEmbeddingError.getErrorLabel(id, ErrorType.EXCEPTION, cause.toString());
+	}
+	
+	/**
+	 * Placeholder for a widget which was not finished within the page
+	 * deadline, shows the widget once it is available, or an error if
+	 * it is not available within the asynchronous rendering timeout.
+	 */
+	public static class PendingWidget extends FAsynchContainer
+	{
+		private final String widgetId;
+		private final Future<FComponent> future;
+		
+		private PendingWidget(String widgetId, Future<FComponent> future)
+		{
+			super(widgetId + "_p", "<div class=\"statusLoading\" />");
+			this.widgetId = widgetId;
+			this.future = future;
+		}
+		
+		@Override
+		public FComponent getComponentAsynch()
+		{
+			long timeout = Math.max(0, Config.getConfig().getWidgetAsynchronousRenderingTimeout());
+			try
+			{
+				return future.get(timeout, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e)
+			{
+				logger.warn("Widget " + widgetId + " not finished after asynchronous timeout of " + timeout + " ms");
+				return WidgetEmbeddingError.getErrorLabel(widgetId, ErrorType.GENERIC, 
+						"The widget could not be loaded within " + (timeout/1000) + " seconds.");
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return WidgetEmbeddingError.getErrorLabel(widgetId, ErrorType.EXCEPTION, e.toString());
+			}
+			catch (ExecutionException e)
+			{
+				return getErrorLabel(widgetId, e);
+			}
+		}
+	}
+	
+	/**
+	 * Time required to build the widgets of a class
+	 */
+	public static class WidgetTiming
+	{
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalTime = new AtomicLong();
+		private final AtomicLong maxTime = new AtomicLong();
+		
+		private void record(long duration)
+		{
+			count.incrementAndGet();
+			totalTime.addAndGet(duration);
+			long max = maxTime.get();
+			while (duration>max && !maxTime.compareAndSet(max, duration))
+				max = maxTime.get();
+		}
+		
+		/**
+		 * @return the number of widgets built
+		 */
+		public long getCount()
+		{
+			return count.get();
+		}
+		
+		/**
+		 * @return the average time in ms to build a widget
+		 */
+		public long getAverageTime()
+		{
+			long n = count.get();
+			return n==0 ? 0 : totalTime.get() / n;
+		}
+		
+		/**
+		 * @return the maximum time in ms to build a widget
+		 */
+		public long getMaxTime()
+		{
+			return maxTime.get();
+		}
+		
+		@Override
+		public String toString()
+		{
+			return "count=" + getCount() + ", avg=" + getAverageTime() + "ms, max=" + getMaxTime() + "ms";
+		}
+	}
+}
@@ -34,6 +34,7 @@ import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -107,6 +108,26 @@ public class FluidWikiModel extends WikiModel
 	
 	// Keeps image links so that they can later be checked with WikiDiagnosticsWidget
 	private Set<String> imageLinks = new HashSet<String>();
+	
+	/**
+	 * Parser functions whose result does not only depend on the wiki text,
+	 * e.g. on the current time or the existence of other pages
+	 */
+	private static final Set<String> VOLATILE_TEMPLATE_FUNCTIONS = new HashSet<String>(
+			Arrays.asList("#time", "#ifexist"));
+	
+	/**
+	 * Prefixes of the magic words whose value changes over time, e.g. 
+	 * {{CURRENTDAY}} or {{NUMBEROFPAGES}}
+	 */
+	private static final String[] VOLATILE_MAGIC_WORD_PREFIXES = 
+		{ "CURRENT", "LOCAL", "NUMBEROF", "PAGESIN", "REVISION" };
+	
+	// true if the rendered output depends on more than the wiki text and the templates
+	private boolean volatileContent = false;
+	
+	// true if the rendered output depends on the data in the repository
+	private boolean dataDependent = false;
 
 	private static final ThreadLocal<MessageDigest> localDigest = new ThreadLocal<MessageDigest>()
 	{
@@ -192,9 +213,46 @@ public class FluidWikiModel extends WikiModel
 	public ITemplateFunction getTemplateFunction(String name) {
 		// return context aware parser functions first, then return default implementations
 		if (contextAwareTemplateFunctions.containsKey(name))
+		{
+			volatileContent = true;
 			return contextAwareTemplateFunctions.get(name);
+		}
+		if (VOLATILE_TEMPLATE_FUNCTIONS.contains(name))
+			volatileContent = true;
 		return super.getTemplateFunction(name);
 	}
+	
+	/**
+	 * Returns true if the output of the last rendering depends on more than
+	 * the wiki text, the included templates and the page name (e.g. on the
+	 * current time or the page context), i.e. if it must not be cached.
+	 * 
+	 * @return
+	 */
+	public boolean isVolatile()
+	{
+		return volatileContent;
+	}
+	
+	/**
+	 * Returns true if the output of the last rendering depends on the data
+	 * in the repository (e.g. semantic links, whose targets and labels are 
+	 * looked up).
+	 * 
+	 * @return
+	 */
+	public boolean isDataDependent()
+	{
+		return dataDependent;
+	}
+	
+	private static boolean isVolatileMagicWord(String name)
+	{
+		for (String prefix : VOLATILE_MAGIC_WORD_PREFIXES)
+			if (name.startsWith(prefix))
+				return true;
+		return false;
+	}
 
 	/**
 	 * Compute the location of a (logical) image.
@@ -418,7 +476,11 @@ public class FluidWikiModel extends WikiModel
 		// Use default template resolver (for {{CURRENTDAY}} etc.)
 		String result = super.getRawWikiContent(namespace, templateName, templateParameters);
 		if (result != null)
+		{
+			if (isVolatileMagicWord(templateName))
+				volatileContent = true;
 			return result;
+		}
 
 		// Translate {{reflist}} to the current <references/>
 		if (templateName.equalsIgnoreCase("reflist"))
@@ -584,6 +646,7 @@ public class FluidWikiModel extends WikiModel
                     
                     if (predicate!=null)
                     {
+                        dataDependent = true;
                         object = dm.guessValueForPredicate(relationValue, ns.guessURI(nameSpace), true);
     	                
     	                if(object instanceof URI)
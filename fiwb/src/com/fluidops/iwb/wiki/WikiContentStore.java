@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.wiki;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.fluidops.util.GenUtil;
+
+/**
+ * Content-addressed store of wiki texts on disk: each distinct text is
+ * stored once as gzipped file named by its hash (see 
+ * {@link WikiStorage#contentHash(String)}), revisions refer to the text
+ * by the hash. Identical revisions (e.g. repeated bootstrap installs or
+ * reverts) thus share their content.
+ * 
+ * Contents which are no longer referenced are removed by {@link #sweep(Set)}.
+ * Contents modified within the last hour are never removed, such that a 
+ * content stored concurrently to a sweep is not lost before the referring
+ * revision is written.
+ */
+public class WikiContentStore
+{
+	private static final Logger logger = Logger.getLogger(WikiContentStore.class.getName());
+	
+	private static final String SUFFIX = ".gz";
+	
+	private static final String UTF8 = "UTF-8";
+	
+	/**
+	 * Minimum age of a content before it may be removed by a sweep
+	 */
+	private static final long SWEEP_GRACE_PERIOD = 60 * 60 * 1000;
+	
+	private final File root;
+	
+	public WikiContentStore(File root)
+	{
+		this.root = root;
+	}
+	
+	private File getFile(String hash)
+	{
+		return new File(new File(root, hash.substring(0, 2)), hash + SUFFIX);
+	}
+	
+	/**
+	 * Stores the given content (if not present yet) and returns its hash.
+	 * 
+	 * @param content
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized String put(String content) throws IOException
+	{
+		String hash = WikiStorage.contentHash(content);
+		File f = getFile(hash);
+		if (f.exists())
+		{
+			// protect the content from a concurrent sweep
+			if (!f.setLastModified(System.currentTimeMillis()))
+				logger.debug("Could not touch " + f);
+			return hash;
+		}
+		
+		File dir = f.getParentFile();
+		if (!dir.exists())
+			GenUtil.mkdirs(dir);
+		File tmp = new File(dir, hash + ".tmp");
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp));
+		try
+		{
+			out.write(content.getBytes(UTF8));
+		}
+		finally
+		{
+			out.close();
+		}
+		if (!tmp.renameTo(f))
+		{
+			GenUtil.delete(tmp);
+			throw new IOException("Could not store wiki content " + f);
+		}
+		return hash;
+	}
+	
+	/**
+	 * Returns the content for the given hash, or null if there is none.
+	 * 
+	 * @param hash
+	 * @return
+	 * @throws IOException
+	 */
+	public String get(String hash) throws IOException
+	{
+		File f = getFile(hash);
+		if (!f.exists())
+			return null;
+		InputStream in = new GZIPInputStream(new FileInputStream(f));
+		try
+		{
+			return IOUtils.toString(in, UTF8);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * @return the hashes of all stored contents
+	 */
+	public Set<String> getHashes()
+	{
+		Set<String> res = new HashSet<String>();
+		File[] dirs = root.listFiles();
+		if (dirs==null)
+			return res;
+		for (File dir : dirs)
+		{
+			String[] names = dir.list();
+			if (names==null)
+				continue;
+			for (String name : names)
+				if (name.endsWith(SUFFIX))
+					res.add(name.substring(0, name.length()-SUFFIX.length()));
+		}
+		return res;
+	}
+	
+	/**
+	 * Removes all contents which are not referenced, i.e. whose hash is
+	 * not contained in the given collection.
+	 * 
+	 * @param referenced
+	 * @return the number of removed contents
+	 */
+	public int sweep(Collection<String> referenced)
+	{
+		int count = 0;
+		for (String hash : getHashes())
+		{
+			if (referenced.contains(hash))
+				continue;
+			synchronized (this)
+			{
+				File f = getFile(hash);
+				if (System.currentTimeMillis() - f.lastModified() < SWEEP_GRACE_PERIOD)
+					continue;
+				if (f.delete())
+					count++;
+			}
+		}
+		return count;
+	}
+}
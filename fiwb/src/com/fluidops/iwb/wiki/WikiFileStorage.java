@@ -32,15 +32,16 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URLDecoder;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -63,10 +64,45 @@ public class WikiFileStorage extends WikiStorage
     private static final Logger logger = Logger.getLogger(WikiFileStorage.class.getName());
     public static final String DATE_FORMAT_PATTERN = "yyyy-MM-dd'T'HH-mm-ss-SSS";
     
+    /**
+     * Name of the revision index log in the wiki root
+     */
+    private static final String REVISION_INDEX_FILE = "revisions.log";
+    
+    /**
+     * Number of revisions returned by {@link #getLatestWikiRevisions()}
+     */
+    private static final int LATEST_REVISIONS = 11;
+    
+    /**
+     * Name of the folder in the wiki root holding the (deduplicated) contents
+     */
+    private static final String CONTENT_DIR = ".content";
+    
+    /**
+     * Suffix of revisions stored as full copy (the format before deduplication)
+     */
+    private static final String WIKI_SUFFIX = ".wiki";
+    
+    /**
+     * Suffix of revisions referring to a content in the {@link WikiContentStore}
+     */
+    private static final String REF_SUFFIX = ".ref";
+    
     /**
      * The root folder to use for Wiki content
      */
     private File wikiRoot;
+    
+    /**
+     * Index of the revisions, loaded on first access
+     */
+    private WikiRevisionIndex revisionIndex;
+    
+    /**
+     * Store of the contents of the revisions
+     */
+    private final WikiContentStore contentStore;
 
     /**
      * Creates a new storage with default FS root.
@@ -84,6 +120,7 @@ public class WikiFileStorage extends WikiStorage
     public WikiFileStorage(File wikiRoot)
     {
         this.wikiRoot = wikiRoot;
+        this.contentStore = new WikiContentStore(new File(wikiRoot, CONTENT_DIR));
     }
 
     @Override
@@ -98,19 +135,21 @@ public class WikiFileStorage extends WikiStorage
         if (!dir.exists())
             GenUtil.mkdirs(dir);
     
-        File f = new File(dir, time + ".wiki");
+        File f = new File(dir, time + REF_SUFFIX);
+        File fullCopy = new File(dir, time + WIKI_SUFFIX);
     
-        if (f.exists())
+        if (f.exists() || fullCopy.exists())
             logger.warn("Warning: overwriting revision " + time + " of "
                     + resource + " [" + f + "]");
         else
             logger.info("Storing revision " + time + " of " + resource + " [" + f
                     + "]");
     
+        String hash = contentStore.put(content);
         Writer fw = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
         try
         {
-            fw.write(content);
+            fw.write(hash);
         }
         catch (Exception e)
         {
@@ -120,6 +159,8 @@ public class WikiFileStorage extends WikiStorage
         {
             fw.close();
         }
+        if (fullCopy.exists())
+        	GenUtil.delete(fullCopy);
     
         File fmeta = new File(dir, time + ".meta");
         ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(
@@ -136,73 +177,109 @@ public class WikiFileStorage extends WikiStorage
         {
             oos.close();
         }
+        
+        getRevisionIndex().addRevision(resource, revision.date);
+    }
+    
+    /**
+     * Returns the revision index, which is loaded from its log or rebuilt
+     * by scanning the wiki folder on first access.
+     */
+    private synchronized WikiRevisionIndex getRevisionIndex()
+    {
+    	if (revisionIndex==null)
+    	{
+    		revisionIndex = new WikiRevisionIndex(new File(wikiRoot, REVISION_INDEX_FILE));
+    		if (!revisionIndex.load())
+    			rebuildRevisionIndex();
+    	}
+    	return revisionIndex;
+    }
+    
+    /**
+     * Rebuilds the revision index by scanning the wiki folder, e.g. after
+     * the wiki folder has been modified externally.
+     */
+    public synchronized void rebuildRevisionIndex()
+    {
+    	if (revisionIndex==null)
+    		revisionIndex = new WikiRevisionIndex(new File(wikiRoot, REVISION_INDEX_FILE));
+    	
+    	logger.info("Building wiki revision index from " + wikiRoot);
+    	Map<URI,List<Date>> pages = new HashMap<URI,List<Date>>();
+    	for (URI uri : scanWikiURIs())
+    	{
+    		List<Date> dates = getRevisionDates(uri);
+    		if (!dates.isEmpty())
+    			pages.put(uri, dates);
+    	}
+    	revisionIndex.rebuild(pages);
+    }
+    
+    /**
+     * Updates the revision index for the given page from the revisions on disk
+     */
+    private void syncRevisionIndex(URI resource)
+    {
+    	getRevisionIndex().setRevisions(resource, getRevisionDates(resource));
     }
 
     @Override
     public List<Pair<URI,WikiRevision>> getLatestWikiRevisions()
     {
         List<Pair<URI, WikiRevision>> res = new ArrayList<Pair<URI, WikiRevision>>();
-
-        File[] files = wikiRoot.listFiles(new FilenameFilter()
-        {
-            public boolean accept(File dir, String name)
-            {
-                return new File(dir, name).isDirectory();
-            }
-        });
-
-        // Nothing found? Return.
-        if (files == null)
-            return res;
-        List<Pair<URI, WikiRevision>> revisions = new ArrayList<Pair<URI, WikiRevision>>();
-
-        for (File file : files)
+        for (Pair<URI,Date> latest : getRevisionIndex().getLatest(LATEST_REVISIONS))
         {
-            String f = "";
-            try
-            {
-                f = URLDecoder.decode(file.getName(), "UTF-8");
-            }
-            catch (UnsupportedEncodingException e)
-            {
-                logger.warn("Exception", e);
-            }
-            URI uri = ValueFactoryImpl.getInstance().createURI(f);
-            WikiRevision revision = getLatestRevision(uri);
-            if (revision != null)
-                revisions.add(new Pair<URI, WikiRevision>(uri, revision));
-        }
-
-        Collections.sort(revisions, new Comparator<Pair<URI, WikiRevision>>()
-        {
-            @Override
-            public int compare(Pair<URI, WikiRevision> o1,
-                    Pair<URI, WikiRevision> o2)
-            {
-                return o2.snd.date.compareTo(o1.snd.date);
-            }
-        });
-
-        // now only return the top 10 revisions
-        int counter = 0;
-        for (Pair<URI, WikiRevision> p : revisions)
-        {
-            if (counter++ > 10)
-                break;
-            res.add(p);
+        	File meta = new File(getContainingDir(latest.fst), toFileName(latest.snd) + ".meta");
+        	try
+        	{
+        		res.add(new Pair<URI, WikiRevision>(latest.fst, getWikiRevision(meta)));
+        	}
+        	catch (Exception e)
+        	{
+        		logger.warn("ERROR: problems while loading meta info " + meta, e);
+        	}
         }
         return res;
     }
 
+    /**
+     * Closes the revision index, such that it is loaded instead of
+     * being rebuilt on next startup.
+     */
+    @Override
+    public void shutdown()
+    {
+    	super.shutdown();
+    	synchronized (this)
+    	{
+    		if (revisionIndex!=null)
+    			revisionIndex.close();
+    	}
+    }
+
     @Override
     public List<URI> getAllWikiURIs()
+    {
+    	return getRevisionIndex().getURIs();
+    }
+
+
+    /**
+     * Lists the wiki pages by scanning the wiki folder, used to build
+     * the revision index.
+     */
+    private List<URI> scanWikiURIs()
     {
         
         Set<String> wikipages = new HashSet<String>();
         List<URI> uris = new LinkedList<URI>();
 
         logger.debug("Reading all files from " + wikiRoot);
-        for (File f : wikiRoot.listFiles())
+        File[] files = wikiRoot.listFiles();
+        if (files==null)
+        	return uris;
+        for (File f : files)
         {
         	if (!f.isDirectory()) 
         	{
@@ -281,7 +358,7 @@ public class WikiFileStorage extends WikiStorage
 
 	@Override
 	public int getRevisionCount(URI resource) {
-		return getWikiPageRevisionFiles(resource).length;
+		return getRevisionIndex().getRevisionCount(resource);
 	}
 	
 	
@@ -306,6 +383,25 @@ public class WikiFileStorage extends WikiStorage
     @Override
 	public WikiRevision getLatestRevision(URI resource)	{
 		
+		Date latest = getRevisionIndex().getLatestRevisionDate(resource);
+		if (latest==null)
+			return null;
+		File meta = new File(getContainingDir(resource), toFileName(latest) + ".meta");
+		if (meta.exists())
+		{
+			try
+			{
+				return getWikiRevision(meta);
+			}
+			catch (Exception e)
+			{
+				logger.warn("ERROR: problems while loading latest revision for " + resource.stringValue(), e);
+				return null;
+			}
+		}
+		
+		// the revision has been removed externally
+		syncRevisionIndex(resource);
     	File[] wf = getWikiPageRevisionFiles(resource);
     	if (wf.length==0)
     		return null;
@@ -372,6 +468,29 @@ public class WikiFileStorage extends WikiStorage
     	
     	return res;
     }
+    
+    /**
+     * Returns the dates of the revisions of the given page as encoded
+     * in the file names, without reading the meta data.
+     */
+    private List<Date> getRevisionDates(URI resource)
+    {
+    	List<Date> res = new ArrayList<Date>();
+    	SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT_PATTERN);
+    	for (File f : getWikiPageRevisionFiles(resource))
+    	{
+    		String fName = f.getName();
+    		try
+    		{
+    			res.add(sdf.parse(fName.substring(0, fName.lastIndexOf(".meta"))));
+    		}
+    		catch (ParseException e)
+    		{
+    			logger.warn("Skipping revision with invalid name " + f);
+    		}
+    	}
+    	return res;
+    }
 
     @Override
     public String getWikiContent(URI resource, WikiRevision revision)
@@ -380,18 +499,120 @@ public class WikiFileStorage extends WikiStorage
         if (dir == null)
             return null;
 
-        File f = new File(dir, toFileName(revision.date) + ".wiki");
-        if(logger.isTraceEnabled()) logger.trace("Trying to load wiki-content from file: " + f);
-        if (!f.exists())
-            return null;
+        String name = toFileName(revision.date);
+        File ref = new File(dir, name + REF_SUFFIX);
+        File f = new File(dir, name + WIKI_SUFFIX);
+        if(logger.isTraceEnabled()) logger.trace("Trying to load wiki-content from file: " + ref);
         
         try {
-            return GenUtil.readFileUTF8(f);
+        	if (f.exists())
+        	{
+        		try
+        		{
+        			return GenUtil.readFileUTF8(f);
+        		}
+        		catch (IOException e)
+        		{
+        			// the revision may have been migrated in the meantime
+        		}
+        	}
+        	if (ref.exists())
+        		return contentStore.get(readHash(ref));
+        	return null;
         } catch (IOException ex) {
             return null;
         }       
     }   
     
+    private static String readHash(File ref) throws IOException
+    {
+    	return GenUtil.readFileUTF8(ref).trim();
+    }
+    
+    /**
+     * Migrates the revisions stored as full copy to the content store and
+     * removes the contents which are no longer referenced by a revision.
+     * The references are collected by walking the wiki folder, not from the
+     * revision index, which may miss revisions written externally.
+     */
+    @Override
+    public void compact() throws IOException
+    {
+    	Set<String> referenced = new HashSet<String>();
+    	File[] dirs = wikiRoot.listFiles();
+    	if (dirs==null)
+    		return;
+    	int migrated = 0;
+    	for (File dir : dirs)
+    	{
+    		if (isCompactionStopped())
+    			return;
+    		if (dir.isDirectory() && !dir.getName().equals(CONTENT_DIR))
+    			migrated += compact(dir, referenced);
+    	}
+    	int removed = contentStore.sweep(referenced);
+    	if (migrated>0 || removed>0)
+    		logger.info("Wiki compaction: migrated " + migrated + " revisions, removed " + removed + " unreferenced contents");
+    }
+    
+    /**
+     * Migrates the revisions stored as full copy in the given page folder
+     * and its signature subfolders, and collects the referenced hashes.
+     * 
+     * @return the number of migrated revisions
+     */
+    private int compact(File dir, Set<String> referenced) throws IOException
+    {
+    	File[] files = dir.listFiles();
+    	if (files==null)
+    		return 0;
+    	int migrated = 0;
+    	for (File f : files)
+    	{
+    		String name = f.getName();
+    		if (f.isDirectory())
+    			migrated += compact(f, referenced);
+    		else if (name.endsWith(REF_SUFFIX))
+    			referenced.add(readHash(f));
+    		else if (name.endsWith(WIKI_SUFFIX))
+    		{
+    			referenced.add(migrate(f));
+    			migrated++;
+    		}
+    	}
+    	return migrated;
+    }
+    
+    /**
+     * Moves the content of a revision stored as full copy to the content
+     * store, the full copy is replaced by a reference.
+     * 
+     * @return the hash of the content
+     */
+    private String migrate(File fullCopy) throws IOException
+    {
+    	String hash = contentStore.put(GenUtil.readFileUTF8(fullCopy));
+    	String name = fullCopy.getName();
+    	File ref = new File(fullCopy.getParentFile(), name.substring(0, name.length()-WIKI_SUFFIX.length()) + REF_SUFFIX);
+    	File tmp = new File(fullCopy.getParentFile(), ref.getName() + ".tmp");
+    	Writer fw = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+    	try
+    	{
+    		fw.write(hash);
+    	}
+    	finally
+    	{
+    		fw.close();
+    	}
+    	if (!tmp.renameTo(ref))
+    	{
+    		GenUtil.delete(tmp);
+    		throw new IOException("Could not migrate wiki revision " + fullCopy);
+    	}
+    	GenUtil.delete(fullCopy);
+    	return hash;
+    }
+    
     /**
      * Converts a URI to file name
      * 
@@ -476,6 +697,7 @@ public class WikiFileStorage extends WikiStorage
     		if (f.delete()) // only applies if empty
     	        WikiDirectoryCache.getInstance().lookup(resource);
     	}
+    	syncRevisionIndex(resource);
     	return true;
     }
     
@@ -496,6 +718,7 @@ public class WikiFileStorage extends WikiStorage
 				}
 			}
 		}
+		syncRevisionIndex(resource);
 		
 		return true;
 	}
@@ -563,6 +786,7 @@ public class WikiFileStorage extends WikiStorage
 				}
 			}
 		}
+		syncRevisionIndex(resource);
 		
 		return true;
 	}
@@ -651,14 +875,14 @@ public class WikiFileStorage extends WikiStorage
 	}
 
 	/**
-	 * A file filter checking for wiki revisions (*.wiki)
+	 * A file filter checking for wiki revisions (*.wiki, or *.ref if deduplicated)
 	 */
 	public static final FileFilter wikiRevisionFilter = new FileFilter() 
 	{
     	@Override
     	public boolean accept(File f)
     	{
-    		return f.getName().endsWith(".wiki");
+    		return f.getName().endsWith(WIKI_SUFFIX) || f.getName().endsWith(REF_SUFFIX);
     	}
 	};
 }
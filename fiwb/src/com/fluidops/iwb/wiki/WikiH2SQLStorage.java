@@ -18,11 +18,7 @@
 
 package com.fluidops.iwb.wiki;
 
-import java.sql.Connection;
-import java.sql.SQLException;
-
 import com.fluidops.iwb.util.Config;
-import com.fluidops.iwb.util.SQL;
 import com.fluidops.iwb.util.SQL.SQLType;
 
 /**
@@ -41,8 +37,8 @@ import com.fluidops.iwb.util.SQL.SQLType;
 public class WikiH2SQLStorage extends WikiSQLStorageBase{
 
 	@Override
-	protected Connection getConnection() throws SQLException
+	protected SQLType getSQLType()
 	{
-		return SQL.getConnection(SQLType.H2SQL);
+		return SQLType.H2SQL;
 	}	
 }
@@ -18,11 +18,7 @@
 
 package com.fluidops.iwb.wiki;
 
-import java.sql.Connection;
-import java.sql.SQLException;
-
 import com.fluidops.iwb.util.Config;
-import com.fluidops.iwb.util.SQL;
 import com.fluidops.iwb.util.SQL.SQLType;
 
 /**
@@ -38,9 +34,9 @@ public class WikiMySQLStorage extends WikiSQLStorageBase
 {
 
 	@Override
-	protected Connection getConnection() throws SQLException
+	protected SQLType getSQLType()
 	{
-		return SQL.getConnection(SQLType.MYSQL);
+		return SQLType.MYSQL;
 	}
 
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.wiki;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import com.fluidops.iwb.api.CacheManager;
+import com.fluidops.iwb.api.EndpointImpl;
+import com.fluidops.iwb.util.Config;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded cache of rendered wiki pages, i.e. of the HTML produced by the
+ * wiki parser for a page. Entries are keyed by page, wiki text, revision, 
+ * page name, the roles of the current user and the version of the namespace 
+ * registry.
+ * 
+ * Widgets are not part of the cached HTML: the HTML contains a placeholder
+ * for each widget and the widget calls are recorded, such that the widgets
+ * are instantiated live on each view. Likewise, template variables such as
+ * $this.Host/cpuUsage are resolved live.
+ * 
+ * Each entry records the templates included during rendering. Changing a 
+ * page invalidates the entries of the page itself and of all pages which 
+ * include it as template (see {@link #invalidate(URI)}). Entries which 
+ * depend on the data in the repository (e.g. semantic links) are valid
+ * only until the next update of the data caches, see 
+ * {@link CacheManager#getLastupdate()}.
+ */
+public class WikiPageCache
+{
+	private static final Logger logger = Logger.getLogger(WikiPageCache.class.getName());
+	
+	private static final String WIDGET_PLACEHOLDER_ID = "iwbwidget";
+	
+	/**
+	 * Matches the widget placeholders in the HTML produced by the wiki parser,
+	 * the (bogus) content of the placeholder may have been transformed
+	 */
+	static final Pattern WIDGET_PLACEHOLDER = Pattern.compile("<div id=\"" + WIDGET_PLACEHOLDER_ID + "(\\d+)\">[^<]*</div>");
+	
+	private static WikiPageCache instance = null;
+	
+	public static synchronized WikiPageCache getInstance()
+	{
+		if (instance==null)
+			instance = new WikiPageCache(Config.getConfig().getWikiPageCacheSize());
+		return instance;
+	}
+	
+	/**
+	 * Returns the placeholder for the widget with the given index, which
+	 * is passed to the wiki parser instead of the widget anchor. The bogus
+	 * text ensures that the tag is not collapsed by the parser.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	static String getWidgetPlaceholder(int index)
+	{
+		return "<div id=\"" + WIDGET_PLACEHOLDER_ID + index + "\">&nbsp;</div>";
+	}
+	
+	/**
+	 * Cache key
+	 */
+	static class Key
+	{
+		private final URI page;
+		private final String wikitext;
+		private final long version;
+		private final String pageName;
+		private final List<String> roles;
+		private final long namespaceVersion;
+		
+		private Key(URI page, String wikitext, long version, String pageName, List<String> roles, long namespaceVersion)
+		{
+			this.page = page;
+			this.wikitext = wikitext;
+			this.version = version;
+			this.pageName = pageName;
+			this.roles = roles;
+			this.namespaceVersion = namespaceVersion;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			int res = page==null ? 0 : page.hashCode();
+			res = 31 * res + wikitext.hashCode();
+			res = 31 * res + (int)(version ^ (version >>> 32));
+			res = 31 * res + (pageName==null ? 0 : pageName.hashCode());
+			res = 31 * res + roles.hashCode();
+			return 31 * res + (int)(namespaceVersion ^ (namespaceVersion >>> 32));
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return version==other.version
+					&& namespaceVersion==other.namespaceVersion
+					&& (page==null ? other.page==null : page.equals(other.page))
+					&& (pageName==null ? other.pageName==null : pageName.equals(other.pageName))
+					&& roles.equals(other.roles)
+					&& wikitext.equals(other.wikitext);
+		}
+	}
+	
+	/**
+	 * A widget call found in the wiki text, i.e. the template name
+	 * (e.g. "#widget: Map") and its parameters
+	 */
+	static class WidgetCall
+	{
+		final String templateName;
+		final Map<String,String> parameters;
+		
+		WidgetCall(String templateName, Map<String,String> parameters)
+		{
+			this.templateName = templateName;
+			this.parameters = parameters;
+		}
+	}
+	
+	/**
+	 * The result of rendering a wiki page: the HTML with widget placeholders, 
+	 * the widget calls (the index in the list corresponds to the index of the
+	 * placeholder) and the URIs of the included templates.
+	 */
+	static class RenderedPage
+	{
+		final String html;
+		final List<WidgetCall> widgets;
+		final Set<URI> templates;
+		final boolean dataDependent;
+		final long renderTime;
+		
+		RenderedPage(String html, List<WidgetCall> widgets, Set<URI> templates, boolean dataDependent, long renderTime)
+		{
+			this.html = html;
+			this.widgets = widgets;
+			this.templates = templates;
+			this.dataDependent = dataDependent;
+			this.renderTime = renderTime;
+		}
+	}
+	
+	private final Cache<Key,RenderedPage> cache;
+	
+	private final boolean enabled;
+	
+	private WikiPageCache(int maximumSize)
+	{
+		enabled = maximumSize>0;
+		cache = CacheBuilder.newBuilder().maximumSize(Math.max(maximumSize, 0)).recordStats().build();
+	}
+	
+	/**
+	 * Creates the cache key for rendering the given wiki text as the given
+	 * page for the current user.
+	 * 
+	 * @param page
+	 * @param wikitext
+	 * @param version the revision date, null for the latest revision
+	 * @param pageName
+	 * @return
+	 */
+	Key createKey(URI page, String wikitext, Date version, String pageName)
+	{
+		List<String> roles = EndpointImpl.api().getUserManager().getRoles(null);
+		roles = roles==null ? Collections.<String>emptyList() : new ArrayList<String>(roles);
+		Collections.sort(roles);
+		long namespaceVersion = EndpointImpl.api().getNamespaceService().getNamespaceSnapshot().getVersion();
+		return new Key(page, wikitext, version==null ? -1 : version.getTime(), pageName, roles, namespaceVersion);
+	}
+	
+	/**
+	 * Returns the cached rendering for the given key, or null if there is 
+	 * none or the data it depends on has changed since rendering.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	RenderedPage get(Key key)
+	{
+		if (!enabled)
+			return null;
+		RenderedPage res = cache.getIfPresent(key);
+		if (res!=null && res.dataDependent && CacheManager.getLastupdate()>=res.renderTime)
+		{
+			cache.invalidate(key);
+			return null;
+		}
+		return res;
+	}
+	
+	void put(Key key, RenderedPage page)
+	{
+		if (enabled)
+			cache.put(key, page);
+	}
+	
+	/**
+	 * Invalidates the renderings of the given page and of all pages
+	 * including the given page as template. To be called whenever the
+	 * wiki content of a page changes.
+	 * 
+	 * @param page
+	 */
+	public void invalidate(URI page)
+	{
+		if (!enabled)
+			return;
+		int count = 0;
+		for (Iterator<Map.Entry<Key,RenderedPage>> it = cache.asMap().entrySet().iterator(); it.hasNext(); )
+		{
+			Map.Entry<Key,RenderedPage> entry = it.next();
+			if (page.equals(entry.getKey().page) || entry.getValue().templates.contains(page))
+			{
+				it.remove();
+				count++;
+			}
+		}
+		if (count>0)
+			logger.trace("Invalidated " + count + " rendered wiki pages depending on " + page);
+	}
+	
+	/**
+	 * Invalidates all renderings.
+	 */
+	public void invalidateAll()
+	{
+		cache.invalidateAll();
+	}
+	
+	public CacheStats stats()
+	{
+		return cache.stats();
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2008-2012, fluid Operations AG
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package com.fluidops.iwb.wiki;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+import com.fluidops.util.Pair;
+
+/**
+ * Index of the revision dates of all wiki pages of a {@link WikiFileStorage},
+ * such that listing the pages and finding the latest revisions does not
+ * require scanning the wiki folder. The index is held in memory and persisted
+ * as an append-only log, which is replayed on startup and compacted when it
+ * has grown much larger than the index. If the log is missing, cannot be
+ * read, or does not end with a checkpoint (i.e. the storage was not shut down
+ * cleanly and revisions may have been written without being logged), the 
+ * index is rebuilt from the wiki folder.
+ * 
+ * Each line of the log is either <code>A uri date</code> (a revision was added),
+ * <code>S uri date*</code> (the revisions of the page were set, e.g. after
+ * deleting revisions) or <code>C date</code> (the log was closed), separated by
+ * tabs, with dates in ms. Each line ends with the CRC32 checksum of the entry,
+ * such that truncated lines are detected.
+ */
+public class WikiRevisionIndex
+{
+	private static final Logger logger = Logger.getLogger(WikiRevisionIndex.class.getName());
+
+	private static final String ADD = "A";
+	private static final String SET = "S";
+	private static final String CHECKPOINT = "C";
+
+	/**
+	 * The log is compacted on load if it has more lines than this factor
+	 * times the number of revisions (plus a constant)
+	 */
+	private static final int COMPACTION_FACTOR = 2;
+
+	private final File logFile;
+
+	/**
+	 * The revision dates per page
+	 */
+	private final Map<URI,TreeSet<Long>> revisions = new HashMap<URI,TreeSet<Long>>();
+
+	/**
+	 * The pages ordered by the date of their latest revision, latest first
+	 */
+	private final TreeSet<PageEntry> latest = new TreeSet<PageEntry>();
+
+	private int revisionCount;
+
+	private Writer log;
+
+	/**
+	 * True if the log reflects the index, i.e. changes may be appended
+	 */
+	private boolean persistent;
+
+	/**
+	 * @param logFile the file to which the index is persisted
+	 */
+	public WikiRevisionIndex(File logFile)
+	{
+		this.logFile = logFile;
+	}
+
+	/**
+	 * Loads the index from the log.
+	 * 
+	 * @return false if there is no log, it could not be read or it has changes
+	 * 			after the last checkpoint, i.e. the index needs to be rebuilt
+	 * 			using {@link #rebuild(Map)}
+	 */
+	public synchronized boolean load()
+	{
+		if (!logFile.exists())
+			return false;
+
+		clear();
+		int lines = 0;
+		boolean checkpoint = false;
+		try
+		{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), "UTF-8"));
+			try
+			{
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					lines++;
+					checkpoint = replay(line);
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch (Exception e)
+		{
+			logger.warn("Could not read wiki revision index " + logFile + ", rebuilding: " + e.getMessage());
+			clear();
+			return false;
+		}
+		if (!checkpoint)
+		{
+			logger.warn("Wiki revision index " + logFile + " was not closed, rebuilding");
+			clear();
+			return false;
+		}
+
+		persistent = true;
+		if (lines > COMPACTION_FACTOR * revisionCount + 1000)
+			writeCompacted();
+		return true;
+	}
+
+	/**
+	 * Applies the given line of the log to the index.
+	 * 
+	 * @return true if the line is a checkpoint
+	 * @throws IllegalStateException if the line is invalid, e.g. truncated
+	 */
+	private boolean replay(String line)
+	{
+		int sep = line.lastIndexOf('\t');
+		if (sep<0 || !line.substring(sep+1).equals(checksum(line.substring(0, sep))))
+			throw new IllegalStateException("Invalid checksum: " + line);
+		String[] parts = line.substring(0, sep).split("\t");
+		if (parts[0].equals(CHECKPOINT) && parts.length==2)
+			return true;
+		if (parts[0].equals(ADD) && parts.length==3)
+			doAdd(ValueFactoryImpl.getInstance().createURI(parts[1]), Long.parseLong(parts[2]));
+		else if (parts[0].equals(SET) && parts.length>=2)
+		{
+			List<Long> dates = new ArrayList<Long>();
+			for (int i=2; i<parts.length; i++)
+				dates.add(Long.parseLong(parts[i]));
+			doSet(ValueFactoryImpl.getInstance().createURI(parts[1]), dates);
+		}
+		else
+			throw new IllegalStateException("Invalid entry: " + line);
+		return false;
+	}
+
+	/**
+	 * @return the CRC32 checksum of the given entry in hex
+	 */
+	private static String checksum(String entry)
+	{
+		CRC32 crc = new CRC32();
+		try
+		{
+			crc.update(entry.getBytes("UTF-8"));
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Replaces the index with the given revisions, e.g. as obtained by scanning
+	 * the wiki folder, and writes a new log.
+	 * 
+	 * @param pages the revision dates per page
+	 */
+	public synchronized void rebuild(Map<URI,? extends Collection<Date>> pages)
+	{
+		clear();
+		for (Map.Entry<URI,? extends Collection<Date>> page : pages.entrySet())
+			doSet(page.getKey(), toTimes(page.getValue()));
+		writeCompacted();
+	}
+
+	/**
+	 * Records a new revision of the given page.
+	 * 
+	 * @param uri
+	 * @param date
+	 */
+	public synchronized void addRevision(URI uri, Date date)
+	{
+		doAdd(uri, date.getTime());
+		append(ADD + "\t" + uri.stringValue() + "\t" + date.getTime());
+	}
+
+	/**
+	 * Sets the revisions of the given page, e.g. after revisions have been deleted.
+	 * 
+	 * @param uri
+	 * @param dates the remaining revisions, empty if the page was deleted
+	 */
+	public synchronized void setRevisions(URI uri, Collection<Date> dates)
+	{
+		List<Long> times = toTimes(dates);
+		doSet(uri, times);
+		StringBuilder sb = new StringBuilder(SET).append("\t").append(uri.stringValue());
+		for (Long time : times)
+			sb.append("\t").append(time);
+		append(sb.toString());
+	}
+
+	/**
+	 * @return all pages which have at least one revision
+	 */
+	public synchronized List<URI> getURIs()
+	{
+		return new ArrayList<URI>(revisions.keySet());
+	}
+
+	/**
+	 * @param n
+	 * @return the n pages with the latest revisions and the dates of these revisions, latest first
+	 */
+	public synchronized List<Pair<URI,Date>> getLatest(int n)
+	{
+		List<Pair<URI,Date>> res = new ArrayList<Pair<URI,Date>>();
+		Iterator<PageEntry> it = latest.iterator();
+		while (it.hasNext() && res.size()<n)
+		{
+			PageEntry entry = it.next();
+			res.add(new Pair<URI,Date>(entry.uri, new Date(entry.date)));
+		}
+		return res;
+	}
+
+	/**
+	 * @param uri
+	 * @return the date of the latest revision of the page, null if the page has no revision
+	 */
+	public synchronized Date getLatestRevisionDate(URI uri)
+	{
+		TreeSet<Long> dates = revisions.get(uri);
+		return dates==null ? null : new Date(dates.last());
+	}
+
+	/**
+	 * @param uri
+	 * @return the number of revisions of the page
+	 */
+	public synchronized int getRevisionCount(URI uri)
+	{
+		TreeSet<Long> dates = revisions.get(uri);
+		return dates==null ? 0 : dates.size();
+	}
+
+	/**
+	 * Writes a checkpoint and closes the log, i.e. the log is loaded
+	 * on next startup.
+	 */
+	public synchronized void close()
+	{
+		append(CHECKPOINT + "\t" + System.currentTimeMillis());
+		closeLog();
+	}
+
+	private void doAdd(URI uri, long date)
+	{
+		TreeSet<Long> dates = revisions.get(uri);
+		if (dates==null)
+		{
+			dates = new TreeSet<Long>();
+			revisions.put(uri, dates);
+		}
+		else
+			latest.remove(new PageEntry(uri, dates.last()));
+		if (dates.add(date))
+			revisionCount++;
+		latest.add(new PageEntry(uri, dates.last()));
+	}
+
+	private void doSet(URI uri, Collection<Long> times)
+	{
+		TreeSet<Long> dates = revisions.remove(uri);
+		if (dates!=null)
+		{
+			latest.remove(new PageEntry(uri, dates.last()));
+			revisionCount -= dates.size();
+		}
+		if (times.isEmpty())
+			return;
+		dates = new TreeSet<Long>(times);
+		revisions.put(uri, dates);
+		revisionCount += dates.size();
+		latest.add(new PageEntry(uri, dates.last()));
+	}
+
+	private void clear()
+	{
+		revisions.clear();
+		latest.clear();
+		revisionCount = 0;
+	}
+
+	private static List<Long> toTimes(Collection<Date> dates)
+	{
+		List<Long> res = new ArrayList<Long>(dates.size());
+		for (Date date : dates)
+			res.add(date.getTime());
+		return res;
+	}
+
+	private void append(String line)
+	{
+		if (!persistent)
+			return;
+		try
+		{
+			if (log==null)
+				log = new OutputStreamWriter(new FileOutputStream(logFile, true), "UTF-8");
+			log.write(line + "\t" + checksum(line) + "\n");
+			log.flush();
+		}
+		catch (IOException e)
+		{
+			// the index is still valid in memory, the log is rebuilt on next startup
+			logger.warn("Could not write wiki revision index " + logFile + ": " + e.getMessage());
+			closeLog();
+			persistent = false;
+			if (!logFile.delete())
+				logger.warn("Could not delete wiki revision index " + logFile);
+		}
+	}
+
+	/**
+	 * Writes the current state as a new log, replacing the old one
+	 */
+	private void writeCompacted()
+	{
+		closeLog();
+		persistent = false;
+		File tmp = new File(logFile.getPath() + ".tmp");
+		try
+		{
+			Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			try
+			{
+				for (Map.Entry<URI,TreeSet<Long>> page : revisions.entrySet())
+				{
+					StringBuilder sb = new StringBuilder(SET).append("\t").append(page.getKey().stringValue());
+					for (Long time : page.getValue())
+						sb.append("\t").append(time);
+					w.write(sb + "\t" + checksum(sb.toString()) + "\n");
+				}
+			}
+			finally
+			{
+				w.close();
+			}
+			if (logFile.exists() && !logFile.delete())
+				throw new IOException("Could not replace " + logFile);
+			if (!tmp.renameTo(logFile))
+				throw new IOException("Could not rename " + tmp);
+			persistent = true;
+		}
+		catch (IOException e)
+		{
+			// without a valid log, the index is rebuilt on next startup
+			logger.warn("Could not write wiki revision index " + logFile + ": " + e.getMessage());
+			if (logFile.exists() && !logFile.delete())
+				logger.warn("Could not delete wiki revision index " + logFile);
+		}
+	}
+
+	private void closeLog()
+	{
+		if (log==null)
+			return;
+		try
+		{
+			log.close();
+		}
+		catch (IOException e)
+		{
+			logger.debug(e.getMessage());
+		}
+		log = null;
+	}
+
+	/**
+	 * A page with the date of its latest revision, ordered by date descending
+	 */
+	private static class PageEntry implements Comparable<PageEntry>
+	{
+		private final URI uri;
+		private final long date;
+
+		private PageEntry(URI uri, long date)
+		{
+			this.uri = uri;
+			this.date = date;
+		}
+
+		@Override
+		public int compareTo(PageEntry other)
+		{
+			if (date!=other.date)
+				return date > other.date ? -1 : 1;
+			return uri.stringValue().compareTo(other.uri.stringValue());
+		}
+	}
+}
@@ -19,49 +19,87 @@
 package com.fluidops.iwb.wiki;
 
 import java.io.IOException;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.lang.NotImplementedException;
+import org.apache.log4j.Logger;
 import org.openrdf.model.URI;
 import org.openrdf.model.impl.ValueFactoryImpl;
 
-import com.fluidops.iwb.api.EndpointImpl;
 import com.fluidops.iwb.util.SQL;
+import com.fluidops.iwb.util.SQL.PooledConnection;
+import com.fluidops.iwb.util.SQL.SQLType;
 import com.fluidops.util.Pair;
 
 /**
- * SQL-based wiki storage implementation.
+ * SQL-based wiki storage implementation. Connections are borrowed from
+ * the pool of {@link SQL}, the queries use the (cached) prepared statements
+ * of the pooled connections.
+ * 
+ * The contents are deduplicated: each distinct content is stored once in
+ * the wikicontent table, revisions refer to it by hash. Revisions stored
+ * before have their content in the revisions table and are migrated by
+ * {@link #compact()}.
  * 
  * @author Uli, msc, as
  */
 
 public abstract class WikiSQLStorageBase extends WikiStorage
 {
+	private static final Logger logger = Logger.getLogger(WikiSQLStorageBase.class.getName());
+	
+	/**
+	 * The number of revisions returned by {@link #getLatestWikiRevisions()}
+	 */
+	private static final int LATEST_REVISIONS = 11;
+	
+	/**
+	 * All columns except for the content. The revision date is also stored
+	 * in the numeric column revdate, which is used for lookups and sorting.
+	 */
+	private static final String REVISION_COLUMNS = "name, date, size, comment, user, security";
+	
+	/**
+	 * Number of revisions migrated to the deduplicated format per query
+	 */
+	private static final int MIGRATION_BATCH_SIZE = 100;
+	
+	/**
+	 * Content is stored and migrated under the read lock, unreferenced 
+	 * contents are removed under the write lock
+	 */
+	private final ReentrantReadWriteLock contentLock = new ReentrantReadWriteLock();
+	
     /**
-     * Implementations define how the connection is established, e.g.
+     * Implementations define the type of the connection, e.g.
      * a MySQL connection or a H2SQL connection
      * @return
      */
-    protected abstract Connection getConnection() throws SQLException;
+    protected abstract SQLType getSQLType();
 
+    protected PooledConnection borrowConnection() throws SQLException
+    {
+    	return SQL.borrowConnection(getSQLType());
+    }
     
     @Override
     protected void storeWikiContent(URI resource, String content, WikiRevision revision) throws IOException
     {
-    	PreparedStatement prep = null;
+    	PooledConnection conn = null;
+    	contentLock.readLock().lock();
         try
         {
-            Connection conn = getConnection();
-            prep = conn.prepareStatement("insert into revisions values (?, ?, ?, ?, ?, ?, ?);");
+            conn = borrowConnection();
+            String hash = storeContent(conn, content);
+            PreparedStatement prep = conn.prepareStatement("insert into revisions (" + REVISION_COLUMNS 
+            		+ ", hash, revdate) values (?, ?, ?, ?, ?, ?, ?, ?);");
 
             prep.setString(1, resource.stringValue());
             prep.setLong(2, revision.date.getTime());
@@ -69,10 +107,8 @@ public abstract class WikiSQLStorageBase extends WikiStorage
             prep.setString(4, revision.comment);
             prep.setString(5, revision.user);
             prep.setString(6, revision.security);
-            if (com.fluidops.iwb.util.Config.getConfig().getCompressWikiInDatabase())
-                prep.setBytes(7, gzip(content));
-            else
-                prep.setString(7, content);
+            prep.setString(7, hash);
+            prep.setLong(8, revision.date.getTime());
 
             prep.execute();
             SQL.monitorWrite();
@@ -84,40 +120,90 @@ public abstract class WikiSQLStorageBase extends WikiStorage
         } 
         finally  
         {
-        	SQL.closeQuietly(prep);
+        	SQL.releaseConnection(conn);
+        	contentLock.readLock().unlock();
         }
     }
     
+    /**
+     * Stores the given content in the wikicontent table, if not yet present.
+     * 
+     * @return the hash of the content
+     */
+    private String storeContent(PooledConnection conn, String content) throws SQLException
+    {
+    	String hash = contentHash(content);
+    	if (hasContent(conn, hash))
+    		return hash;
+    	
+    	PreparedStatement prep = conn.prepareStatement("insert into wikicontent (hash, content) values (?, ?)");
+    	prep.setString(1, hash);
+    	if (com.fluidops.iwb.util.Config.getConfig().getCompressWikiInDatabase())
+    		prep.setBytes(2, gzip(content));
+    	else
+    		prep.setString(2, content);
+    	try
+    	{
+    		prep.execute();
+    	}
+    	catch (SQLException e)
+    	{
+    		// the same content may have been stored concurrently
+    		if (!hasContent(conn, hash))
+    			throw e;
+    	}
+    	return hash;
+    }
+    
+    private boolean hasContent(PooledConnection conn, String hash) throws SQLException
+    {
+    	ResultSet rs = null;
+    	try
+    	{
+    		PreparedStatement stat = conn.prepareStatement("select count(*) from wikicontent where hash=?");
+    		stat.setString(1, hash);
+    		rs = stat.executeQuery();
+    		return rs.next() && rs.getInt(1)>0;
+    	}
+    	finally
+    	{
+    		SQL.closeQuietly(rs);
+    	}
+    }
+    
+    /**
+     * Reads the (possibly compressed) content from the given column, 
+     * null if the column is null.
+     */
+    private static String readContent(ResultSet rs, int column) throws SQLException
+    {
+    	if (com.fluidops.iwb.util.Config.getConfig().getCompressWikiInDatabase())
+    	{
+    		byte[] bytes = rs.getBytes(column);
+    		return bytes==null ? null : gunzip(bytes);
+    	}
+    	return rs.getString(column);
+    }
+    
 
     @Override
     public List<Pair<URI,WikiRevision>> getLatestWikiRevisions()
     {
         List<Pair<URI,WikiRevision>> res = new ArrayList<Pair<URI,WikiRevision>>();
         
-        PreparedStatement stat = null;
+        PooledConnection conn = null;
     	ResultSet rs = null;
         try
         {
-            Connection conn = getConnection();
-            stat = conn.prepareStatement("select * from revisions order by date desc");
+            conn = borrowConnection();
+            PreparedStatement stat = conn.prepareStatement("select " + REVISION_COLUMNS 
+            		+ " from revisions order by revdate desc limit " + LATEST_REVISIONS);
 
             rs = stat.executeQuery();
-            int counter = 0;
             while (rs.next())
             {
-                if ( counter++ > 10 )
-                    break;
-                WikiRevision revision = new WikiRevision();
-                String name = rs.getString( "name" );
-                
-                URI uri = ValueFactoryImpl.getInstance().createURI(name);
-                revision.comment = rs.getString("comment");
-                revision.user = rs.getString("user");
-                revision.security = rs.getString("security");
-                revision.date = new Date(rs.getLong("date"));
-                revision.size = rs.getLong("size");
-                res.add(new Pair<URI,WikiRevision>(uri, revision));
-
+                URI uri = ValueFactoryImpl.getInstance().createURI(rs.getString("name"));
+                res.add(new Pair<URI,WikiRevision>(uri, readRevision(rs)));
             }
             SQL.monitorRead();
         }
@@ -129,7 +215,7 @@ public abstract class WikiSQLStorageBase extends WikiStorage
         finally  
         {
         	SQL.closeQuietly(rs);
-        	SQL.closeQuietly(stat);
+        	SQL.releaseConnection(conn);
         }
         
         return res;
@@ -138,25 +224,43 @@ public abstract class WikiSQLStorageBase extends WikiStorage
     @Override
     public WikiRevision getLatestRevision(URI resource)
     {
-        List<WikiRevision> revs = getWikiRevisions(resource);
-        if (revs == null || revs.size() == 0)
-            return null;
-    
-        return revs.get(revs.size() - 1);
+        PooledConnection conn = null;
+    	ResultSet rs = null;
+        try
+        {
+            conn = borrowConnection();
+            PreparedStatement stat = conn.prepareStatement("select " + REVISION_COLUMNS 
+            		+ " from revisions where name=? order by revdate desc limit 1");
+            stat.setString(1, resource.stringValue());
+
+            rs = stat.executeQuery();
+            WikiRevision res = rs.next() ? readRevision(rs) : null;
+            SQL.monitorRead();
+            return res;
+        }
+        catch (SQLException e)
+        {
+        	SQL.monitorReadFailure();
+            throw new RuntimeException("Retrieving latest revision failed.", e);
+        } 
+        finally  
+        {
+        	SQL.closeQuietly(rs);
+        	SQL.releaseConnection(conn);
+        }
     }
     
     @Override
     public List<URI> getAllWikiURIs()
     {
-        Set<String> wikipages = new HashSet<String>();
         List<URI> uris= new LinkedList<URI>();
         
-        PreparedStatement stat = null;
+        PooledConnection conn = null;
     	ResultSet rs = null;
         try
         {
-            Connection conn = getConnection();
-            stat = conn.prepareStatement("select distinct name from revisions");
+            conn = borrowConnection();
+            PreparedStatement stat = conn.prepareStatement("select distinct name from revisions");
             
             rs = stat.executeQuery();
             while (rs.next())    
@@ -171,35 +275,38 @@ public abstract class WikiSQLStorageBase extends WikiStorage
         finally  
         {
         	SQL.closeQuietly(rs);
-        	SQL.closeQuietly(stat);
+        	SQL.releaseConnection(conn);
         }
         
-        if (!wikipages.isEmpty()) {
-
-            //Index all wikipages without any RDF links, i.e. not present as entity in the RDF store
-            String defaultNS = EndpointImpl.api().getNamespaceService().defaultNamespace();
-            String ns = defaultNS;
-
-            for (String s : wikipages) {
-                ValueFactoryImpl f = new ValueFactoryImpl();
-                URI uri = null;
-                try {
-                     uri = f.createURI(s);
-                }
-                catch (IllegalArgumentException ex) {
-                    
-                    // if no URI, add defaultNS
-                    uri = f.createURI(ns + s);
-                }
-                uris.add(uri);
-            }
-        }
         return uris;
     }
     
     @Override
-	public int getRevisionCount(URI resource) {
-		return getWikiRevisions(resource).size();
+	public int getRevisionCount(URI resource) 
+    {
+        PooledConnection conn = null;
+    	ResultSet rs = null;
+        try
+        {
+            conn = borrowConnection();
+            PreparedStatement stat = conn.prepareStatement("select count(*) from revisions where name=?");
+            stat.setString(1, resource.stringValue());
+
+            rs = stat.executeQuery();
+            int res = rs.next() ? rs.getInt(1) : 0;
+            SQL.monitorRead();
+            return res;
+        }
+        catch (SQLException e)
+        {
+        	SQL.monitorReadFailure();
+            throw new RuntimeException("Counting revisions failed.", e);
+        } 
+        finally  
+        {
+        	SQL.closeQuietly(rs);
+        	SQL.releaseConnection(conn);
+        }
 	}
     
     @Override
@@ -207,26 +314,18 @@ public abstract class WikiSQLStorageBase extends WikiStorage
     {
         List<WikiRevision> res = new ArrayList<WikiRevision>();
         
-        PreparedStatement stat = null;
+        PooledConnection conn = null;
     	ResultSet rs = null;
         try
         {
-            Connection conn = getConnection();
-            stat = conn.prepareStatement("select * from revisions where name=? order by date");
+            conn = borrowConnection();
+            PreparedStatement stat = conn.prepareStatement("select " + REVISION_COLUMNS 
+            		+ " from revisions where name=? order by revdate");
             stat.setString(1, resource.stringValue());
 
             rs = stat.executeQuery();
             while (rs.next())
-            {
-                WikiRevision revision = new WikiRevision();
-                revision.comment = rs.getString("comment");
-                revision.user = rs.getString("user");
-                revision.security = rs.getString("security");
-                revision.date = new Date(rs.getLong("date"));
-                revision.size = rs.getLong("size");
-                res.add(revision);
-
-            }
+                res.add(readRevision(rs));
             SQL.monitorRead();
             return res;
         }
@@ -238,18 +337,31 @@ public abstract class WikiSQLStorageBase extends WikiStorage
         finally  
         {
         	SQL.closeQuietly(rs);
-        	SQL.closeQuietly(stat);
+        	SQL.releaseConnection(conn);
         }
     }
+    
+    private static WikiRevision readRevision(ResultSet rs) throws SQLException
+    {
+        WikiRevision revision = new WikiRevision();
+        revision.comment = rs.getString("comment");
+        revision.user = rs.getString("user");
+        revision.security = rs.getString("security");
+        revision.date = new Date(rs.getLong("date"));
+        revision.size = rs.getLong("size");
+        return revision;
+    }
 
     @Override
     public String getWikiContent(URI resource, WikiRevision revision)
     {
-    	PreparedStatement stat = null;
+    	PooledConnection conn = null;
     	ResultSet rs = null;
         try {
-			Connection conn = getConnection();
-			stat = conn.prepareStatement("select content from revisions where name=? and date=?");
+			conn = borrowConnection();
+			// revisions not yet migrated to the deduplicated format have their own content
+			PreparedStatement stat = conn.prepareStatement("select c.content, r.content from revisions r "
+					+ "left join wikicontent c on r.hash=c.hash where r.name=? and r.revdate=?");
 			stat.setString(1, resource.stringValue());
 			stat.setLong(2, revision.date.getTime());
 		
@@ -257,10 +369,8 @@ public abstract class WikiSQLStorageBase extends WikiStorage
 			SQL.monitorRead();
 			if (rs.next())
 			{				
-			    if (com.fluidops.iwb.util.Config.getConfig().getCompressWikiInDatabase())
-			        return gunzip(rs.getBytes("content"));
-			    else
-			        return rs.getString("content");
+				String content = readContent(rs, 1);
+				return content!=null ? content : readContent(rs, 2);
 			}
 			return null;
         } catch (SQLException e) {
@@ -268,14 +378,129 @@ public abstract class WikiSQLStorageBase extends WikiStorage
         	throw new RuntimeException("Retrieving wiki content failed.", e);
         } finally {
         	SQL.closeQuietly(rs);
-        	SQL.closeQuietly(stat);
+        	SQL.releaseConnection(conn);
         }
     }
     
 
 
+    /**
+     * Migrates the revisions with their own content to the wikicontent 
+     * table and removes the contents which are no longer referenced.
+     * The locks are always acquired before a connection is borrowed,
+     * as in {@link #storeWikiContent(URI, String, WikiRevision)}, such
+     * that a small pool cannot deadlock with concurrent writers.
+     */
+    @Override
+    public void compact() throws IOException
+    {
+    	int migrated = 0;
+    	try
+    	{
+    		// page by key, revisions without any content are never migrated
+    		Pair<String,Long> last = new Pair<String,Long>("", Long.MIN_VALUE);
+    		while (last!=null)
+    		{
+    			if (isCompactionStopped())
+    				return;
+    			contentLock.readLock().lock();
+    			try
+    			{
+    				Pair<Pair<String,Long>,Integer> res = migrateBatch(last);
+    				last = res.fst;
+    				migrated += res.snd;
+    			}
+    			finally
+    			{
+    				contentLock.readLock().unlock();
+    			}
+    		}
+    		
+    		int removed;
+    		contentLock.writeLock().lock();
+    		PooledConnection conn = null;
+    		try
+    		{
+    			conn = borrowConnection();
+    			PreparedStatement stat = conn.prepareStatement("delete from wikicontent where hash not in "
+    					+ "(select hash from revisions where hash is not null)");
+    			removed = stat.executeUpdate();
+    		}
+    		finally
+    		{
+    			SQL.releaseConnection(conn);
+    			contentLock.writeLock().unlock();
+    		}
+    		SQL.monitorWrite();
+    		
+    		if (migrated>0 || removed>0)
+    			logger.info("Wiki compaction: migrated " + migrated + " revisions, removed " + removed + " unreferenced contents");
+    	}
+    	catch (SQLException e)
+    	{
+    		SQL.monitorWriteFailure();
+    		throw new IOException("Wiki compaction failed.", e);
+    	}
+    }
+    
+    /**
+     * Migrates the next batch of revisions with their own content, i.e. 
+     * without hash, after the given key (name and date).
+     * 
+     * @return the key of the last revision of the batch, null if there are
+     * 			no more revisions, and the number of migrated revisions
+     */
+    private Pair<Pair<String,Long>,Integer> migrateBatch(Pair<String,Long> after) throws SQLException
+    {
+    	PooledConnection conn = null;
+    	ResultSet rs = null;
+    	try
+    	{
+    		conn = borrowConnection();
+    		PreparedStatement stat = conn.prepareStatement("select name, revdate, content from revisions "
+    				+ "where hash is null and (name>? or (name=? and revdate>?)) order by name, revdate limit " + MIGRATION_BATCH_SIZE);
+    		stat.setString(1, after.fst);
+    		stat.setString(2, after.fst);
+    		stat.setLong(3, after.snd);
+    		rs = stat.executeQuery();
+    		List<Pair<String,Long>> batch = new ArrayList<Pair<String,Long>>();
+    		List<String> contents = new ArrayList<String>();
+    		Pair<String,Long> last = null;
+    		int rows = 0;
+    		while (rs.next())
+    		{
+    			rows++;
+    			last = new Pair<String,Long>(rs.getString(1), rs.getLong(2));
+    			String content = readContent(rs, 3);
+    			if (content==null)
+    				continue;
+    			batch.add(last);
+    			contents.add(content);
+    		}
+    		SQL.closeQuietly(rs);
+    		rs = null;
+    		
+    		int migrated = 0;
+    		PreparedStatement update = conn.prepareStatement("update revisions set hash=?, content=null where name=? and revdate=?");
+    		for (int i=0; i<batch.size(); i++)
+    		{
+    			update.setString(1, storeContent(conn, contents.get(i)));
+    			update.setString(2, batch.get(i).fst);
+    			update.setLong(3, batch.get(i).snd);
+    			migrated += update.executeUpdate();
+    		}
+    		return new Pair<Pair<String,Long>,Integer>(rows<MIGRATION_BATCH_SIZE ? null : last, migrated);
+    	}
+    	finally
+    	{
+    		SQL.closeQuietly(rs);
+    		SQL.releaseConnection(conn);
+    	}
+    }
+
     @Override
     public void shutdown()  {
+    	super.shutdown();
         SQL.close();
     }
 
@@ -283,10 +508,10 @@ public abstract class WikiSQLStorageBase extends WikiStorage
 	@Override
 	public boolean delete(URI resource) 
 	{			 
-		 PreparedStatement prep=null;
-         try {
-        	Connection conn = getConnection();
-			prep = conn.prepareStatement("delete from revisions where name=?;");
+		PooledConnection conn = null;
+		try {
+			conn = borrowConnection();
+			PreparedStatement prep = conn.prepareStatement("delete from revisions where name=?;");
 			prep.setString(1, resource.stringValue());
 			
 			boolean res = prep.execute();
@@ -296,7 +521,7 @@ public abstract class WikiSQLStorageBase extends WikiStorage
 			SQL.monitorWriteFailure();
 			throw new RuntimeException("Delete revision failed.", e);
 		} finally {
-			SQL.closeQuietly(prep);
+			SQL.releaseConnection(conn);
 		}
 	}
 
@@ -304,10 +529,10 @@ public abstract class WikiSQLStorageBase extends WikiStorage
 	@Override
 	public boolean deleteRevision(URI resource, WikiRevision rev) 
 	{
-		PreparedStatement prep=null;
+		PooledConnection conn = null;
 		try {
-			Connection conn = getConnection();
-			prep = conn.prepareStatement("delete from revisions where name=? and date=?;");
+			conn = borrowConnection();
+			PreparedStatement prep = conn.prepareStatement("delete from revisions where name=? and revdate=?;");
 			prep.setString(1, resource.stringValue());
 			prep.setLong(2, rev.date.getTime());
 			
@@ -318,7 +543,7 @@ public abstract class WikiSQLStorageBase extends WikiStorage
 			SQL.monitorWriteFailure();
 			throw new RuntimeException("Delete revision failed.", e);
 		} finally {
-			SQL.closeQuietly(prep);
+			SQL.releaseConnection(conn);
 		}
 	}
 
@@ -326,10 +551,10 @@ public abstract class WikiSQLStorageBase extends WikiStorage
 	@Override
 	public boolean deleteAllOlder(URI resource, Date date) 
 	{
-		PreparedStatement prep=null;
+		PooledConnection conn = null;
 		try {
-			Connection conn = getConnection();
-			prep = conn.prepareStatement("delete from revisions where name=? and date>?;");
+			conn = borrowConnection();
+			PreparedStatement prep = conn.prepareStatement("delete from revisions where name=? and revdate>?;");
 			prep.setString(1, resource.stringValue());
 			prep.setLong(2, date.getTime());
 			
@@ -340,7 +565,7 @@ public abstract class WikiSQLStorageBase extends WikiStorage
 			SQL.monitorWriteFailure();
 			throw new RuntimeException("Delete revisions failed", e);
 		} finally {
-			SQL.closeQuietly(prep);
+			SQL.releaseConnection(conn);
 		}
 	}
 
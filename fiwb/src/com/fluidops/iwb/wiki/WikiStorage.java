@@ -25,14 +25,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.log4j.Logger;
 import org.openrdf.model.URI;
 
@@ -45,6 +50,7 @@ import com.fluidops.util.Pair;
 import com.fluidops.util.Singleton;
 import com.fluidops.util.persist.Properties;
 import com.fluidops.util.persist.TransactionalFile;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Wiki storage with revisions and meta data management.
@@ -65,6 +71,24 @@ public abstract class WikiStorage
     
     private static UserManager userManager = EndpointImpl.api().getUserManager();
     
+    /**
+     * Delay of the first compaction after {@link #startCompaction(long)}
+     */
+    private static final long COMPACTION_DELAY = 60000;
+    
+    /**
+     * Maximum time in ms {@link #stopCompaction()} waits for a running compaction
+     */
+    private static final long COMPACTION_STOP_TIMEOUT = 60000;
+    
+    private ScheduledExecutorService compactionExecutor;
+    
+    /**
+     * Set when the compaction is stopped, compactions in progress finish
+     * their current step and skip the remaining ones
+     */
+    private volatile boolean compactionStopped = false;
+    
     private static Singleton<Properties> wikibotfile = new Singleton<Properties>() {
 		@Override
 		protected Properties createInstance() throws Exception {
@@ -114,13 +138,16 @@ public abstract class WikiStorage
 		
 		public boolean delete(URI resource) 
 		{
-			return Wikimedia.getWikiStorage().deleteRevision(resource, this);
-			
+			boolean res = Wikimedia.getWikiStorage().deleteRevision(resource, this);
+			WikiPageCache.getInstance().invalidate(resource);
+			return res;
 		}
 		
 		public boolean deleteAllOlder(URI resource) 
 		{
-			return Wikimedia.getWikiStorage().deleteAllOlder(resource, date);
+			boolean res = Wikimedia.getWikiStorage().deleteAllOlder(resource, date);
+			WikiPageCache.getInstance().invalidate(resource);
+			return res;
 		}
 		
 		/**
@@ -265,8 +292,11 @@ public abstract class WikiStorage
 
         storeWikiContent(name, content, wr);
         
+        // Drop the renderings of the page and of the pages including it
+        WikiPageCache.getInstance().invalidate(name);
+        
         // Update wiki page in keyword index
-        KeywordIndexAPI.replaceWikiIndexEntry(name, content);
+        KeywordIndexAPI.replaceWikiIndexEntry(name);
     }
 
     private Date previousBootstrapVersion(Date date)
@@ -353,6 +383,110 @@ public abstract class WikiStorage
     public void shutdown()
     {
         // default: no DB connection
+        stopCompaction();
+    }
+    
+    /**
+     * Starts the periodic compaction of the storage in the background,
+     * see {@link #compact()}. The first compaction is run after a delay
+     * of one minute.
+     * 
+     * @param interval the interval in ms, compaction is disabled if not positive
+     */
+    public synchronized void startCompaction(long interval)
+    {
+    	if (interval<=0 || compactionExecutor!=null)
+    		return;
+    	compactionStopped = false;
+    	compactionExecutor = Executors.newSingleThreadScheduledExecutor(
+    			new ThreadFactoryBuilder().setNameFormat("IWB Wiki Compaction").setDaemon(true)
+    				.setPriority(Thread.MIN_PRIORITY).build());
+    	compactionExecutor.scheduleWithFixedDelay(new Runnable()
+    	{
+    		@Override
+    		public void run()
+    		{
+    			try
+    			{
+    				long start = System.currentTimeMillis();
+    				compact();
+    				logger.debug("Wiki compaction finished in " + (System.currentTimeMillis()-start) + "ms");
+    			}
+    			catch (Exception e)
+    			{
+    				logger.warn("Wiki compaction failed: " + e.getMessage(), e);
+    			}
+    		}
+    	}, COMPACTION_DELAY, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stops the periodic compaction and waits until a compaction in 
+     * progress has finished its current step, such that the storage
+     * can be closed afterwards.
+     */
+    public void stopCompaction()
+    {
+    	ScheduledExecutorService executor;
+    	synchronized (this)
+    	{
+    		executor = compactionExecutor;
+    		compactionExecutor = null;
+    		compactionStopped = true;
+    	}
+    	if (executor==null)
+    		return;
+    	executor.shutdown();
+    	try
+    	{
+    		if (!executor.awaitTermination(COMPACTION_STOP_TIMEOUT, TimeUnit.MILLISECONDS))
+    			logger.warn("Wiki compaction did not finish within " + COMPACTION_STOP_TIMEOUT + "ms");
+    	}
+    	catch (InterruptedException e)
+    	{
+    		Thread.currentThread().interrupt();
+    	}
+    }
+    
+    /**
+     * @return true if the compaction has been stopped, i.e. a compaction in
+     * 			progress should return as soon as possible
+     */
+    protected boolean isCompactionStopped()
+    {
+    	return compactionStopped;
+    }
+    
+    /**
+     * Compacts the storage, i.e. migrates revisions stored as full copies 
+     * to the deduplicated format and removes contents which are no longer 
+     * referenced by any revision. May be overriden by implementing subclasses, 
+     * default implementation is empty.
+     * 
+     * @throws IOException
+     */
+    public void compact() throws IOException
+    {
+    	// default: nothing to compact
+    }
+    
+    /**
+     * Returns the hash identifying the given content in deduplicated
+     * storages (SHA-1 of the UTF-8 representation, as hex string).
+     * 
+     * @param content
+     * @return
+     */
+    public static String contentHash(String content)
+    {
+    	try
+    	{
+    		return DigestUtils.shaHex(content.getBytes("UTF-8"));
+    	}
+    	catch (UnsupportedEncodingException e)
+    	{
+    		throw new RuntimeException(e);
+    	}
     }
 
 
@@ -25,6 +25,7 @@ import info.bliki.wiki.model.SemanticRelation;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -64,6 +65,7 @@ import com.fluidops.iwb.widget.AbstractWidget;
 import com.fluidops.iwb.widget.Widget;
 import com.fluidops.iwb.widget.WidgetEmbeddingError;
 import com.fluidops.iwb.widget.WidgetEmbeddingError.ErrorType;
+import com.fluidops.iwb.widget.WidgetRenderer;
 import com.fluidops.iwb.wiki.FluidWikiModel.TemplateResolver;
 import com.fluidops.iwb.wiki.parserfunction.ParserFunctionsFactory;
 
@@ -97,20 +99,68 @@ public class Wikimedia
     static String htmlHeader;
     
     /**
-     * Gets the HTML.
+     * Gets the HTML. The output of the wiki parser is taken from the
+     * {@link WikiPageCache} if possible, widgets and template variables
+     * are resolved on each call.
      * 
      * @return the HTML
      */
     public static String getHTML( String wikitext, final URI id, FComponent parent, Date version)
     {
-    	final Date versionFinal = version;
-    	
         if (wikitext==null || wikitext.length()==0)
             return "(No text defined for this topic)";
 
-        FluidWikiModel wikiModel = new FluidWikiModel(id, parent);
+        String pageName = EndpointImpl.api().getDataManager().getLabel(id);
+        
+        WikiPageCache cache = WikiPageCache.getInstance();
+        WikiPageCache.Key key = cache.createKey(id, wikitext, version, pageName);
+        WikiPageCache.RenderedPage page = cache.get(key);
+        if (page==null)
+        {
+            FluidWikiModel wikiModel = new FluidWikiModel(id, parent);
+            page = render(wikiModel, wikitext, id, parent, version, pageName);
+            
+            // handle "#REDIRECT [[myUri]]" directive
+            if (wikiModel.getRedirectLink() != null) {
+            	
+            	URI redirectUri = EndpointImpl.api().getNamespaceService()
+            			.guessURI(wikiModel.getRedirectLink());
+            	if (redirectUri==null)
+            		return "Error: requested redirect to " + StringEscapeUtils.escapeHtml(wikiModel.getRedirectLink()) 
+            				+ " cannot be performed. Not a valid resource.";
+            	
+            	String location = EndpointImpl.api().getRequestMapper().getRequestStringFromValue(redirectUri);
+            	parent.addClientUpdate(new FClientUpdate("document.location = '" + location + "';"));
+            	return "Redirect to " + wikiModel.getRedirectLink();
+            }
+            
+            if (!wikiModel.isVolatile())
+            	cache.put(key, page);
+        }
+        
+        String html = insertWidgets(page, id, parent);
+        
+        // try to resolve template variables like $this.Host/cpuUsage
+        html = replaceTemplateVariables(html,id);
+        
+        return html;
+    }
+    
+    /**
+     * Renders the wiki text with the given model. Widgets are not instantiated,
+     * instead a placeholder is inserted for each widget (see 
+     * {@link WikiPageCache#getWidgetPlaceholder(int)}).
+     */
+    private static WikiPageCache.RenderedPage render(FluidWikiModel wikiModel, String wikitext, 
+    		URI id, FComponent parent, Date version, String pageName)
+    {
+    	final Date versionFinal = version;
+    	final List<WikiPageCache.WidgetCall> widgets = new ArrayList<WikiPageCache.WidgetCall>();
+    	final Set<URI> templates = new HashSet<URI>();
+    	long renderTime = System.currentTimeMillis();
+    	
         ParserFunctionsFactory.registerPageContextAwareParserFunctions(wikiModel, pageContextFor(id, parent));
-        wikiModel.setPageName(EndpointImpl.api().getDataManager().getLabel(id));
+        wikiModel.setPageName(pageName);
         wikiModel.addTemplateResolver( new TemplateResolver() {
 
   
@@ -126,82 +176,10 @@ public class Wikimedia
                  */
             	if ( templateName.startsWith("#widget"))
             	{
-            		try
-					{
-            			String clazz = templateName.substring(templateName.lastIndexOf(":")+1).trim();
-            			clazz = EndpointImpl.api().getWidgetService().getWidgetClass( clazz );
-            			
-                        if (clazz == null)
-                            return "<div style='border:1px dashed black'>"
-                                    + "Error: no such widget or widget is improperly registered in the configuration.</div>";
-
-						Class<?> widgetClass = Class.forName( clazz );
-						Widget<?> widget = (Widget<?>) widgetClass.newInstance();
-						
-						// build page context from parent's page context
-						// TODO replace with pageContext() when implementing a proper parser function (think also if it suffices to have just one)
-						PageContext childPageContext = new PageContext();
-						childPageContext.repository = Global.repository;
-						childPageContext.httpRequest = parent.getPage().request;
-                        childPageContext.value = page;
-                        childPageContext.contextPath = EndpointImpl.api().getRequestMapper().getContextPath();
-                        
-						widget.setPageContext(childPageContext);
-						
-						//************ WORKAROUND ***************\\
-						// in this case, unnamed parameters are used, such as {{#widget: Address | 'Bruchsal'}}
-						// Actually we ask here, whether the field "1" is set (this would correspond to 1 = 'Bruchsal')
-						// This is a workaround, since the previous if statement was broken, since bliki 3.0.16
-						if(templateParameters.size()==0) {
-						    FComponent comp = widget.getComponentUAE( "w"+AnnotateLinkComponent.getNextId() );
-                            FluidWikiModel.addRenderedComponent( comp );
-                            widget.setMapping(Operator.createNoop());
-                            return getAnchor( comp, parent );
-						}
-						else if(!isNullOrEmpty(templateParameters.get("1")) 
-								&& !isNullOrEmpty(templateParameters.get("1").trim()))
-						{
-						    String mappingString = templateParameters.get( "1" );
-						    widget.setMapping( Operator.parse(mappingString) );
-						    
-						    FComponent comp = widget.getComponentUAE( "w"+AnnotateLinkComponent.getNextId() );
-						    FluidWikiModel.addRenderedComponent( comp );
-                            return getAnchor( comp, parent );						    
-						}
-						else // named parameters are used
-						{						    
-						    widget.setMapping( Operator.parseStruct(templateParameters) );
-
-						    
-						    String id = "w" + AnnotateLinkComponent.getNextId();
-                            FComponent comp = widget.getComponentUAE(id);
-                            
-                            // make sure ID is indeed used as widget ID
-                            if (!comp.getId().equals(id))
-                                throw new RuntimeException(
-                                        "Wrong widget ID in constructed widget (class='"
-                                                + comp.getClass() + "'). Is " + comp.getId() 
-                                                + " but should be " + id
-                                                + ". Please implement getComponent(id) properly "
-                                                + "(make sure you use the parameter id).");
-
-                            
-                            FluidWikiModel.addRenderedComponent( comp );
-                            return getAnchor( comp, parent );						    
-						}
-
-					}
-
-            		catch (Exception e)
-					{
-						logger.error(e.getMessage(), e);
-						
-						FComponent comp = WidgetEmbeddingError.getErrorLabel(
-								"w"+AnnotateLinkComponent.getNextId(),
-								ErrorType.EXCEPTION,e.toString());
-						FluidWikiModel.addRenderedComponent( comp );
-						return getAnchor( comp, parent );   
-					}
+            		// the widget is instantiated after rendering, see insertWidgets()
+            		widgets.add(new WikiPageCache.WidgetCall(templateName, 
+            				new HashMap<String,String>(templateParameters)));
+            		return WikiPageCache.getWidgetPlaceholder(widgets.size()-1);
             	}
             	
                 //funny code instead of commenting out... (disable templates)
@@ -222,7 +200,7 @@ public class Wikimedia
                 if ( templateName.startsWith("lang-") )
                 	return templateParameters.get("1");
                 
-                String templ = getIncludedTemplate(templateName, namespace, versionFinal);
+                String templ = getIncludedTemplate(templateName, namespace, versionFinal, templates);
 
                 if (templ!=null)
                 {
@@ -235,24 +213,143 @@ public class Wikimedia
         
         String html = wikiModel.render( wikitext );
         
-        // handle "#REDIRECT [[myUri]]" directive
-		if (wikiModel.getRedirectLink() != null) {
-			
-			URI redirectUri = EndpointImpl.api().getNamespaceService()
-					.guessURI(wikiModel.getRedirectLink());
-			if (redirectUri==null)
-				return "Error: requested redirect to " + StringEscapeUtils.escapeHtml(wikiModel.getRedirectLink()) 
-						+ " cannot be performed. Not a valid resource.";
-			
-			String location = EndpointImpl.api().getRequestMapper().getRequestStringFromValue(redirectUri);
-			parent.addClientUpdate(new FClientUpdate("document.location = '" + location + "';"));
-			return "Redirect to " + wikiModel.getRedirectLink();
-		}
-        
-        // try to resolve template variables like $this.Host/cpuUsage
-        html = replaceTemplateVariables(html,id);
-        
-        return html;
+        return new WikiPageCache.RenderedPage(html, widgets, templates, wikiModel.isDataDependent(), renderTime);
+    }
+    
+    /**
+     * Instantiates the widgets of the rendered page and replaces
+     * the placeholders by the widget anchors. The widget components
+     * are built by the {@link WidgetRenderer}, i.e. possibly in parallel.
+     */
+    private static String insertWidgets(WikiPageCache.RenderedPage page, URI id, FComponent parent)
+    {
+    	if (page.widgets.isEmpty())
+    		return page.html;
+    	
+    	// instantiate the widgets in document order
+    	String[] anchors = new String[page.widgets.size()];
+    	List<Integer> indexes = new ArrayList<Integer>();
+    	List<Widget<?>> widgets = new ArrayList<Widget<?>>();
+    	List<String> ids = new ArrayList<String>();
+    	for (int i=0; i<page.widgets.size(); i++)
+    	{
+    		WikiPageCache.WidgetCall call = page.widgets.get(i);
+    		try
+    		{
+    			Widget<?> widget = createWidget(call.templateName, call.parameters, id, parent);
+    			if (widget==null)
+    			{
+    				anchors[i] = "<div style='border:1px dashed black'>"
+    						+ "Error: no such widget or widget is improperly registered in the configuration.</div>";
+    				continue;
+    			}
+    			indexes.add(i);
+    			widgets.add(widget);
+    			ids.add("w"+AnnotateLinkComponent.getNextId());
+    		}
+    		catch (Exception e)
+    		{
+    			anchors[i] = getErrorAnchor(e, parent);
+    		}
+    	}
+    	
+    	List<FComponent> comps = WidgetRenderer.getInstance().getComponents(widgets, ids);
+    	for (int j=0; j<widgets.size(); j++)
+    	{
+    		int i = indexes.get(j);
+    		anchors[i] = registerWidget(ids.get(j), comps.get(j), page.widgets.get(i).parameters, parent);
+    	}
+    	
+    	Matcher m = WikiPageCache.WIDGET_PLACEHOLDER.matcher(page.html);
+    	StringBuffer sb = new StringBuffer();
+    	while (m.find())
+    	{
+    		int index = Integer.parseInt(m.group(1));
+    		String anchor = index < anchors.length ? anchors[index] : m.group();
+    		m.appendReplacement(sb, Matcher.quoteReplacement(anchor));
+    	}
+    	m.appendTail(sb);
+    	return sb.toString();
+    }
+    
+    /**
+     * Instantiates the widget for a #widget call and sets its page context
+     * and mapping.
+     * 
+     * @return the widget, null if the widget is not registered
+     */
+    private static Widget<?> createWidget(String templateName, Map<String, String> templateParameters, URI page, FComponent parent) throws Exception
+    {
+		String clazz = templateName.substring(templateName.lastIndexOf(":")+1).trim();
+		clazz = EndpointImpl.api().getWidgetService().getWidgetClass( clazz );
+		
+        if (clazz == null)
+            return null;
+
+		Class<?> widgetClass = Class.forName( clazz );
+		Widget<?> widget = (Widget<?>) widgetClass.newInstance();
+		
+		// build page context from parent's page context
+		// TODO replace with pageContext() when implementing a proper parser function (think also if it suffices to have just one)
+		widget.setPageContext(pageContextFor(page, parent));
+		
+		//************ WORKAROUND ***************\\
+		// in this case, unnamed parameters are used, such as {{#widget: Address | 'Bruchsal'}}
+		// Actually we ask here, whether the field "1" is set (this would correspond to 1 = 'Bruchsal')
+		// This is a workaround, since the previous if statement was broken, since bliki 3.0.16
+		if (templateParameters.size()==0)
+			widget.setMapping( Operator.createNoop() );
+		else if (hasUnnamedParameter(templateParameters))
+		    widget.setMapping( Operator.parse(templateParameters.get( "1" )) );
+		else // named parameters are used
+		    widget.setMapping( Operator.parseStruct(templateParameters) );
+		
+		return widget;
+    }
+    
+    /**
+     * Registers the built component of a widget as rendered component.
+     * 
+     * @return the HTML anchor of the widget component
+     */
+    private static String registerWidget(String id, FComponent comp, Map<String, String> templateParameters, FComponent parent)
+    {
+    	try
+    	{
+    		// make sure ID is indeed used as widget ID (in case named parameters are used)
+    		if (templateParameters.size()>0 && !hasUnnamedParameter(templateParameters) 
+    				&& !(comp instanceof WidgetRenderer.PendingWidget) && !comp.getId().equals(id))
+    			throw new RuntimeException(
+    					"Wrong widget ID in constructed widget (class='"
+    							+ comp.getClass() + "'). Is " + comp.getId() 
+    							+ " but should be " + id
+    							+ ". Please implement getComponent(id) properly "
+    							+ "(make sure you use the parameter id).");
+    		
+    		FluidWikiModel.addRenderedComponent( comp );
+    		return getAnchor( comp, parent );
+    	}
+    	catch (Exception e)
+    	{
+    		return getErrorAnchor(e, parent);
+    	}
+    }
+    
+    private static boolean hasUnnamedParameter(Map<String, String> templateParameters)
+    {
+    	return !isNullOrEmpty(templateParameters.get("1")) 
+				&& !isNullOrEmpty(templateParameters.get("1").trim());
+    }
+    
+    private static String getErrorAnchor(Exception e, FComponent parent)
+    {
+		logger.error(e.getMessage(), e);
+		
+		FComponent comp = WidgetEmbeddingError.getErrorLabel(
+				"w"+AnnotateLinkComponent.getNextId(),
+				ErrorType.EXCEPTION,e.toString());
+		FluidWikiModel.addRenderedComponent( comp );
+		return getAnchor( comp, parent );   
     }
     
     private static PageContext pageContextFor(URI page, FComponent parent) {
@@ -265,6 +362,16 @@ public class Wikimedia
     }
    
     protected static String getIncludedTemplate(String templateName, String namespace, Date versionFinal)
+    {
+    	return getIncludedTemplate(templateName, namespace, versionFinal, null);
+    }
+    
+    /**
+     * Returns the content of the template to be included. The URI of the 
+     * template is added to the given set of dependencies (if not null), 
+     * regardless of whether the template exists or is accessible.
+     */
+    private static String getIncludedTemplate(String templateName, String namespace, Date versionFinal, Set<URI> dependencies)
 	{
         templateName = templateName.replaceAll(" ", "_");
         NamespaceService ns  = EndpointImpl.api().getNamespaceService();                
@@ -318,6 +425,9 @@ public class Wikimedia
         if (templateURI==null)
         	return "<pre>Cannot resolve template '" + templateName + "' as include (invalid URI)</pre>";
         
+        if (dependencies!=null)
+        	dependencies.add(templateURI);
+        
         // forbid include of templates to which user has no access
         if (!EndpointImpl.api().getUserManager().hasValueAccess(templateURI, ValueAccessLevel.READ))
         	return ""; // do not render anything in case the user does not have access rights to the include